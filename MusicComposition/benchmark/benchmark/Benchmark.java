@@ -0,0 +1,109 @@
+package benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Minimal timing harness for the hot path benchmarks, needing nothing beyond the JDK.
+ * <p>
+ * Each benchmark is warmed up, then run in growing batches until the measurement time has passed.
+ * Reports time and bytes allocated per operation, and the allocation rate, which on HotSpot are read
+ * from the calling thread's allocation counter. Console output of the code under test is discarded.
+ */
+public final class Benchmark {
+
+	public static final long DEFAULT_WARMUP_MILLIS = 500;
+	public static final long DEFAULT_MEASURE_MILLIS = 1000;
+
+	/** keeps results reachable so the JIT cannot discard the work producing them */
+	private static volatile Object sink;
+
+	private static final PrintStream SILENT = new PrintStream(new OutputStream() {
+		@Override public void write(int b) {}
+		@Override public void write(byte[] b, int off, int len) {}
+	});
+
+	private Benchmark() {} // util class
+
+	/**
+	 * @param name of the benchmark
+	 * @param operation to be measured, returning its result
+	 * @return time and allocation per operation
+	 */
+	public static Result run(String name, Supplier<?> operation) {
+		return run(name, operation, DEFAULT_WARMUP_MILLIS, DEFAULT_MEASURE_MILLIS);
+	}
+
+	public static Result run(String name, Supplier<?> operation, long warmupMillis, long measureMillis) {
+		PrintStream out = System.out;
+		System.setOut(SILENT);
+		try {
+			loop(operation, warmupMillis * 1_000_000L);
+			long bytesBefore = allocatedBytes();
+			long start = System.nanoTime();
+			long ops = loop(operation, measureMillis * 1_000_000L);
+			long nanos = System.nanoTime() - start;
+			long bytes = allocatedBytes() - bytesBefore;
+			return new Result(name, ops, nanos, bytesBefore < 0 ? -1 : bytes);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/** @return number of operations run, at least one */
+	private static long loop(Supplier<?> operation, long budgetNanos) {
+		long ops = 0;
+		long batch = 1;
+		long start = System.nanoTime();
+		do {
+			for (long i=0; i<batch; i++)
+				sink = operation.get();
+			ops += batch;
+			batch *= 2;
+		} while (System.nanoTime() - start < budgetNanos);
+		return ops;
+	}
+
+	/** @return bytes allocated so far by the calling thread, or -1 if unsupported */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+			if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled())
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	public static class Result {
+
+		private final String name;
+		private final long ops;
+		private final long nanos;
+		/** -1 if unknown */
+		private final long bytes;
+
+		private Result(String name, long ops, long nanos, long bytes) {
+			this.name = name;
+			this.ops = ops;
+			this.nanos = nanos;
+			this.bytes = bytes;
+		}
+
+		public String getName() { return name; }
+		public double nanosPerOp() { return nanos / (double) ops; }
+		/** @return bytes allocated per operation, or -1 if unknown */
+		public double bytesPerOp() { return bytes < 0 ? -1 : bytes / (double) ops; }
+		/** @return allocation rate in MB per second, or -1 if unknown, comparable to JMH's gc.alloc.rate */
+		public double allocMBPerSecond() { return bytes < 0 ? -1 : bytes / 1e6 / (nanos / 1e9); }
+
+		@Override
+		public String toString() {
+			return String.format("%-48s %14.1f ns/op %14.1f B/op %10.1f MB/s (%d ops)",
+					name, nanosPerOp(), bytesPerOp(), allocMBPerSecond(), ops);
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import composing.BatchComposer;
+import composing.Composer;
+import composing.Composition;
+import composing.RandomUtil;
+import composing.archive.CompositionArchive;
+import composing.archive.CompositionWriter;
+import composing.strategy.ComposingStrategy;
+import composing.writer.ChordPlayingUtil;
+import composing.writer.PrettyMelodyWriter;
+import main.BeadsTimbre;
+import main.SynthEngine;
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.io.NonrealtimeIO;
+import performance.instrument.Instrument;
+import theory.Chord;
+import theory.ChordCache;
+import theory.ChordSpec;
+import theory.Key;
+import theory.Letter;
+import theory.Measure;
+import theory.MidiPitch;
+import theory.Note;
+import theory.analysis.Phrase;
+import theory.progression.ChordProgressions;
+import theory.progression.ChordProgressions.KeyChange;
+import theory.progression.ChordProgressions.KeyChordProgression;
+import theory.progression.VoiceLeading;
+
+/**
+ * Benchmarks of the composing, theory and playback hot paths.
+ * <p>
+ * <code>[name filter...]</code> runs the benchmarks whose names contain any of the given strings, or all of them.
+ * Every benchmark composes from a fixed seed, so runs are comparable.
+ */
+public class HotPathBenchmarks {
+
+	private static final long SEED = 20200622L;
+
+	public static void main(String[] args) {
+		Map<String,Supplier<?>> benchmarks = benchmarks();
+		for (Map.Entry<String,Supplier<?>> benchmark : benchmarks.entrySet()) {
+			if (!selected(benchmark.getKey(), args))
+				continue;
+			Supplier<?> operation = benchmark.getValue();
+			System.out.println(Benchmark.run(benchmark.getKey(), 
+					() -> RandomUtil.withSource(new SplittableRandom(SEED), operation)));
+		}
+		System.out.println("Chord cache: " + ChordCache.stats());
+	}
+
+	private static boolean selected(String name, String[] filters) {
+		if (filters.length == 0)
+			return true;
+		for (String filter : filters)
+			if (name.toLowerCase().contains(filter.toLowerCase()))
+				return true;
+		return false;
+	}
+
+	private static Map<String,Supplier<?>> benchmarks() {
+		Map<String,Supplier<?>> benchmarks = new LinkedHashMap<>();
+
+		// measures of a composed piece
+		Composition piece = BatchComposer.compose(Composer.repertoire().get(1), 9, SEED);
+		List<Measure> measures = new ArrayList<>(piece.getMeasures(2, 9));
+		Measure measure = measures.get(0);
+		Instrument piano = Instrument.PIANO;
+		benchmarks.put("Measure.getNotes", () -> measure.getNotes(piano, 0, measure.length()));
+		benchmarks.put("Measure.getActions", () -> measure.getActions(piano, measure.beatValue(), measure.length()));
+		benchmarks.put("Measure.getTimes", () -> measure.getTimes());
+
+		// phrases
+		Key key = new Key(Note.of(Letter.C), Key.MAJOR);
+		Chord tonic = key.chord(1, 3);
+		Phrase arpeggio = ChordPlayingUtil.arpeggiateChordHalfBeats(tonic);
+		benchmarks.put("Phrase.absorb", () -> {
+			Phrase phrase = new Phrase();
+			for (int beat=0; beat<4; beat++)
+				phrase.absorb(arpeggio, beat / 4.0);
+			return phrase;
+		});
+		benchmarks.put("Phrase.expand", () -> arpeggio.expand(2.0));
+
+		// voice leading
+		ChordSpec dominant = key.chordSpec(5);
+		int bassMin = MidiPitch.inOctave(key.getTonic(), 3);
+		int bassMax = bassMin + 19;
+		benchmarks.put("VoiceLeading.voiceLead", () -> VoiceLeading.voiceLead(tonic, dominant, bassMin, bassMax));
+		benchmarks.put("VoiceLeading.voiceLeadPolyphony", () -> VoiceLeading.voiceLeadPolyphony(tonic, dominant, bassMin, bassMax));
+
+		// progressions
+		Note subdominant = key.note(4);
+		KeyChange keyChange = new KeyChange(ChordProgressions.standardMajorProgression(key.getTonic()),
+				ChordProgressions.standardMajorProgression(subdominant));
+		benchmarks.put("DestinationProgression.progress", () -> keyChange.progress(8));
+		KeyChordProgression progression = ChordProgressions.standardMajorProgression(key.getTonic());
+		ChordSpec subdominantChord = key.chordSpec(4);
+		benchmarks.put("ChordProgression.getNext", () -> progression.getNext(subdominantChord));
+
+		// analysis
+		List<MidiPitch> scale = new ArrayList<>();
+		for (int degree=1; degree<=7; degree++)
+			scale.add(MidiPitch.of(key.note(degree), 4));
+		benchmarks.put("Key.inferKey", () -> Key.inferKey(scale));
+
+		// melody
+		PrettyMelodyWriter melodyWriter = new PrettyMelodyWriter();
+		benchmarks.put("PrettyMelodyWriter.writeMelody", () -> melodyWriter.writeMelody(measures));
+
+		// archiving
+		benchmarks.put("CompositionWriter.write", () -> {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (CompositionWriter writer = new CompositionWriter(Channels.newChannel(bytes))) {
+				writer.write(piece);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return bytes;
+		});
+		CompositionArchive archive = archive(piece);
+		benchmarks.put("CompositionArchive.getMeasure", () -> archive.getMeasure(5));
+
+		// synthesis
+		SynthEngine engine = soundingEngine(BeadsTimbre.getInstrumentTimbre());
+		benchmarks.put("SynthEngine.calculateBuffer (" + engine.size() + " voices)", () -> {
+			engine.calculateBuffer();
+			return engine;
+		});
+
+		// full composing loop of every strategy in the repertoire
+		List<ComposingStrategy> repertoire = Composer.repertoire();
+		for (int i=0; i<repertoire.size(); i++) {
+			final int trick = i;
+			benchmarks.put("iterate 32 measures: " + repertoire.get(i),
+					() -> BatchComposer.compose(Composer.repertoire().get(trick), 32, SEED));
+		}
+
+		return benchmarks;
+	}
+
+	/** @return engine with every voice holding a note of the given timbre, spread over five octaves */
+	private static SynthEngine soundingEngine(BeadsTimbre timbre) {
+		SynthEngine engine = new SynthEngine(new AudioContext(new NonrealtimeIO()));
+		for (int i=0; i<engine.size(); i++)
+			engine.start(engine.claimSlot(), timbre.getWavetable(), 65.4f * (float) Math.pow(2, i % 60 / 12.0),
+					1f / engine.size(), 0, 0);
+		return engine;
+	}
+
+	private static CompositionArchive archive(Composition piece) {
+		try {
+			Path path = Files.createTempFile("benchmark", ".mcmp");
+			path.toFile().deleteOnExit();
+			CompositionWriter.write(piece, path);
+			return CompositionArchive.open(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
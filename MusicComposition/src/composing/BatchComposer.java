@@ -0,0 +1,239 @@
+package composing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+import composing.strategy.ComposingStrategy;
+import theory.Measure;
+
+/**
+ * Composes many pieces at once, without a player, an audio device or any waiting.
+ * <p>
+ * Each piece is composed on a {@link ForkJoinPool} worker by a strategy instance of its own,
+ * which is iterated directly rather than on a {@link ComposerThread}: whenever the strategy
+ * would wait for the player, the next measure is written immediately.
+ * <p>
+ * Every job has a seed, from which all of its piece's random decisions are drawn,
+ * so any piece in a batch can be composed again on its own with {@link #compose(ComposingStrategy, int, long)}.
+ */
+public class BatchComposer {
+
+	private final ForkJoinPool pool;
+
+	public BatchComposer() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/** @param pool on which pieces are to be composed */
+	public BatchComposer(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param jobs pieces to compose
+	 * @return the pieces composed, in the order of the given jobs, and how quickly they were composed
+	 */
+	public Report composeAll(List<Job> jobs) {
+		long start = System.nanoTime();
+		List<ForkJoinTask<Result>> tasks = new ArrayList<>(jobs.size());
+		for (Job job : jobs)
+			tasks.add(pool.submit(() -> job.compose()));
+		List<Result> results = new ArrayList<>(jobs.size());
+		for (ForkJoinTask<Result> task : tasks)
+			results.add(task.join());
+		return new Report(results, System.nanoTime() - start, pool.getParallelism());
+	}
+
+	/**
+	 * Composes a piece on the calling thread.
+	 *
+	 * @param strategy to compose with, which should not be shared with any other composition
+	 * @param measures length of the piece
+	 * @param seed from which the piece's random decisions are drawn
+	 * @return the finished piece
+	 * @throws IllegalStateException if the strategy stops composing before the piece is long enough
+	 */
+	public static Composition compose(ComposingStrategy strategy, int measures, long seed) {
+		return RandomUtil.withSource(new SplittableRandom(seed), () -> compose(strategy, measures));
+	}
+
+	private static Composition compose(ComposingStrategy strategy, int measures) {
+		if (measures <= 0)
+			throw new IllegalArgumentException("Pieces must have at least one measure, not " + measures);
+		IncompleteComposition composition = new IncompleteComposition();
+		composition.addMeasure(strategy.generateFirstMeasure());
+		for (int written=1; written<measures; written++)
+			composeNextMeasure(strategy, composition);
+		return composition.finishComposition();
+	}
+
+	/**
+	 * Iterates the strategy until it waits for a measure to be played, or its future is full, and writes the next
+	 * measure. Uses the calling thread's random source.
+	 *
+	 * @return the measure written
+	 * @throws IllegalStateException if the strategy waits before finishing any measure
+	 */
+	static Measure composeNextMeasure(ComposingStrategy strategy, IncompleteComposition composition) {
+		MeasureRingBuffer future = composition.getFuture();
+		while (true) {
+			boolean waiting = strategy.iterate(composition);
+			composition.commit(strategy.unfinishedMeasures(composition));
+			if (waiting || future.size() == future.capacity()) {
+				if (future.ready() == 0)
+					throw new IllegalStateException(strategy + " is waiting for a measure it has not finished");
+				return composition.writeNextMeasure();
+			}
+		}
+	}
+
+	/** A piece to be composed */
+	public static class Job {
+
+		private final Supplier<ComposingStrategy> strategy;
+		private final int measures;
+		private final long seed;
+
+		/**
+		 * @param strategy creates the strategy which composes this piece; called once per job
+		 * @param measures length of the piece
+		 */
+		public Job(Supplier<ComposingStrategy> strategy, int measures) {
+			this(strategy, measures, RandomUtil.seed());
+		}
+
+		/**
+		 * @param strategy creates the strategy which composes this piece; called once per job
+		 * @param measures length of the piece
+		 * @param seed from which the piece's random decisions are drawn
+		 */
+		public Job(Supplier<ComposingStrategy> strategy, int measures, long seed) {
+			if (measures <= 0)
+				throw new IllegalArgumentException("Pieces must have at least one measure, not " + measures);
+			this.strategy = strategy;
+			this.measures = measures;
+			this.seed = seed;
+		}
+
+		public int getMeasures() { return measures; }
+		public long getSeed() { return seed; }
+
+		private Result compose() {
+			long start = System.nanoTime();
+			ComposingStrategy instance = strategy.get();
+			try {
+				Composition composition = BatchComposer.compose(instance, measures, seed);
+				return new Result(this, instance, composition, null, System.nanoTime() - start);
+			} catch (RuntimeException e) {
+				return new Result(this, instance, null, e, System.nanoTime() - start);
+			}
+		}
+	}
+
+	/** A composed piece, or the reason it could not be composed */
+	public static class Result {
+
+		private final Job job;
+		private final ComposingStrategy strategy;
+		private final Composition composition;
+		private final RuntimeException failure;
+		private final long nanos;
+
+		private Result(Job job, ComposingStrategy strategy, Composition composition, RuntimeException failure, long nanos) {
+			this.job = job;
+			this.strategy = strategy;
+			this.composition = composition;
+			this.failure = failure;
+			this.nanos = nanos;
+		}
+
+		public Job getJob() { return job; }
+		public ComposingStrategy getStrategy() { return strategy; }
+		/** @return the finished piece, or <code>null</code> if composing failed */
+		public Composition getComposition() { return composition; }
+		/** @return why composing failed, or <code>null</code> if it succeeded */
+		public RuntimeException getFailure() { return failure; }
+		public boolean succeeded() { return failure == null; }
+		/** @return time spent composing this piece */
+		public long getNanos() { return nanos; }
+	}
+
+	/** The results of a batch, and its throughput */
+	public static class Report {
+
+		private final List<Result> results;
+		private final long wallNanos;
+		private final int parallelism;
+
+		private Report(List<Result> results, long wallNanos, int parallelism) {
+			this.results = Collections.unmodifiableList(results);
+			this.wallNanos = wallNanos;
+			this.parallelism = parallelism;
+		}
+
+		/** @return one result per job, in the order the jobs were given */
+		public List<Result> getResults() { return results; }
+		public long getWallNanos() { return wallNanos; }
+		public int getParallelism() { return parallelism; }
+
+		public int failures() {
+			int failures = 0;
+			for (Result result : results)
+				if (!result.succeeded())
+					failures++;
+			return failures;
+		}
+
+		/** @return measures in all successfully composed pieces */
+		public long totalMeasures() {
+			long measures = 0;
+			for (Result result : results)
+				if (result.succeeded())
+					measures += result.getComposition().size();
+			return measures;
+		}
+
+		public double measuresPerSecond() {
+			return totalMeasures() / (wallNanos / 1e9);
+		}
+
+		public double measuresPerSecondPerCore() {
+			return measuresPerSecond() / parallelism;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d pieces (%d failed), %d measures in %.2f s: %.0f measures/s, %.0f measures/s per core on %d workers",
+					results.size(), failures(), totalMeasures(), wallNanos / 1e9,
+					measuresPerSecond(), measuresPerSecondPerCore(), parallelism);
+		}
+	}
+
+	/**
+	 * <code>[pieces] [measures] [seed]</code> composes the given number of pieces, cycling through the
+	 * repertoire, and prints the throughput.
+	 */
+	public static void main(String[] args) {
+		int pieces = args.length > 0 ? Integer.parseInt(args[0]) : 3 * Runtime.getRuntime().availableProcessors();
+		int measures = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		SplittableRandom seeds = args.length > 2 ? new SplittableRandom(Long.parseLong(args[2])) : new SplittableRandom();
+		int repertoire = Composer.repertoire().size();
+
+		List<Job> jobs = new ArrayList<>(pieces);
+		for (int i=0; i<pieces; i++) {
+			final int trick = i % repertoire;
+			jobs.add(new Job(() -> Composer.repertoire().get(trick), measures, seeds.nextLong()));
+		}
+		Report report = new BatchComposer().composeAll(jobs);
+		for (Result result : report.getResults())
+			if (!result.succeeded())
+				System.out.println(result.getStrategy() + " (seed " + result.getJob().getSeed() + ") failed: " + result.getFailure());
+		System.out.println(report);
+	}
+
+}
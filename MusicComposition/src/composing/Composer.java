@@ -1,14 +1,21 @@
 package composing;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
+import java.util.SplittableRandom;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+import composing.archive.MeasureCodec;
+import composing.archive.MeasureLog;
 import composing.strategy.ComposingStrategy;
 import composing.strategy.PolyphonicProgressionStrategy;
 import composing.strategy.PrettyProgressionStrategy;
@@ -25,12 +32,47 @@ public class Composer {
 	private List<Composition> works = new ArrayList<>();
 	private Queue<ComposingStrategy> requests = new ArrayDeque<>();
 	private int wrapUpRequests; // TODO honor wrapup requests in some way
+	private int lowWatermark = ComposerThread.DEFAULT_LOW_WATERMARK;
+	private int highWatermark = ComposerThread.DEFAULT_HIGH_WATERMARK;
+	/** number of measures of each composition kept in memory, or 0 to keep them all */
+	private int streamingWindow;
+	/** whether compositions are composed as their measures are awaited, rather than ahead on a thread */
+	private boolean composingOnDemand;
+	/** where logs of streaming compositions are kept, or null for temporary logs */
+	private Path logDirectory;
+	private int retainedWorks = Integer.MAX_VALUE;
+	/** splits off the random source of each composition */
+	private final SplittableRandom random;
 	
-	private List<ComposingStrategy> oldTricks = Arrays.asList(new ComposingStrategy[] { 
-					new TwelveBarImprovStrategy(new Note(Letter.C)),
-					new PrettyProgressionStrategy(new Key(new Note(Letter.C, Accidental.NONE), Key.MAJOR)),
-					new PolyphonicProgressionStrategy(new Key(new Note(Letter.C, Accidental.NONE), Key.MAJOR)),
-			});
+	private List<ComposingStrategy> oldTricks = repertoire();
+	
+	public Composer() {
+		this(new SplittableRandom());
+	}
+	
+	/**
+	 * A composition is the same for a given seed only when {@link #setComposingOnDemand(boolean) composed on demand}
+	 * (or by {@link BatchComposer#compose(ComposingStrategy, int, long)}). Composed ahead on a thread, a strategy's
+	 * decisions also depend on how far the player has drained what it composed, so pieces differ from run to run.
+	 * 
+	 * @param seed from which every composition's random decisions are derived
+	 */
+	public Composer(long seed) {
+		this(new SplittableRandom(seed));
+	}
+	
+	private Composer(SplittableRandom random) {
+		this.random = random;
+	}
+	
+	/** @return new instances of every strategy known to this composer */
+	public static List<ComposingStrategy> repertoire() {
+		return Arrays.asList(new ComposingStrategy[] { 
+				new TwelveBarImprovStrategy(Note.of(Letter.C)),
+				new PrettyProgressionStrategy(new Key(Note.of(Letter.C, Accidental.NONE), Key.MAJOR)),
+				new PolyphonicProgressionStrategy(new Key(Note.of(Letter.C, Accidental.NONE), Key.MAJOR)),
+		});
+	}
 	
 	/**
 	 * @param strategy
@@ -46,18 +88,90 @@ public class Composer {
 	 * @return the first measure of the composition
 	 */
 	public Measure beginComposing(ComposingStrategy strategy) {
-		Composition composition = new Composition();
-		Measure measure = strategy.generateFirstMeasure();
+		Composition composition = streamingWindow > 0 ? Composition.streaming(streamingWindow, newLog()) : new Composition();
+		SplittableRandom compositionRandom = random.split();
+		Measure measure = RandomUtil.withSource(compositionRandom, strategy::generateFirstMeasure);
 		composition.addMeasure(measure);
-		thread = new ComposerThread(composition, strategy);
-		thread.start();
+		thread = new ComposerThread(composition, strategy, compositionRandom, lowWatermark, highWatermark,
+				composingOnDemand);
+		thread.begin();
 		return measure;
 	}
 	
+	/**
+	 * Bounds how far ahead of the player compositions begun after this call may be written.
+	 * 
+	 * @param lowWatermark number of finished measures waiting to be played at or below which a full composer resumes
+	 * @param highWatermark number of finished measures waiting to be played at which the composer stops to wait
+	 *                      for the player, not counting those the strategy is still writing
+	 */
+	public void setLookahead(int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0 || highWatermark <= lowWatermark)
+			throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high, but were "
+					+ lowWatermark + " and " + highWatermark);
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+	}
+	
+	/**
+	 * Composes compositions begun after this call only as their measures are {@link #awaitNextMeasure() awaited},
+	 * on the thread awaiting them, as {@link BatchComposer} does, rather than ahead of the player on a thread of their
+	 * own. Each piece then depends only on this composer's seed, however quickly it is played, but nothing is
+	 * composed for {@link #writeNextMeasure()}. Meant for rendering offline.
+	 * 
+	 * @param onDemand whether to compose on demand
+	 */
+	public void setComposingOnDemand(boolean onDemand) {
+		this.composingOnDemand = onDemand;
+	}
+	
+	/**
+	 * Keeps only the given number of recent measures of compositions begun after this call in memory,
+	 * writing older measures to a log on disk, so that a composition can be played for any length of time.
+	 * 
+	 * @param window number of measures to keep in memory, or 0 to keep every measure
+	 * @param logDirectory where each composition's log is kept, which becomes an archive once the composition is
+	 * {@link #setRetainedWorks(int) evicted}; or null for temporary logs, deleted as the composition is evicted
+	 * @see MeasureHistory
+	 */
+	public void setStreaming(int window, Path logDirectory) {
+		if (window < 0)
+			throw new IllegalArgumentException("Window cannot be negative: " + window);
+		this.streamingWindow = window;
+		this.logDirectory = logDirectory;
+	}
+	
+	/**
+	 * Bounds the number of finished works remembered. Older works are evicted as more are finished, 
+	 * and any of their measures logged on disk are deleted unless they were logged to a directory.
+	 * 
+	 * @param works number of finished works to remember
+	 */
+	public void setRetainedWorks(int works) {
+		if (works < 0)
+			throw new IllegalArgumentException("Cannot retain a negative number of works: " + works);
+		this.retainedWorks = works;
+		evictWorks();
+	}
+	
+	/** @return unmodifiable view of the finished works remembered, oldest first */
+	public List<Composition> getWorks() {
+		return Collections.unmodifiableList(works);
+	}
+	
 	public Measure writeNextMeasure() {
 		return thread.writeNextMeasure();
 	}
 	
+	/**
+	 * Like {@link #writeNextMeasure()}, but waits for the next measure to be composed rather than
+	 * filling in with an empty measure, or composes it if {@link #setComposingOnDemand(boolean) composing on demand}.
+	 * Intended for rendering faster than real time.
+	 */
+	public Measure awaitNextMeasure() {
+		return thread.awaitNextMeasure();
+	}
+	
 	public Measure receiveInput(String inputString) {
 		UserInput command = UserInput.get(inputString);
 		if (command == null)
@@ -114,11 +228,27 @@ public class Composer {
 	public Composition finishComposing() {
 		Composition work = thread.stopComposing();
 		works.add(work);
+		evictWorks();
 		return work;
 	}
 	
+	private void evictWorks() {
+		while (works.size() > retainedWorks)
+			works.remove(0).close();
+	}
+	
+	private MeasureLog newLog() {
+		try {
+			if (logDirectory == null)
+				return MeasureLog.temporary();
+			return MeasureLog.create(Files.createTempFile(logDirectory, "work", MeasureCodec.FILE_SUFFIX));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not create a log for the next composition", e);
+		}
+	}
+	
 	private ComposingStrategy randomRepertoire() {
-		return oldTricks.get((int) (Math.random() * oldTricks.size()));
+		return oldTricks.get(RandomUtil.random(oldTricks.size()));
 	}
 	
 	private enum UserInput {
@@ -1,50 +1,193 @@
 package composing;
 
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import composing.strategy.ComposingStrategy;
 import composing.strategy.PrettyProgressionStrategy;
 import performance.Tempo;
 import theory.Measure;
 
+/**
+ * Composes ahead of the player into the future of an {@link IncompleteComposition}.
+ * <p>
+ * The finished-but-unplayed measures form a bounded lookahead buffer. Once it reaches the
+ * high watermark, or the strategy asks to wait for the next measure to be played, this thread
+ * parks until {@link #writeNextMeasure()} drains the buffer down to the low watermark
+ * (or, for a waiting strategy, until any measure is played). Measures the strategy is still
+ * writing are not counted, since the player cannot drain them.
+ * <p>
+ * Composing on demand, the thread is never started. Instead, each measure is composed as it is
+ * {@link #awaitNextMeasure() awaited}, on the awaiting thread, exactly as {@link BatchComposer} would,
+ * so that the piece depends only on its random source and never on how quickly it is played.
+ */
 public class ComposerThread extends Thread {
 
+	/** default number of finished measures waiting to be played at which the composer stops to wait for the player */
+	public static final int DEFAULT_HIGH_WATERMARK = 32;
+	/** default number of finished measures waiting to be played at or below which a full composer resumes */
+	public static final int DEFAULT_LOW_WATERMARK = 16;
+
 	private ComposingStrategy strategy;
 	private IncompleteComposition composition;
-	
-	private boolean paused;
-	private boolean stopped;
-	
+	private final SplittableRandom random;
+
+	private final int highWatermark;
+	private final int lowWatermark;
+	private final boolean onDemand;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition measureWritten = lock.newCondition();
+	private final Condition measureComposed = lock.newCondition();
+	/** number of measures handed to the player; guarded by lock */
+	private long measuresWritten;
+	/** value of measuresWritten the strategy is waiting to see change, or -1; guarded by lock */
+	private long awaitedMeasure = -1;
+	/** guarded by lock */
+	private boolean full;
+	private volatile boolean stopped;
+
 	public ComposerThread(Composition composition, ComposingStrategy strategy) {
+		this(composition, strategy, new SplittableRandom(), DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK, false);
+	}
+
+	/**
+	 * @param composition to be continued
+	 * @param strategy to compose with
+	 * @param random source of the strategy's random decisions, not to be shared with other threads
+	 * @param lowWatermark number of finished measures waiting to be played at or below which a full composer resumes
+	 * @param highWatermark number of finished measures waiting to be played at which the composer stops to wait
+	 *                      for the player; measures still {@link ComposingStrategy#unfinishedMeasures unfinished}
+	 *                      are not counted
+	 * @param onDemand whether each measure is composed as it is awaited, rather than ahead on this thread
+	 */
+	public ComposerThread(Composition composition, ComposingStrategy strategy, SplittableRandom random,
+			int lowWatermark, int highWatermark, boolean onDemand) {
+		super("Composer");
+		if (lowWatermark < 0 || highWatermark <= lowWatermark)
+			throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high, but were "
+					+ lowWatermark + " and " + highWatermark);
 		this.strategy = strategy;
-		this.composition = new IncompleteComposition(composition);
+		this.random = random;
+		this.composition = new IncompleteComposition(composition,
+				Math.max(IncompleteComposition.DEFAULT_CAPACITY, 2 * highWatermark)); // strategies may overshoot a little
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.onDemand = onDemand;
+		setDaemon(true);
 	}
-	
+
+	/** Starts composing, ahead on this thread unless composing on demand */
+	void begin() {
+		System.out.println("Composing " + strategy);
+		if (!onDemand)
+			start();
+	}
+
 	@Override
 	public void run() {
-		System.out.println("Composing " + strategy);
 		while (!stopped) {
-			if (!paused)
-				if (strategy.iterate(composition))
-					paused = true;
-			try { Thread.sleep(50); } catch (Exception e) {}
+			if (!awaitWork())
+				return;
+			long written = measuresWritten();
+			boolean waiting = RandomUtil.withSource(random, () -> strategy.iterate(composition));
+			composition.commit(strategy.unfinishedMeasures(composition));
+			lock.lock();
+			try {
+				// a measure written while iterating already satisfies the strategy
+				if (waiting && measuresWritten == written)
+					awaitedMeasure = written;
+				measureComposed.signal();
+			} finally {
+				lock.unlock();
+			}
 		}
 	}
-	
+
+	/**
+	 * Parks this thread while the strategy is waiting on the player or the lookahead buffer is full.
+	 *
+	 * @return false if composing was stopped while waiting
+	 */
+	private boolean awaitWork() {
+		lock.lock();
+		try {
+			while (!stopped) {
+				int buffered = composition.getFuture().ready(); // only what the player can drain
+				if (buffered >= highWatermark)
+					full = true;
+				else if (buffered <= lowWatermark)
+					full = false;
+				if (awaitedMeasure != measuresWritten)
+					awaitedMeasure = -1;
+				if (awaitedMeasure < 0 && !full)
+					return true;
+				measureWritten.awaitUninterruptibly();
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private long measuresWritten() {
+		lock.lock();
+		try {
+			return measuresWritten;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	Measure writeNextMeasure() {
 		Measure measure = composition.writeNextMeasure();
-		paused = false;
+		lock.lock();
+		try {
+			measuresWritten++;
+			measureWritten.signal();
+		} finally {
+			lock.unlock();
+		}
 		return measure;
 	}
-	
+
+	/**
+	 * Blocks until the strategy has composed and committed the next measure, for players which need not keep real time.
+	 * Composing on demand, composes it on the calling thread.
+	 * 
+	 * @return the next measure, or an empty measure if composing was stopped
+	 */
+	Measure awaitNextMeasure() {
+		if (onDemand && !stopped)
+			return RandomUtil.withSource(random, () -> BatchComposer.composeNextMeasure(strategy, composition));
+		lock.lock();
+		try {
+			while (composition.getFuture().ready() == 0 && !stopped)
+				measureComposed.awaitUninterruptibly();
+		} finally {
+			lock.unlock();
+		}
+		return writeNextMeasure();
+	}
+
 	ComposingStrategy getStrategy() {
 		return strategy;
 	}
-	
+
 	Composition stopComposing() {
-		this.stopped = true;
+		lock.lock();
+		try {
+			stopped = true;
+			measureWritten.signal();
+			measureComposed.signal();
+		} finally {
+			lock.unlock();
+		}
 		System.out.println("Done composing " + strategy);
 		return composition.finishComposition();
 	}
-	
+
 	void requestTempoChange(boolean increase) {
 		// FIXME support all or else have a failure mode
 		if (strategy instanceof PrettyProgressionStrategy) {
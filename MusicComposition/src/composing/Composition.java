@@ -1,8 +1,12 @@
 package composing;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import composing.archive.MeasureLog;
 import theory.Measure;
 
 public class Composition {
@@ -17,9 +21,47 @@ public class Composition {
 		this.measures = other.measures;
 	}
 	
-	/** @return A list of measures written into this piece. */
+	private Composition(List<Measure> measures) {
+		this.measures = measures;
+	}
+	
+	/**
+	 * @param window number of recent measures to keep in memory
+	 * @param log empty log to which older measures are written
+	 * @return new, empty composition using memory for no more than the given number of measures
+	 * @see MeasureHistory
+	 */
+	public static Composition streaming(int window, MeasureLog log) {
+		return new Composition(new MeasureHistory(window, log));
+	}
+	
+	/** @return whether older measures of this composition are kept on disk rather than in memory */
+	public boolean isStreaming() {
+		return measures instanceof MeasureHistory;
+	}
+	
+	/**
+	 * Releases the disk space of a streaming composition if its log is temporary, after which only measures still in
+	 * memory can be returned. Does nothing to other compositions.
+	 */
+	public void close() {
+		if (isStreaming()) {
+			try {
+				((MeasureHistory) measures).close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Nothing is copied, so a streaming composition reads its older measures back from disk one at a time as they
+	 * are reached, and never holds the whole piece in memory.
+	 * 
+	 * @return unmodifiable view of the measures written into this piece, which grows as more are written
+	 */
 	public List<Measure> getMeasures() {
-		return new ArrayList<>(measures);
+		return Collections.unmodifiableList(measures);
 	}
 	
 	/**
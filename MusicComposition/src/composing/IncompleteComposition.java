@@ -1,9 +1,7 @@
 package composing;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
 import theory.Measure;
 import theory.analysis.Analysis;
@@ -14,87 +12,157 @@ import theory.analysis.Analysis;
  */
 public class IncompleteComposition extends Composition {
 
-	private Queue<Measure> future;
+	/** default number of measures which can be composed ahead of the player */
+	public static final int DEFAULT_CAPACITY = 64;
+	
+	private MeasureRingBuffer future;
+	/** number of measures written without passing through the future */
+	private int pastBase;
 	private Analysis analysis;
 	
 	public IncompleteComposition() {
 		super();
-		initFields();
+		initFields(DEFAULT_CAPACITY);
 	}
 	
 	public IncompleteComposition(Composition other) {
+		this(other, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param other composition to be continued
+	 * @param capacity number of measures which can be composed ahead of the player
+	 */
+	public IncompleteComposition(Composition other, int capacity) {
 		super(other);
 		if (other instanceof IncompleteComposition) {
 			// TODO deep copy?
 			this.future = ((IncompleteComposition) other).future;
+			this.pastBase = ((IncompleteComposition) other).pastBase;
 			this.analysis = ((IncompleteComposition) other).analysis;
 		}
 		else {
-			initFields();
+			initFields(capacity);
 		}
 	}
 	
-	private void initFields() {
-		this.future = new LinkedList<>();
+	private void initFields(int capacity) {
+		if (!isStreaming())
+			this.measures = new MeasureList(measures); // the player appends while the composer reads
+		this.future = new MeasureRingBuffer(capacity);
+		this.pastBase = measures.size();
 		this.analysis = new Analysis();
+		analyseThrough(pastBase);
 	}
 	
 	@Override
-	public synchronized Measure getMeasure(int measureNumber) {
-		if (measureNumber <= measures.size())
-			return super.getMeasure(measureNumber);
-		if (measureNumber > measures.size() + future.size())
+	public Measure getMeasure(int measureNumber) {
+		if (measureNumber <= 0)
+			throw new IllegalArgumentException("Only natural numbered measures can be returned.");
+		long sequence = measureNumber - pastBase - 1L;
+		if (sequence < 0 || sequence < future.headSequence())
+			return super.getMeasure(measureNumber); // written before being polled, so already present
+		if (sequence >= future.tailSequence())
 			throw new IllegalArgumentException("Have not yet written measure " + measureNumber);
-		return new ArrayList<>(future).get(measureNumber - measures.size() - 1);
+		return future.getSequence(sequence);
 	}
 	
 	@Override
-	public synchronized List<Measure> getMeasures(int firstMeasureNumber, int lastMeasureNumber) {
-		if (lastMeasureNumber <= measures.size())
-			return super.getMeasures(firstMeasureNumber, lastMeasureNumber);
+	public List<Measure> getMeasures(int firstMeasureNumber, int lastMeasureNumber) {
 		if (lastMeasureNumber < firstMeasureNumber)
 			throw new IllegalArgumentException("Please don't do that.");
-		if (firstMeasureNumber < 1 || lastMeasureNumber > measures.size() + future.size())
+		if (firstMeasureNumber < 1 || lastMeasureNumber > size())
 			throw new IllegalArgumentException("Requested range of measures outside this composition's size.");
-		if (firstMeasureNumber > measures.size())
-			return new ArrayList<>(future).subList(
-					firstMeasureNumber - measures.size() - 1, lastMeasureNumber - measures.size());
-		List<Measure> retval = new ArrayList<>();
-		retval.addAll(measures.subList(firstMeasureNumber - 1, measures.size()));
-		retval.addAll(new ArrayList<>(future).subList(0, lastMeasureNumber));
+		List<Measure> retval = new ArrayList<>(lastMeasureNumber - firstMeasureNumber + 1);
+		for (int measureNumber=firstMeasureNumber; measureNumber<=lastMeasureNumber; measureNumber++)
+			retval.add(getMeasure(measureNumber));
 		return retval;	
 	}
 	
+	/**
+	 * Counts every measure written or composed. Only the composer adds to the future,
+	 * so this count does not change as the player writes measures.
+	 */
 	@Override
-	public synchronized int size() {
-		return measures.size() + future.size();
+	public int size() {
+		return pastBase + (int) future.tailSequence();
 	}
 	
 	/**
-	 * The measures of this composition that have yet to be finalized. They can be modified in any way.
+	 * The measures of this composition that have yet to be written. Those not yet {@link #commit(int) committed}
+	 * can be modified in any way.
 	 * <p>
-	 * Intended to allow consumers to directly edit the incomplete portion of this Composition
+	 * Intended to allow consumers to directly edit the incomplete portion of this Composition.
+	 * Only the composing thread should add to it; iterating over it is always safe.
 	 * 
 	 * @return the actual object instance of this Composition's incomplete measures
 	 */
-	public synchronized Queue<Measure> getFuture() {
+	public MeasureRingBuffer getFuture() {
 		return future;
 	}
 
-	public synchronized Measure writeNextMeasure() {
-		final Measure measure = future.poll();
+	/**
+	 * Lets the player write every measure composed so far but the latest given number, which must not be changed
+	 * once written. Only the composing thread should call this method.
+	 * 
+	 * @param unfinished number of the latest measures composed which may still be changed
+	 */
+	public void commit(int unfinished) {
+		future.commit(future.tailSequence() - unfinished);
+		analyseThrough(pastBase + (int) future.committedSequence());
+	}
+	
+	/** Adds every measure up to the given number, all of which are finished, to the analysis */
+	private void analyseThrough(int lastMeasureNumber) {
+		for (int measureNumber=analysis.measuresAnalysed()+1; measureNumber<=lastMeasureNumber; measureNumber++)
+			analysis.addMeasure(getMeasure(measureNumber));
+	}
+	
+	/**
+	 * Moves the next composed measure into the written portion of this composition.
+	 * Only the playing thread should call this method.
+	 * 
+	 * @return the next measure, or an empty measure if none has been composed and {@link #commit(int) committed}
+	 */
+	public Measure writeNextMeasure() {
+		final Measure measure = future.peek();
 		if (measure == null)
 			return new Measure(4, 1/4.0);
-		addMeasure(measure);
+		super.addMeasure(measure); // before polling, so the measure is always found by getMeasure()
+		future.poll();
 		return measure;
 	}
 	
+	/**
+	 * Writes a measure which was never composed into the future, e.g. the first measure of a piece.
+	 * 
+	 * @throws IllegalStateException if composed measures are waiting to be written before it
+	 */
+	@Override
+	public void addMeasure(Measure measure) {
+		if (!future.isEmpty())
+			throw new IllegalStateException("Cannot write a measure ahead of the " + future.size() + " already composed");
+		super.addMeasure(measure);
+		pastBase++;
+		analyseThrough(pastBase);
+	}
+	
 	public Composition finishComposition() {
 		// TODO do other work here?
 		return new Composition(this);
 	}
 	
+	/**
+	 * Only the composing thread should call this method.
+	 * 
+	 * For a streaming composition, sections ending before the measures kept in memory are forgotten.
+	 * 
+	 * @return the analysis of this composition, which has added every measure {@link #commit(int) committed},
+	 * but none still unfinished
+	 */
 	public Analysis getAnalysis() {
+		if (isStreaming())
+			analysis.forgetSectionsBefore(super.size() - ((MeasureHistory) measures).window() + 1);
 		return analysis;
 	}
 	
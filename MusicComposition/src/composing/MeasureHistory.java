@@ -0,0 +1,82 @@
+package composing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import composing.archive.MeasureLog;
+import theory.Measure;
+
+/**
+ * The measures of a streaming {@link Composition}, only the most recent of which are kept in memory.
+ * <p>
+ * Once more than a window of measures have been added, each measure added pushes the oldest in memory out to a
+ * {@link MeasureLog}, from which it is read back as a new copy whenever it is asked for again.
+ * Measures should not be changed once they have left the window, as the change would not reach the log.
+ * One thread may add while any number read.
+ */
+public class MeasureHistory extends AbstractList<Measure> implements RandomAccess, Closeable {
+
+	/** the last window measures, each at its index modulo the window */
+	private final Measure[] recent;
+	private final MeasureLog log;
+	private volatile int size;
+
+	/**
+	 * @param window number of recent measures kept in memory
+	 * @param log empty log to which older measures are written
+	 */
+	public MeasureHistory(int window, MeasureLog log) {
+		if (window < 1)
+			throw new IllegalArgumentException("Window must hold at least one measure, not " + window);
+		if (log.size() != 0)
+			throw new IllegalArgumentException("Log already has " + log.size() + " measures");
+		this.recent = new Measure[window];
+		this.log = log;
+	}
+
+	/** @return number of recent measures kept in memory */
+	public int window() {
+		return recent.length;
+	}
+
+	/** @return log to which measures older than the window are written */
+	public MeasureLog getLog() {
+		return log;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized boolean add(Measure measure) {
+		int slot = size % recent.length;
+		if (size >= recent.length)
+			log.append(recent[slot]); // before it is replaced, so readers always find it somewhere
+		recent[slot] = measure;
+		size++;
+		return true;
+	}
+
+	/** Takes constant time within the window; older measures are read from disk. */
+	@Override
+	public Measure get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("History has " + size + " measures, not " + (index + 1));
+		synchronized (this) {
+			if (index >= size - recent.length)
+				return recent[index % recent.length];
+		}
+		return log.read(index); // already spilled, and so no longer changing
+	}
+
+	/** Closes the log, which deletes it if it is temporary */
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+
+}
@@ -0,0 +1,65 @@
+package composing;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import theory.Measure;
+
+/**
+ * The measures of a {@link Composition} which is played while it is composed, to which measures can only be added.
+ * <p>
+ * Adding takes amortised constant time, as with an {@link java.util.ArrayList}, rather than copying every measure
+ * as a {@link java.util.concurrent.CopyOnWriteArrayList} would. One thread may add while any number read without
+ * locking: each measure is stored before the size which makes it visible is published.
+ */
+public class MeasureList extends AbstractList<Measure> implements RandomAccess {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** replaced by a larger copy, holding every measure already added, when full */
+	private volatile Measure[] elements;
+	private volatile int size;
+
+	public MeasureList() {
+		this.elements = new Measure[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * @param measures initial measures of this list
+	 */
+	public MeasureList(Collection<Measure> measures) {
+		this.elements = measures.toArray(new Measure[Math.max(DEFAULT_CAPACITY, measures.size())]);
+		this.size = measures.size();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized boolean add(Measure measure) {
+		Measure[] elements = this.elements;
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, elements.length * 2);
+			elements[size] = measure;
+			this.elements = elements; // before the size, so readers find it in whichever array they see
+		}
+		else {
+			elements[size] = measure;
+		}
+		size++;
+		return true;
+	}
+
+	@Override
+	public Measure get(int index) {
+		int size = this.size; // read before the elements, which then hold at least this many
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("List has " + size + " measures, not " + (index + 1));
+		return elements[index];
+	}
+
+}
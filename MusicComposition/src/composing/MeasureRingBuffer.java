@@ -0,0 +1,170 @@
+package composing;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import theory.Measure;
+
+/**
+ * Bounded, lock-free queue of measures handed from a single composing thread to a single playing thread.
+ * <p>
+ * Only one thread may {@link #offer(Measure) offer} (the producer) and only one thread may
+ * {@link #poll() poll} (the consumer); any thread may read. Every measure ever offered is numbered by
+ * its sequence, starting from zero, and measures can be read by their position in the queue with
+ * {@link #get(int)} or by their sequence with {@link #getSequence(long)}.
+ * <p>
+ * Iterators are snapshots of the queue as it was when they were created, and never throw
+ * {@link java.util.ConcurrentModificationException}.
+ * <p>
+ * Polled measures are not cleared from their slots until the producer wraps around to them,
+ * so reading a recently polled measure by its sequence is still safe.
+ * <p>
+ * A measure offered may still be changed by the producer, and cannot be peeked or polled until the producer
+ * {@link #commit(long) commits} it. The producer must not change a measure once committed.
+ */
+public class MeasureRingBuffer extends AbstractQueue<Measure> {
+
+	private final Measure[] slots;
+	private final int mask;
+
+	/** sequence of the next measure to be polled; written only by the consumer */
+	private volatile long head;
+	/** sequence of the next measure to be offered; written only by the producer */
+	private volatile long tail;
+	/** sequence before which measures are finished and may be polled; written only by the producer */
+	private volatile long committed;
+
+	/**
+	 * @param capacity minimum number of measures this buffer can hold, rounded up to a power of 2
+	 */
+	public MeasureRingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30, but was " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.slots = new Measure[size];
+		this.mask = size - 1;
+	}
+
+	/** @return maximum number of measures this buffer can hold */
+	public int capacity() {
+		return slots.length;
+	}
+
+	/** @return sequence of the measure at the head of this queue */
+	public long headSequence() {
+		return head;
+	}
+
+	/** @return number of measures ever offered to this queue */
+	public long tailSequence() {
+		return tail;
+	}
+
+	/** @return sequence before which every measure is committed */
+	public long committedSequence() {
+		return committed;
+	}
+
+	/** @return number of committed measures waiting to be polled */
+	public int ready() {
+		long h = head; // read head first, so the difference is never negative
+		return (int) (committed - h);
+	}
+
+	/**
+	 * Producer only. Publishes every measure offered before the given sequence, which the producer must no longer
+	 * change, to the consumer.
+	 *
+	 * @param sequence before which every measure is finished; never moves the commit back, nor past the tail
+	 */
+	public void commit(long sequence) {
+		long c = Math.min(sequence, tail);
+		if (c > committed)
+			committed = c;
+	}
+
+	/** Producer only. Measures offered are not {@link #commit(long) committed}. */
+	@Override
+	public boolean offer(Measure measure) {
+		if (measure == null)
+			throw new NullPointerException("Cannot queue a null measure");
+		long t = tail;
+		if (t - head >= slots.length)
+			return false;
+		slots[(int) t & mask] = measure;
+		tail = t + 1; // publishes the slot
+		return true;
+	}
+
+	/** Consumer only. @return the next committed measure, or null if there is none */
+	@Override
+	public Measure poll() {
+		long h = head;
+		if (h >= committed)
+			return null;
+		Measure measure = slots[(int) h & mask];
+		head = h + 1;
+		return measure;
+	}
+
+	/** @return the next committed measure, or null if there is none */
+	@Override
+	public Measure peek() {
+		long h = head;
+		return h < committed ? slots[(int) h & mask] : null;
+	}
+
+	/** @return number of measures waiting, committed or not */
+	@Override
+	public int size() {
+		long h = head; // read head first, so the difference is never negative
+		return (int) (tail - h);
+	}
+
+	/**
+	 * @param index position in this queue, zero being the head
+	 * @return the measure at the given position
+	 */
+	public Measure get(int index) {
+		long h = head;
+		if (index < 0 || index >= tail - h)
+			throw new IndexOutOfBoundsException("Index " + index + " outside queue of size " + (tail - h));
+		return slots[(int) (h + index) & mask];
+	}
+
+	/**
+	 * @param sequence number of the measure, counting every measure ever offered to this queue
+	 * @return the measure of the given sequence, which may have been polled recently
+	 */
+	public Measure getSequence(long sequence) {
+		long t = tail;
+		if (sequence < 0 || sequence >= t || sequence < t - slots.length)
+			throw new IndexOutOfBoundsException("Measure " + sequence + " is not held by this queue");
+		return slots[(int) sequence & mask];
+	}
+
+	@Override
+	public Iterator<Measure> iterator() {
+		final long first = head;
+		final long last = tail;
+		return new Iterator<Measure>() {
+			long next = first;
+
+			@Override
+			public boolean hasNext() {
+				return next < last;
+			}
+
+			@Override
+			public Measure next() {
+				if (next >= last)
+					throw new NoSuchElementException();
+				return slots[(int) next++ & mask];
+			}
+		};
+	}
+
+}
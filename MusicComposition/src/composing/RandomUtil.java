@@ -1,11 +1,51 @@
 package composing;
 
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Random decisions made while composing.
+ * <p>
+ * Each composition draws from a {@link SplittableRandom} of its own, which is installed for the thread
+ * composing it with {@link #withSource(SplittableRandom, Supplier)}. Composers on different threads never
+ * contend for a shared generator, and a piece composed from a given seed can be composed again exactly.
+ * Outside of any composition, decisions are drawn from {@link ThreadLocalRandom}.
+ */
 public class RandomUtil {
 	
+	private static final ThreadLocal<SplittableRandom> source = new ThreadLocal<>();
+	
 	private RandomUtil() {} // util class
 
+	/**
+	 * Runs an action drawing every random decision made on this thread from the given source.
+	 * 
+	 * @param random source of the action's random decisions
+	 * @param action to be run
+	 * @return the result of the action
+	 */
+	public static <T> T withSource(SplittableRandom random, Supplier<T> action) {
+		SplittableRandom previous = source.get();
+		source.set(random);
+		try {
+			return action.get();
+		} finally {
+			if (previous == null)
+				source.remove();
+			else
+				source.set(previous);
+		}
+	}
+
+	/** @return a new seed, drawn from this thread's current source */
+	public static long seed() {
+		SplittableRandom random = source.get();
+		return random == null ? ThreadLocalRandom.current().nextLong() : random.nextLong();
+	}
+
 	public static boolean roll(int percentChance) {
-		return Math.random()*100 < percentChance;
+		return nextInt(100) < percentChance;
 	}
 
 	/**
@@ -13,7 +53,7 @@ public class RandomUtil {
 	 * @return random int including zero but not max <br> [0,max)
 	 */
 	public static int random(int max) {
-		return (int) (Math.random()*max);
+		return max > 0 ? nextInt(max) : (int) (nextDouble()*max);
 	}
 
 	/**
@@ -22,7 +62,7 @@ public class RandomUtil {
 	 * @return a random int including min but not max <br> [min,max)
 	 */
 	public static int random(int min, int max) {
-		return min + ((int) (Math.random()*max));
+		return min + random(max);
 	}
 	
 	/**
@@ -32,5 +72,15 @@ public class RandomUtil {
 	public static int modPos(int number, int mod) {
 		return ((number % mod) + mod) % mod;
 	}
+	
+	private static int nextInt(int bound) {
+		SplittableRandom random = source.get();
+		return random == null ? ThreadLocalRandom.current().nextInt(bound) : random.nextInt(bound);
+	}
+	
+	private static double nextDouble() {
+		SplittableRandom random = source.get();
+		return random == null ? ThreadLocalRandom.current().nextDouble() : random.nextDouble();
+	}
 
 }
@@ -0,0 +1,147 @@
+package composing.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import performance.instrument.Instrument;
+import theory.Measure;
+
+/**
+ * Random access to the measures of an archive written in the format of {@link MeasureCodec}.
+ * <p>
+ * The file is mapped into memory rather than read, and its index used to find each measure asked for, 
+ * so that any measure of a long archive can be replayed without reading those before it.
+ * Archives without an index, e.g. logs still being written, are read through once on opening to find their measures.
+ * Any number of threads may read at once.
+ */
+public class CompositionArchive implements Closeable {
+
+	private final Path path;
+	private final FileChannel channel;
+	/** never moved from the start; readers take duplicates */
+	private final MappedByteBuffer file;
+	private final InstrumentDictionary dictionary = new InstrumentDictionary();
+	/** position of each measure record */
+	private final LongBuffer positions;
+
+	private CompositionArchive(Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Archive too large to map at once: " + channel.size() + " bytes");
+			this.file = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			ByteBuffer header = file.duplicate();
+			MeasureCodec.readHeader(header);
+			long index = MeasureCodec.readFooter(file.duplicate());
+			this.positions = index < 0 ? scan(header) : readIndex((int) index);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public static CompositionArchive open(Path path) throws IOException {
+		return new CompositionArchive(path);
+	}
+
+	/** @return number of measures in the archive */
+	public int size() {
+		return positions.limit();
+	}
+
+	/**
+	 * @param measureNumber counting the first measure as 1
+	 * @return new copy of the measure of the given number
+	 */
+	public Measure getMeasure(int measureNumber) {
+		if (measureNumber < 1 || measureNumber > size())
+			throw new IllegalArgumentException("Archive only contains " + size() 
+					+ " measures; cannot get measure number " + measureNumber);
+		ByteBuffer record = file.duplicate();
+		record.position((int) positions.get(measureNumber - 1));
+		try {
+			if ((record.get() & 0xFF) != MeasureCodec.MEASURE)
+				throw new IOException("No measure where the index says measure " + measureNumber + " is");
+			int length = MeasureCodec.readVarInt(record);
+			record.limit(record.position() + length);
+			Measure measure = MeasureCodec.readMeasure(record, dictionary);
+			measure.setMeasureNumber(measureNumber);
+			return measure;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read measure " + measureNumber + " from " + path, e);
+		}
+	}
+
+	/** @return new copies of the measures between the given measure numbers, inclusive */
+	public List<Measure> getMeasures(int firstMeasureNumber, int lastMeasureNumber) {
+		if (lastMeasureNumber < firstMeasureNumber)
+			throw new IllegalArgumentException("Please don't do that.");
+		List<Measure> measures = new ArrayList<>(lastMeasureNumber - firstMeasureNumber + 1);
+		for (int measureNumber=firstMeasureNumber; measureNumber<=lastMeasureNumber; measureNumber++)
+			measures.add(getMeasure(measureNumber));
+		return measures;
+	}
+
+	/** Closes the file; the mapping itself is released once no longer reachable */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private LongBuffer readIndex(int indexPosition) throws IOException {
+		ByteBuffer index = file.duplicate();
+		index.position(indexPosition);
+		if ((index.get() & 0xFF) != MeasureCodec.INDEX)
+			throw new IOException("No index where the footer says it is");
+		MeasureCodec.readVarInt(index);
+		List<Instrument> instruments = new ArrayList<>();
+		int measures = MeasureCodec.readIndexStart(index, instruments);
+		for (Instrument instrument : instruments)
+			dictionary.add(instrument);
+		LongBuffer positions = index.slice().asLongBuffer();
+		positions.limit(measures);
+		return positions;
+	}
+
+	/** @return position of each measure record, found by reading every record from the given position on */
+	private LongBuffer scan(ByteBuffer records) {
+		long[] positions = new long[64];
+		int measures = 0;
+		while (records.hasRemaining()) {
+			int start = records.position();
+			int tag;
+			int end;
+			try {
+				tag = records.get() & 0xFF;
+				end = MeasureCodec.readVarInt(records) + records.position();
+			} catch (BufferUnderflowException e) {
+				break; // cut short
+			}
+			if (end > records.limit() || tag == MeasureCodec.INDEX)
+				break;
+			if (tag == MeasureCodec.INSTRUMENT) {
+				dictionary.add(MeasureCodec.readInstrument(records));
+			} else if (tag == MeasureCodec.MEASURE) {
+				if (measures == positions.length)
+					positions = Arrays.copyOf(positions, 2 * measures);
+				positions[measures++] = start;
+			}
+			records.position(end);
+		}
+		return LongBuffer.wrap(Arrays.copyOf(positions, measures));
+	}
+
+}
@@ -0,0 +1,130 @@
+package composing.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import composing.Composition;
+import theory.Measure;
+
+/**
+ * Reads measures one after another from any channel, in the format of {@link MeasureCodec}.
+ * <p>
+ * The index is not needed, so archives can be read as they are written, or after being cut short,
+ * in which case reading stops at the last whole record.
+ * For the measures of long archives out of order, see {@link CompositionArchive}.
+ */
+public class CompositionReader implements Closeable {
+
+	/** longest tag and length of a record */
+	private static final int RECORD_START_BYTES = 6;
+
+	private final ReadableByteChannel channel;
+	private final InstrumentDictionary dictionary = new InstrumentDictionary();
+	/** bytes read from the channel but not yet used, ready to be read */
+	private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	private int measures;
+	private boolean ended;
+
+	/** @param channel from which the archive is read from its current position */
+	public CompositionReader(ReadableByteChannel channel) throws IOException {
+		this.channel = channel;
+		buffer.limit(0);
+		fill(MeasureCodec.HEADER_BYTES);
+		MeasureCodec.readHeader(buffer);
+	}
+
+	public static CompositionReader open(Path path) throws IOException {
+		return new CompositionReader(FileChannel.open(path, StandardOpenOption.READ));
+	}
+
+	/** @return new composition of every measure in the given file */
+	public static Composition read(Path path) throws IOException {
+		Composition composition = new Composition();
+		try (CompositionReader reader = open(path)) {
+			for (Measure measure = reader.next(); measure != null; measure = reader.next())
+				composition.addMeasure(measure);
+		}
+		return composition;
+	}
+
+	/** @return number of measures read */
+	public int size() {
+		return measures;
+	}
+
+	/**
+	 * @return the next measure, numbered counting the first as 1, or null if there are no more for now; 
+	 * a log still being written may have more later, but an archive with an index never does
+	 */
+	public Measure next() throws IOException {
+		while (!ended) {
+			fill(RECORD_START_BYTES);
+			int start = buffer.position();
+			int tag;
+			int length;
+			try {
+				tag = buffer.get() & 0xFF;
+				length = MeasureCodec.readVarInt(buffer);
+			} catch (BufferUnderflowException e) {
+				buffer.position(start); // not yet written
+				return null;
+			}
+			int lengthBytes = buffer.position() - start;
+			buffer.position(start);
+			if (!fill(lengthBytes + length))
+				return null; // not yet written
+			buffer.position(buffer.position() + lengthBytes);
+			ByteBuffer record = buffer.slice();
+			record.limit(length);
+			buffer.position(buffer.position() + length);
+			switch (tag) {
+				case MeasureCodec.INSTRUMENT:
+					dictionary.add(MeasureCodec.readInstrument(record));
+					break;
+				case MeasureCodec.MEASURE:
+					Measure measure = MeasureCodec.readMeasure(record, dictionary);
+					measure.setMeasureNumber(++measures);
+					return measure;
+				case MeasureCodec.INDEX:
+					ended = true; // only the footer follows
+					break;
+				default:
+					break; // from a later version
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/** @return whether the given number of bytes are ready, having read as many as the channel has up to that */
+	private boolean fill(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes)
+			return true;
+		if (buffer.capacity() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, 2 * buffer.capacity()));
+			larger.put(buffer);
+			buffer = larger;
+		} else {
+			buffer.compact();
+		}
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				buffer.flip();
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+}
@@ -0,0 +1,105 @@
+package composing.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import composing.Composition;
+import theory.Measure;
+
+/**
+ * Writes measures one after another to any channel, in the format of {@link MeasureCodec}.
+ * <p>
+ * Writes are buffered until {@link #flush()} or {@link #close()}, which also writes the index.
+ * Until then the position of every measure is kept in memory, eight bytes a measure.
+ */
+public class CompositionWriter implements Closeable {
+
+	/** bytes buffered before they are written to the channel */
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private final WritableByteChannel channel;
+	private final InstrumentDictionary dictionary = new InstrumentDictionary();
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_BYTES);
+	private final DataOutputStream out = new DataOutputStream(buffer);
+	private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+	/** position of each measure record */
+	private long[] positions = new long[64];
+	private int measures;
+	/** bytes written to the channel, not counting those still buffered */
+	private long written;
+
+	/** @param channel to which the archive is written from its current position, which is treated as the start */
+	public CompositionWriter(WritableByteChannel channel) throws IOException {
+		this.channel = channel;
+		MeasureCodec.writeHeader(out);
+	}
+
+	/** @return new writer replacing the given file */
+	public static CompositionWriter create(Path path) throws IOException {
+		return new CompositionWriter(FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+	}
+
+	/** Writes every measure of the given composition to the given file, replacing it */
+	public static void write(Composition composition, Path path) throws IOException {
+		try (CompositionWriter writer = create(path)) {
+			writer.write(composition);
+		}
+	}
+
+	/** @return number of measures written */
+	public int size() {
+		return measures;
+	}
+
+	public void write(Measure measure) throws IOException {
+		dictionary.define(out, measure);
+		if (measures == positions.length)
+			positions = Arrays.copyOf(positions, 2 * measures);
+		positions[measures++] = written + buffer.size();
+		MeasureCodec.writeMeasure(out, measure, dictionary, scratch);
+		if (buffer.size() >= BUFFER_BYTES)
+			flush();
+	}
+
+	/** Writes every measure of the given composition, one at a time so that measures on disk are not all read at once */
+	public void write(Composition composition) throws IOException {
+		for (int measureNumber=1; measureNumber<=composition.size(); measureNumber++)
+			write(composition.getMeasure(measureNumber));
+	}
+
+	/** Writes anything buffered to the channel */
+	public void flush() throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+		while (bytes.hasRemaining())
+			written += channel.write(bytes);
+		buffer.reset();
+	}
+
+	/** Writes the index and closes the channel */
+	@Override
+	public void close() throws IOException {
+		try {
+			long indexPosition = written + buffer.size();
+			MeasureCodec.writeIndexStart(out, dictionary.instruments(), measures);
+			for (int i=0; i<measures; i++) {
+				out.writeLong(positions[i]);
+				if (buffer.size() >= BUFFER_BYTES)
+					flush();
+			}
+			MeasureCodec.writeFooter(out, indexPosition);
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package composing.archive;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+import performance.instrument.Instrument;
+import theory.Measure;
+
+/**
+ * Numbers of the instruments of an archive, given in the order the instruments are first written.
+ * Only one thread should add instruments, while any number look them up by number.
+ */
+class InstrumentDictionary implements ToIntFunction<Instrument>, IntFunction<Instrument> {
+
+	/** only used by the writing thread */
+	private final Map<Instrument,Integer> codes = new HashMap<>();
+	/** added to rarely, so copying on write is cheap */
+	private final List<Instrument> instruments = new CopyOnWriteArrayList<>();
+
+	/** Adds the given instrument, numbered after those already added */
+	void add(Instrument instrument) {
+		codes.put(instrument, instruments.size());
+		instruments.add(instrument);
+	}
+
+	/** Adds and writes a record for each instrument of the given measure not yet numbered */
+	void define(DataOutputStream out, Measure measure) throws IOException {
+		for (Instrument instrument : measure.getInstruments()) {
+			if (!codes.containsKey(instrument)) {
+				MeasureCodec.writeInstrument(out, instrument);
+				add(instrument);
+			}
+		}
+	}
+
+	@Override
+	public int applyAsInt(Instrument instrument) {
+		Integer code = codes.get(instrument);
+		if (code == null)
+			throw new IllegalArgumentException("No record written for " + instrument);
+		return code;
+	}
+
+	@Override
+	public Instrument apply(int code) {
+		if (code < 0 || code >= instruments.size())
+			throw new IllegalArgumentException("No instrument numbered " + code + " among " + instruments.size());
+		return instruments.get(code);
+	}
+
+	/** @return unmodifiable view of the instruments, in order of their numbers */
+	List<Instrument> instruments() {
+		return Collections.unmodifiableList(instruments);
+	}
+
+}
@@ -0,0 +1,344 @@
+package composing.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+import performance.Dynamic;
+import performance.MidiAction;
+import performance.MidiAction.MidiRest;
+import performance.MidiNote;
+import performance.instrument.Instrument;
+import theory.EventTimeline;
+import theory.Measure;
+import theory.Ticks;
+
+/**
+ * The binary format in which compositions are archived, everything but measure numbers surviving the trip.
+ * <p>
+ * A file starts with {@link #MAGIC} and a version byte, followed by records, each a tag byte,
+ * the length of the rest of the record and the rest of the record:
+ * <ul>
+ * <li>{@link #INSTRUMENT}: the name of an instrument, which is given the next number in the file's dictionary;
+ * <li>{@link #MEASURE}: a measure, referring to its instruments by number;
+ * <li>{@link #INDEX}: the name of every instrument again and the position of every measure record, so that
+ * any measure can be found without reading those before it. Only the position of the index and {@link #END_MAGIC}
+ * follow it, so files which end without them, e.g. logs still being written, can only be read from the start.
+ * </ul>
+ * Readers skip records of tags they do not know.
+ * <p>
+ * Within a measure, counts and ticks are written as variable length ints, each onset as the ticks since the one
+ * before it, each pitch as the half steps from the instrument's previous pitch, and each note's dynamic only when
+ * it differs from the previous note's, so most notes take three or four bytes.
+ * A measure depends on nothing before it but the instrument records, so it can be read on its own.
+ */
+public class MeasureCodec {
+
+	public static final byte[] MAGIC = { 'M', 'C', 'M', 'P' };
+	public static final byte[] END_MAGIC = { 'M', 'C', 'M', 'X' };
+	public static final int VERSION = 1;
+	/** conventional ending of archive file names */
+	public static final String FILE_SUFFIX = ".mcmp";
+	/** magic number and version */
+	public static final int HEADER_BYTES = MAGIC.length + 1;
+	/** position of the index and end magic number */
+	public static final int FOOTER_BYTES = Long.BYTES + END_MAGIC.length;
+
+	public static final int INSTRUMENT = 1;
+	public static final int MEASURE = 2;
+	public static final int INDEX = 3;
+
+	// measure flags:
+	private static final int BEAT_IN_TICKS = 0x1;
+	private static final int BPM_IN_THOUSANDTHS = 0x2;
+	private static final int HAS_META_INFO = 0x4;
+
+	// action flags:
+	private static final int ACTION = 0;
+	private static final int REST = 1;
+	private static final int NOTE = 2;
+	private static final int KIND = 0x3;
+	private static final int TIES_OVER = 0x4;
+	private static final int TIED_FROM = 0x8;
+	private static final int PEAK_MILLIS = 0x10;
+	private static final int NEW_DYNAMIC = 0x20;
+	private static final int DEFAULT_PEAK_MILLIS = 150;
+	/** dynamic of new notes, which notes are assumed to have until one differs */
+	private static final Dynamic DEFAULT_DYNAMIC = Dynamic.MEZZO_FORTE;
+
+	private MeasureCodec() {} // util class
+
+	public static void writeHeader(DataOutput out) throws IOException {
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+	}
+
+	/** @throws IOException if the given bytes do not start with a header this version can read */
+	public static void readHeader(ByteBuffer in) throws IOException {
+		if (in.remaining() < HEADER_BYTES)
+			throw new IOException("Not a composition archive: too short");
+		for (byte b : MAGIC)
+			if (in.get() != b)
+				throw new IOException("Not a composition archive");
+		int version = in.get() & 0xFF;
+		if (version > VERSION)
+			throw new IOException("Archive is version " + version + ", newer than this reader's " + VERSION);
+	}
+
+	public static void writeInstrument(DataOutput out, Instrument instrument) throws IOException {
+		byte[] name = instrument.getName().getBytes(StandardCharsets.UTF_8);
+		out.writeByte(INSTRUMENT);
+		writeVarInt(out, varIntBytes(name.length) + name.length);
+		writeVarInt(out, name.length);
+		out.write(name);
+	}
+
+	/** @return the instrument of a record whose tag and length have been read */
+	public static Instrument readInstrument(ByteBuffer in) {
+		return new Instrument(readString(in));
+	}
+
+	/**
+	 * @param codes number of each instrument in the dictionary, all of which must already have been written
+	 * @param scratch to encode the measure into before its length is known; reset before use
+	 */
+	public static void writeMeasure(DataOutputStream out, Measure measure, ToIntFunction<Instrument> codes,
+			ByteArrayOutputStream scratch) throws IOException {
+		scratch.reset();
+		writeMeasureBody(new DataOutputStream(scratch), measure, codes);
+		out.writeByte(MEASURE);
+		writeVarInt(out, scratch.size());
+		scratch.writeTo(out);
+	}
+
+	/**
+	 * @param instruments instrument of each number in the dictionary
+	 * @return the measure of a record whose tag and length have been read, not yet numbered
+	 */
+	public static Measure readMeasure(ByteBuffer in, IntFunction<Instrument> instruments) throws IOException {
+		int flags = in.get() & 0xFF;
+		int beats = readVarInt(in);
+		double beatValue = (flags & BEAT_IN_TICKS) != 0 ? Ticks.toWholeNotes(readVarInt(in)) : in.getDouble();
+		Measure measure = new Measure(beats, beatValue);
+		measure.setBpm((flags & BPM_IN_THOUSANDTHS) != 0 ? readVarInt(in) / 1000.0 : in.getDouble());
+		if ((flags & HAS_META_INFO) != 0)
+			measure.setMetaInfo(readString(in));
+		int instrumentCount = readVarInt(in);
+		for (int i=0; i<instrumentCount; i++) {
+			Instrument instrument = instruments.apply(readVarInt(in));
+			measure.addInstrument(instrument);
+			readTimeline(measure, instrument, in);
+		}
+		return measure;
+	}
+
+	/**
+	 * Writes all of an index record but the position of each measure record, which must follow
+	 * as {@link Long#BYTES} bytes each.
+	 * 
+	 * @param instruments every instrument, in order of their numbers
+	 * @param measures number of measures
+	 */
+	public static void writeIndexStart(DataOutputStream out, Collection<Instrument> instruments, int measures)
+			throws IOException {
+		ByteArrayOutputStream names = new ByteArrayOutputStream();
+		DataOutputStream namesOut = new DataOutputStream(names);
+		writeVarInt(namesOut, instruments.size());
+		for (Instrument instrument : instruments)
+			writeString(namesOut, instrument.getName());
+		namesOut.writeInt(measures);
+		int length = names.size() + measures * Long.BYTES;
+		out.writeByte(INDEX);
+		writeVarInt(out, length);
+		names.writeTo(out);
+	}
+
+	/**
+	 * @param instruments to which every instrument is added, in order of their numbers
+	 * @return number of measures, whose positions follow as {@link Long#BYTES} bytes each
+	 */
+	public static int readIndexStart(ByteBuffer in, List<Instrument> instruments) {
+		int instrumentCount = readVarInt(in);
+		for (int i=0; i<instrumentCount; i++)
+			instruments.add(new Instrument(readString(in)));
+		return in.getInt();
+	}
+
+	/** Writes the position of the index record, which must be the last record, and the end magic number */
+	public static void writeFooter(DataOutput out, long indexPosition) throws IOException {
+		out.writeLong(indexPosition);
+		out.write(END_MAGIC);
+	}
+
+	/** @return position of the index record given in the footer at the end of the given bytes, or -1 if there is none */
+	public static long readFooter(ByteBuffer file) {
+		int footer = file.limit() - FOOTER_BYTES;
+		if (footer < HEADER_BYTES)
+			return -1;
+		for (int i=0; i<END_MAGIC.length; i++)
+			if (file.get(footer + Long.BYTES + i) != END_MAGIC[i])
+				return -1;
+		return file.getLong(footer);
+	}
+
+	private static void writeMeasureBody(DataOutput out, Measure measure, ToIntFunction<Instrument> codes)
+			throws IOException {
+		boolean beatInTicks = Ticks.toWholeNotes(measure.beatTicks()) == measure.beatValue();
+		double thousandths = measure.getBpm() * 1000;
+		boolean bpmInThousandths = thousandths >= 0 && thousandths <= Integer.MAX_VALUE
+				&& (int) thousandths / 1000.0 == measure.getBpm();
+		boolean hasMetaInfo = !measure.getMetaInfo().isEmpty();
+		out.writeByte((beatInTicks ? BEAT_IN_TICKS : 0) | (bpmInThousandths ? BPM_IN_THOUSANDTHS : 0)
+				| (hasMetaInfo ? HAS_META_INFO : 0));
+		writeVarInt(out, measure.beats());
+		if (beatInTicks)
+			writeVarInt(out, measure.beatTicks());
+		else
+			out.writeDouble(measure.beatValue());
+		if (bpmInThousandths)
+			writeVarInt(out, (int) thousandths);
+		else
+			out.writeDouble(measure.getBpm());
+		if (hasMetaInfo)
+			writeString(out, measure.getMetaInfo());
+		writeVarInt(out, measure.getInstruments().size());
+		for (Instrument instrument : measure.getInstruments()) {
+			writeVarInt(out, codes.applyAsInt(instrument));
+			writeTimeline(measure.getTimeline(instrument), out);
+		}
+	}
+
+	private static void writeTimeline(EventTimeline timeline, DataOutput out) throws IOException {
+		writeVarInt(out, timeline.size());
+		int onset = 0;
+		int pitch = 0;
+		Dynamic dynamic = DEFAULT_DYNAMIC;
+		for (int i=0; i<timeline.size(); i++) {
+			writeVarInt(out, timeline.onset(i) - onset);
+			onset = timeline.onset(i);
+			MidiAction action = timeline.action(i);
+			if (!(action instanceof MidiNote)) {
+				out.writeByte(action instanceof MidiRest ? REST : ACTION);
+				writeVarInt(out, action.getTicks());
+				continue;
+			}
+			MidiNote note = (MidiNote) action;
+			int flags = NOTE;
+			if (note.tiesOver())
+				flags |= TIES_OVER;
+			if (note.getTiedFromPitch() != 0)
+				flags |= TIED_FROM;
+			if (note.getPeakMillis() != DEFAULT_PEAK_MILLIS)
+				flags |= PEAK_MILLIS;
+			if (note.getDynamic() != dynamic)
+				flags |= NEW_DYNAMIC;
+			out.writeByte(flags);
+			writeVarInt(out, note.getTicks());
+			writeVarInt(out, zigzag(note.getPitch() - pitch));
+			pitch = note.getPitch();
+			if ((flags & NEW_DYNAMIC) != 0) {
+				dynamic = note.getDynamic();
+				out.writeByte(dynamic.getLevel() - Dynamic.SOFTEST);
+			}
+			if ((flags & TIED_FROM) != 0)
+				writeVarInt(out, zigzag(note.getTiedFromPitch() - pitch));
+			if ((flags & PEAK_MILLIS) != 0)
+				writeVarInt(out, zigzag(note.getPeakMillis()));
+		}
+	}
+
+	private static void readTimeline(Measure measure, Instrument instrument, ByteBuffer in) throws IOException {
+		int size = readVarInt(in);
+		int onset = 0;
+		int pitch = 0;
+		Dynamic dynamic = DEFAULT_DYNAMIC;
+		for (int i=0; i<size; i++) {
+			onset += readVarInt(in);
+			int flags = in.get() & 0xFF;
+			double duration = Ticks.toWholeNotes(readVarInt(in));
+			MidiAction action;
+			switch (flags & KIND) {
+				case ACTION:
+					action = new MidiAction(duration);
+					break;
+				case REST:
+					action = new MidiRest(duration);
+					break;
+				case NOTE:
+					pitch += unzigzag(readVarInt(in));
+					MidiNote note = new MidiNote(pitch, duration);
+					if ((flags & NEW_DYNAMIC) != 0)
+						dynamic = Dynamic.of(in.get() + Dynamic.SOFTEST);
+					note.setDynamic(dynamic);
+					note.setTiesOver((flags & TIES_OVER) != 0);
+					if ((flags & TIED_FROM) != 0)
+						note.setTiedFromPitch(pitch + unzigzag(readVarInt(in)));
+					if ((flags & PEAK_MILLIS) != 0)
+						note.setPeakMillis(unzigzag(readVarInt(in)));
+					action = note;
+					break;
+				default:
+					throw new IOException("Unknown kind of action: " + flags);
+			}
+			measure.addAtTick(instrument, action, onset);
+		}
+	}
+
+	static void writeString(DataOutput out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[readVarInt(in)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** writes the given value in seven bit groups, lowest first, so small non-negative values take one byte */
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte(value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(ByteBuffer in) {
+		int value = 0;
+		for (int shift=0; shift<32; shift+=7) {
+			int b = in.get() & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed variable length int");
+	}
+
+	static int varIntBytes(int value) {
+		int bytes = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			bytes++;
+		}
+		return bytes;
+	}
+
+	/** @return the given value with its sign moved to the lowest bit, so small negative values stay small */
+	static int zigzag(int value) {
+		return value << 1 ^ value >> 31;
+	}
+
+	static int unzigzag(int value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+}
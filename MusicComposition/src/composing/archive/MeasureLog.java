@@ -0,0 +1,174 @@
+package composing.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import theory.Measure;
+
+/**
+ * Measures appended to an archive on disk, read back by index while more are appended.
+ * <p>
+ * Measures are written in the format of {@link MeasureCodec}, and where each starts is kept in an index file beside
+ * the archive rather than in memory, so that the memory used by a log does not grow with the number of measures.
+ * Closing a log which is not temporary writes the archive's own index and deletes the index file,
+ * leaving an archive which can be opened as a {@link CompositionArchive}.
+ * One thread may append while any number read.
+ */
+public class MeasureLog implements Closeable {
+
+	/** suffix added to the archive's name to name the index file */
+	public static final String INDEX_SUFFIX = ".idx";
+	private static final int POSITION_BYTES = Long.BYTES;
+	/** tag, length and the first bytes of a measure record, which is never shorter */
+	private static final int RECORD_START_BYTES = 6;
+
+	private final Path path;
+	private final Path indexPath;
+	private final boolean temporary;
+	private final FileChannel data;
+	private final FileChannel index;
+	private final InstrumentDictionary dictionary = new InstrumentDictionary();
+	/** number of measures appended, written only once a measure can be read */
+	private volatile int size;
+	/** end of the archive, only used by the appending thread */
+	private long end;
+	/** reused by the appending thread */
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(buffer);
+	private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+
+	private MeasureLog(Path path, boolean temporary) throws IOException {
+		this.path = path;
+		this.indexPath = Paths.get(path + INDEX_SUFFIX);
+		this.temporary = temporary;
+		this.data = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MeasureCodec.writeHeader(out);
+		flush();
+	}
+
+	/**
+	 * @param path of the archive, which is replaced along with its index file if either exists
+	 * @return new, empty log kept after it is closed
+	 */
+	public static MeasureLog create(Path path) throws IOException {
+		return new MeasureLog(path, false);
+	}
+
+	/** @return new, empty log in the default temporary directory, deleted when it is closed */
+	public static MeasureLog temporary() throws IOException {
+		return new MeasureLog(Files.createTempFile("measures", MeasureCodec.FILE_SUFFIX), true);
+	}
+
+	/** @return path of the archive */
+	public Path getPath() {
+		return path;
+	}
+
+	/** @return number of measures appended */
+	public int size() {
+		return size;
+	}
+
+	/** @return index of the given measure, from which it can be {@link #read(int) read} */
+	public synchronized int append(Measure measure) {
+		try {
+			dictionary.define(out, measure);
+			long position = end + buffer.size();
+			MeasureCodec.writeMeasure(out, measure, dictionary, scratch);
+			flush();
+			ByteBuffer start = ByteBuffer.allocate(POSITION_BYTES);
+			start.putLong(0, position);
+			writeFully(index, start, (long) size * POSITION_BYTES);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not append measure " + measure.getMeasureNumber() + " to " + path, e);
+		}
+		return size++;
+	}
+
+	/** @return new copy of the measure appended at the given index, numbered counting the first as 1 */
+	public Measure read(int measureIndex) {
+		int size = this.size;
+		if (measureIndex < 0 || measureIndex >= size)
+			throw new IndexOutOfBoundsException("Log has " + size + " measures, not " + (measureIndex + 1));
+		try {
+			ByteBuffer start = ByteBuffer.allocate(POSITION_BYTES);
+			readFully(index, start, (long) measureIndex * POSITION_BYTES);
+			long position = start.getLong(0);
+			ByteBuffer record = ByteBuffer.allocate(RECORD_START_BYTES);
+			readFully(data, record, position);
+			record.flip();
+			if ((record.get() & 0xFF) != MeasureCodec.MEASURE)
+				throw new IOException("No measure where the index file says measure " + (measureIndex + 1) + " is");
+			int length = MeasureCodec.readVarInt(record);
+			ByteBuffer body = ByteBuffer.allocate(length);
+			readFully(data, body, position + record.position());
+			body.flip();
+			Measure measure = MeasureCodec.readMeasure(body, dictionary);
+			measure.setMeasureNumber(measureIndex + 1);
+			return measure;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read measure " + (measureIndex + 1) + " from " + path, e);
+		}
+	}
+
+	/** Closes the log's files, deleting them if the log is temporary, or otherwise finishing the archive */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!data.isOpen())
+			return;
+		try {
+			if (!temporary) {
+				long indexPosition = end;
+				MeasureCodec.writeIndexStart(out, dictionary.instruments(), size);
+				flush();
+				long positions = (long) size * POSITION_BYTES;
+				data.position(end);
+				for (long copied=0; copied<positions; )
+					copied += index.transferTo(copied, positions - copied, data);
+				end += positions;
+				MeasureCodec.writeFooter(out, indexPosition);
+				flush();
+			}
+		} finally {
+			data.close();
+			index.close();
+			Files.deleteIfExists(indexPath);
+			if (temporary)
+				Files.deleteIfExists(path);
+		}
+	}
+
+	/** Writes the buffer to the end of the archive */
+	private void flush() throws IOException {
+		writeFully(data, ByteBuffer.wrap(buffer.toByteArray()), end);
+		end += buffer.size();
+		buffer.reset();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new IOException("Log ends before measure does");
+			position += read;
+		}
+	}
+
+}
@@ -80,8 +80,7 @@ public abstract class ChordsSectionWriter extends IterativeComposingStrategy {
 								precedingChord = null; // can pass null because nextSection is not empty
 							} else {
 								// get last chord
-								List<Section> sections = analysis.getSections();
-								ChordsSection section = (ChordsSection) sections.get(sections.size() - 1);
+								ChordsSection section = (ChordsSection) analysis.lastSection();
 								precedingChord = section.getChord(section.size());
 							}
 							fillSection(nextSection, nextSectionProgression(analysis), precedingChord);
@@ -97,9 +96,8 @@ public abstract class ChordsSectionWriter extends IterativeComposingStrategy {
 				return new ComposingStage() {
 					@Override
 					public void apply(IncompleteComposition composition) {
-						List<Section> sections = analysis.getSections();
-//						System.out.println("Sections: " + sections.size());
-						ChordsSection lastSection = (ChordsSection) sections.get(sections.size() - 1); // enforced softly in this class
+//						System.out.println("Sections: " + analysis.sectionCount());
+						ChordsSection lastSection = (ChordsSection) analysis.lastSection(); // enforced softly in this class
 						if (lastSection.size() < missingMeasures)
 							throw new IllegalStateException("Something is wrong... must have miscounted.");
 						ChordSpec nextChord = lastSection.getChord(lastSection.size() - missingMeasures + 1);
@@ -14,4 +14,14 @@ public interface ComposingStrategy {
 	 */
 	public boolean iterate(IncompleteComposition composition);
 	
+	/**
+	 * Measures the strategy is still writing, e.g. still to be given a melody, must not be handed to the player.
+	 * 
+	 * @param composition the composition being iterated on
+	 * @return number of the latest measures in its future which this strategy may still change
+	 */
+	public default int unfinishedMeasures(IncompleteComposition composition) {
+		return 0;
+	}
+	
 }
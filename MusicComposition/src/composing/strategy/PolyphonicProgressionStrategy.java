@@ -80,7 +80,7 @@ public class PolyphonicProgressionStrategy extends ChordsSectionWriter {
 		
 		Chord lastChord = new Chord(lastNotes.stream()
 											 .map(MidiNote::getPitch)
-											 .map(MidiPitch::new)
+											 .map(MidiPitch::of)
 											 .collect(Collectors.toList()));
 		
 		// FIXME This needs to be changed. This voice leading is not suitable for good polyphonic motion.
@@ -74,11 +74,11 @@ public class PrettyProgressionStrategy extends ChordsSectionWriter {
 		
 		// NOTE: This method is messy. Bite me.
 		
-		List<Section> sections = analysis.getSections();
-		if (sections.isEmpty())
+		int sections = analysis.sectionCount();
+		if (sections == 0)
 			return ChordProgressions.standardMajorProgression(lastKey.getTonic());
 		
-		Section lastSection = sections.get(sections.size()-1);
+		Section lastSection = analysis.lastSection();
 		Set<Key> lastSectionKeys = lastSection.getAllKeys();
 		// FIXME definitely need a more robust way of knowing what key we're supposed to be in
 		if (lastSectionKeys.size() < 1) {
@@ -93,9 +93,9 @@ public class PrettyProgressionStrategy extends ChordsSectionWriter {
 			// last section was not a key change section
 //			System.out.println("COMPOSING SECTION - TBD");
 			lastKey = lastSectionKeys.iterator().next(); // any (only?) key in the last section
-			if (sections.size() == 1)
+			if (sections == 1)
 				return ChordProgressions.standardMajorProgression(lastKey.getTonic());
-			Section secondLastSection = sections.get(sections.size()-2);
+			Section secondLastSection = analysis.getSection(sections-2);
 			if (secondLastSection.getKeys(secondLastSection.size()-1).size() >= 1) { // set back to == when done testing
 				// presume same as lastKey
 				// after two sections in this key, let's change keys
@@ -135,7 +135,7 @@ public class PrettyProgressionStrategy extends ChordsSectionWriter {
 				}
 				previousChord = new Chord(lastMeasureNotes.stream()
 													   .map(MidiNote::getPitch)
-													   .map(MidiPitch::new)
+													   .map(MidiPitch::of)
 													   .collect(Collectors.toList()));
 			}
 			Measure measure = backgroundChord(previousChord, nextChordSpec, piano);
@@ -150,22 +150,25 @@ public class PrettyProgressionStrategy extends ChordsSectionWriter {
 
 	@Override
 	protected ComposingStage onSectionsFilled(IncompleteComposition composition) {
+		// once the section's melody is written, wait for the next measure rather than re-rolling the chord style
+		long withoutMelody = composition.getFuture().stream()
+				.filter(measure -> !measure.getMetaInfo().contains("melody"))
+				.count();
+		if (withoutMelody < 8)
+			return null;
 		return new ComposingStage() {
 			@Override
 			public void apply(IncompleteComposition composition) {
 				// TODO Auto-generated method stub
 				// melody
-				try {
-					// WARNING: NPE was found originating in the lambda below: "measure -> ..."
-					List<Measure> measuresWithoutMelody = composition.getFuture().stream()
-							//					.filter(measure -> measure.getMeasureNumber() <= lastEndOfSection) // don't worry about measures outside a section (shouldn't happen)
-							.filter(measure -> !measure.getMetaInfo().contains("melody")) // FIXME got NPE here, believed null measure
-							.collect(Collectors.toList()); // FIXME also got concurrent mod here, probably wrote a measure during this operation
-					if (measuresWithoutMelody.size() >= 8) {
-						writeMelody(measuresWithoutMelody);
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
+				List<Measure> measuresWithoutMelody = composition.getFuture().stream()
+						//					.filter(measure -> measure.getMeasureNumber() <= lastEndOfSection) // don't worry about measures outside a section (shouldn't happen)
+						.filter(measure -> !measure.getMetaInfo().contains("melody"))
+						.collect(Collectors.toList());
+				if (measuresWithoutMelody.size() >= 8) {
+					// they are the latest measures, since every measure composed before them has a melody,
+					// and none has been committed to the player yet (see unfinishedMeasures), nor analysed
+					writeMelody(measuresWithoutMelody, Key.inferKey(Analysis.pitchClasses(measuresWithoutMelody)));
 				}
 				changeChordStyle();
 			}
@@ -173,6 +176,17 @@ public class PrettyProgressionStrategy extends ChordsSectionWriter {
 		
 	}
 
+	/**
+	 * Measures are offered without a melody, which is written onto eight or more of them at once.
+	 */
+	@Override
+	public int unfinishedMeasures(IncompleteComposition composition) {
+		// every measure composed before those without a melody has one
+		return (int) composition.getFuture().stream()
+				.filter(measure -> !measure.getMetaInfo().contains("melody"))
+				.count();
+	}
+
 	/**
 	 * @param increase <code>true</code> to increase the tempo by 1, or false to decrease it by 1
 	 * @return the tempo after the change
@@ -285,14 +299,9 @@ public class PrettyProgressionStrategy extends ChordsSectionWriter {
 		}
 	}
 	
-	private void writeMelody(List<Measure> measuresWithoutMelody) {
-		writeMelody(measuresWithoutMelody, null);
-	}
-
 	private void writeMelody(List<Measure> measuresWithoutMelody, Key key) {
 		measuresWithoutMelody.forEach(measure -> measure.addInstrument(solo));
-		Phrase melody = key == null ? melody = melodyWriter.writeMelody(measuresWithoutMelody)
-									: melodyWriter.writeMelody(measuresWithoutMelody, key);
+		Phrase melody = melodyWriter.writeMelody(measuresWithoutMelody, key);
 		Measure.writeOnto(solo, melody, measuresWithoutMelody, 0.0);
 		measuresWithoutMelody.forEach(measure -> measure.setMetaInfo(measure.getMetaInfo() + " melody"));
 	}
@@ -21,7 +21,7 @@ public class TwelveBarBluesStrategy implements ComposingStrategy {
 	private Instrument bass;
 
 	public TwelveBarBluesStrategy(Note tonic) {
-		this.tonic = new MidiPitch(tonic, 3);
+		this.tonic = MidiPitch.of(tonic, 3);
 		this.bass = Instrument.ACOUSTIC_BASS;
 	}
 	
@@ -93,7 +93,7 @@ public class TwelveBarBluesStrategy implements ComposingStrategy {
 	}
 	
 	protected int getCurrentBar(IncompleteComposition composition) {
-		return (composition.getMeasures().size() + composition.getFuture().size()) % 12;
+		return composition.size() % 12;
 	}
 	
 	@Override
@@ -33,7 +33,7 @@ public class Ornament {
 	public static Phrase trill(MidiNote note, Key key, double durationOfFourTrills) {
 		Phrase phrase = new Phrase();
 				
-		MidiPitch pitch = new MidiPitch(note.getPitch());
+		MidiPitch pitch = MidiPitch.of(note.getPitch());
 		Dynamic dynamic = note.getDynamic();
 		
 		requirePitchInKey(pitch, key);
@@ -70,7 +70,7 @@ public class Ornament {
 		if (mordentDuration >= note.getDuration() || mordentDuration <= 0)
 			throw new IllegalArgumentException("Mordent duration must be greater than zero but less than the length of the adorned note.");
 		
-		MidiPitch pitch = new MidiPitch(note.getPitch());
+		MidiPitch pitch = MidiPitch.of(note.getPitch());
 		Dynamic dynamic = note.getDynamic();
 		
 		requirePitchInKey(pitch, key);
@@ -104,7 +104,7 @@ public class Ornament {
 		if (mordentDuration >= note.getDuration() || mordentDuration <= 0)
 			throw new IllegalArgumentException("Mordent duration must be greater than zero but less than the length of the adorned note.");
 		
-		MidiPitch pitch = new MidiPitch(note.getPitch());
+		MidiPitch pitch = MidiPitch.of(note.getPitch());
 		Dynamic dynamic = note.getDynamic();
 		
 		requirePitchInKey(pitch, key);
@@ -139,7 +139,7 @@ public class Ornament {
 			throw new IllegalArgumentException("Turn duration must be greater than zero but less than the length of the adorned note.");
 		int notePitch = note.getPitch();
 		
-		MidiPitch pitch = new MidiPitch(notePitch);
+		MidiPitch pitch = MidiPitch.of(notePitch);
 		Dynamic dynamic = note.getDynamic();
 		
 		requirePitchInKey(pitch, key);
@@ -186,7 +186,7 @@ public class Ornament {
 		if (appoDuration >= note.getDuration() || appoDuration <= 0)
 			throw new IllegalArgumentException("Appoggiatura duration must be greater than zero but less than the length of the adorned note.");
 		
-		MidiPitch pitch = new MidiPitch(note.getPitch());
+		MidiPitch pitch = MidiPitch.of(note.getPitch());
 		Dynamic dynamic = note.getDynamic();
 		
 		requirePitchInKey(pitch, key);
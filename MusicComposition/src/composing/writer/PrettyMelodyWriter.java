@@ -14,6 +14,8 @@ import java.util.stream.Collectors;
 import performance.Dynamic;
 import performance.MidiAction.MidiRest;
 import performance.MidiNote;
+import performance.instrument.Instrument;
+import theory.EventTimeline;
 import theory.Key;
 import theory.Measure;
 import theory.MidiPitch;
@@ -31,27 +33,34 @@ public class PrettyMelodyWriter implements MelodyWriter {
 					  measure -> measure.getInstruments().stream().flatMap(
 						 inst -> measure.getNotes(inst, 0, measure.length()).stream()))
 				.map(MidiNote::getPitch)
-				.map(MidiPitch::new)
+				.map(MidiPitch::of)
 				.collect(Collectors.toSet());
 		Key key = Key.inferKey(allPitchesInAllMeasures);
 		
 		return writeMelody(measures, key);
 	}
 	
+	/** @return highest MIDI pitch played in the given measures, or middle C if they are silent */
+	private static int highestPitch(List<Measure> measures) {
+		int highest = -1;
+		for (Measure measure : measures) {
+			for (Instrument instrument : measure.getInstruments()) {
+				EventTimeline timeline = measure.getTimeline(instrument);
+				for (int i=0; i<timeline.size(); i++)
+					if (timeline.isNote(i))
+						highest = Math.max(highest, timeline.pitch(i));
+			}
+		}
+		return highest < 0 ? 60 : highest;
+	}
+	
 	public Phrase writeMelody(List<Measure> measures, Key key) {
 		Phrase phrase = new Phrase();
 		
 		if (measures.isEmpty())
 			return phrase;
 		
-		Set<MidiPitch> allPitchesInAllMeasures = measures.stream().flatMap(
-					  measure -> measure.getInstruments().stream().flatMap(
-						 inst -> measure.getNotes(inst, 0, measure.length()).stream()))
-				.map(MidiNote::getPitch)
-				.map(MidiPitch::new)
-				.collect(Collectors.toSet());
-		
-		int highest = allPitchesInAllMeasures.stream().map(MidiPitch::get).reduce((a,b) -> a < b ? b : a).orElse(60);
+		int highest = highestPitch(measures);
 		
 		int ornamentChance = 33;
 		int appoggiaturaChance = 70; // = (ornamentChance * XX)% 
@@ -63,7 +72,7 @@ public class PrettyMelodyWriter implements MelodyWriter {
 			Phrase measurePhrase = new Phrase();
 			boolean risingMelody = roll(50);
 			Note startingNote = key.note(random(key.getScale().intervals().length) + 1);
-			MidiPitch startingPitch = new MidiPitch(startingNote, 1);
+			MidiPitch startingPitch = MidiPitch.of(startingNote, 1);
 			int halfStepsBelowHighest = risingMelody ? 5 : 0;
 			while (startingPitch.get() < highest - halfStepsBelowHighest)
 				startingPitch = startingPitch.above(12);
@@ -1,5 +1,7 @@
 package main;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -9,20 +11,19 @@ import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.DoubleUnaryOperator;
 
 import composing.Composer;
+import main.NoteEventQueue.NoteEvent;
 import net.beadsproject.beads.core.AudioContext;
-import net.beadsproject.beads.core.Bead;
-import net.beadsproject.beads.data.Buffer;
+import net.beadsproject.beads.core.io.NonrealtimeIO;
 import net.beadsproject.beads.data.Pitch;
-import net.beadsproject.beads.events.AudioContextStopTrigger;
-import net.beadsproject.beads.events.KillTrigger;
-import net.beadsproject.beads.ugens.Clock;
-import net.beadsproject.beads.ugens.Envelope;
-import net.beadsproject.beads.ugens.Gain;
-import net.beadsproject.beads.ugens.WavePlayer;
 import performance.MidiNote;
+import performance.VelocityCurve;
 import performance.instrument.Instrument;
+import theory.EventTimeline;
 import theory.Measure;
 
 public class BeadRunner {
@@ -41,166 +42,319 @@ public class BeadRunner {
 	private static boolean empty = true;
 	private static final List<String> STOP_COMMANDS = Arrays.asList(new String[] { "stop", "end", "quit", "kill" });
 	
-	private static HeldNotesManager heldNotes;
+	/** measures rendered by default in {@link #renderOffline(File, int)} */
+	private static final int DEFAULT_RENDER_MEASURES = 32;
 
-	public static void main(String[] args) {
+	/**
+	 * Plays live by default. <p>
+	 * <code>render [file.wav] [measures]</code> instead renders a piece to a WAV file as fast as possible. <p>
+	 * <code>-Ddisplay=off</code> prints no measures, e.g. when running headless; see {@link ConsoleDisplay}.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equalsIgnoreCase("render")) {
+			File file = new File(args.length > 1 ? args[1] : "composition.wav");
+			int measures = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RENDER_MEASURES;
+			renderOffline(file, measures);
+			return;
+		}
+		
 		InputThread inputThread = new InputThread();
 		inputThread.start();
 		
 		System.out.println(openingString);
 		
-		heldNotes = new HeldNotesManager();
 		final AudioContext ac;
 
 		ac = new AudioContext();
+		BeadsTimbre.precompute(); // rather than on the audio thread at the first note
 		/*
-		 * In this example a Clock is used to trigger events. We do this by
-		 * adding a listener to the Clock (which is of type Bead).
-		 * 
-		 * The Bead is made on-the-fly. All we have to do is to give the Bead a
-		 * callback method to make notes.
-		 * 
-		 * This example is more sophisticated than the previous ones. It uses
-		 * nested code.
+		 * Notes are scheduled ahead by a control thread and played by the engine at the exact frame,
+		 * so the audio thread never composes, prints or waits.
 		 */
-		Clock clock = new Clock(ac, 500);
+		MeasurePlayer player = new MeasurePlayer(ac, new Composer(), inputThread);
+		ac.start();
+		player.start();
+	}
+	
+	/**
+	 * Runs the same composing and synthesis as live play, but without an audio device, 
+	 * streaming the output to a WAV file as fast as it can be computed.
+	 * 
+	 * @param file to write
+	 * @param measures number of measures to render
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void renderOffline(File file, int measures) throws IOException {
+		if (measures <= 0)
+			throw new IllegalArgumentException("Must render at least one measure, not " + measures);
+		AudioContext ac = new AudioContext(new NonrealtimeIO());
+		BeadsTimbre.precompute();
+		Composer composer = new Composer();
+		composer.setComposingOnDemand(true); // on the player's thread, so no measure is played while still being written
+		MeasurePlayer player = new MeasurePlayer(ac, composer, measures);
+		WavFileWriter writer = new WavFileWriter(ac, file);
+		ac.invokeAfterEveryFrame(writer);
 		
-		//this is the on-the-fly bead
-		Bead bead = new Bead() {
-					Queue<Measure> measures = new PriorityQueue<>();
-					Measure measure;
-					Composer composer = new Composer();
-					{ measures.add(composer.beginComposing()); }
-					int startOfMeasure = 0;
-					float maxVolume = 0.4f;
-					
-					int pitch;
-					public void messageReceived(Bead message) {
-						Clock c = (Clock) message;
-						
-						if (!empty) {
-							final String input = receiveUserInput();
-							if (STOP_COMMANDS.contains(input)) {
-								// TODO figure out best stopping procedure
-								inputThread.end();
-								composer.finishComposing();
-								clock.kill();
-								ac.out.kill();
-								System.out.println(closingString);
-								System.exit(0); // best termination solution?
-								return; // dead code
-							}
-							Measure onTheFlyMeasure = composer.receiveInput(input);
-							if (onTheFlyMeasure != null)
-								measures.add(onTheFlyMeasure);
-						}
-						
-						int beat = c.getBeatCount();
-						
-						if (c.isBeat()) {
-//							System.out.println("Beat: " + beat);
-//							System.out.println("Count this measure: " + countThisMeasure);
-							if (beat == 0 || beat >= startOfMeasure + measure.beats()) { // is new measure
-//								System.out.println("Beats this measure: " + measure.beats());
-								if (measures.size() < 1) {
-									final Measure nextMeasure = composer.writeNextMeasure();
-									if (nextMeasure != null)
-										measures.add(nextMeasure);
-								}
-								measure = measures.poll(); // TODO maybe use multiple threads to make this smoother
-								int millisPerSec = (int) (60000 / measure.getBpm());
-								c.getIntervalUGen().setValue(millisPerSec);
-								System.out.println("[Measure " + measure.getMeasureNumber() + "] " + measure.getMetaInfo());
-								System.out.println(measure.stringDrawing());
-								startOfMeasure = beat;
-							}
-//							System.out.println("Time: " + time);
-						}
-//						int beatThisMeasure = beat - startOfMeasure;
-						long count = c.getCount();
-						int countThisMeasure = (int) (count - (startOfMeasure*c.getTicksPerBeat()));
-//						int beatThisMeasure = beat - startOfMeasure;
-//						int beats = measure.beats();
-						double beatValue = measure.beatValue();
-						double time = (double) countThisMeasure*beatValue/((double) c.getTicksPerBeat());
-						double nextTime = (double) (countThisMeasure+1)*beatValue/((double) c.getTicksPerBeat());
-						float millisPerBeat = c.getIntervalUGen().getValue();
-						double millisPerWholeNote = millisPerBeat / beatValue; // (millis / beat) / (whole-notes / beat)
-						
-						// play notes
-						boolean playedAnyNotes = false;
-						for (Instrument instrument : measure.getInstruments()) {
-							List<MidiNote> notes = measure.getNotes(instrument, time, nextTime);
-							if (!notes.isEmpty()) {
-//								if (!playedAnyNotes) // for old note printing method
-//									System.out.print(String.format("Beat %.2f: ", time/beatValue + 1));
-								playedAnyNotes = true;
-								playNotes(instrument, notes, millisPerWholeNote);
-							}
-						}
-//						if (playedAnyNotes) // for old note printing method
-//							System.out.println();
-
-						// CLEANUP:
-						if (playedAnyNotes) {
-							Collection<Gain> obsolete = heldNotes.endAcquisitionPhase();
-							for (Gain old : obsolete) {
-								((Envelope) old.getGainUGen()).addSegment(0, 1, new KillTrigger(old));
-//								System.out.println("Cleaning obsolete note");
-							}
+		System.out.println("Rendering " + measures + " measures to " + file);
+		long start = System.nanoTime();
+		player.start();
+		try {
+			ac.start(); // returns once the player stops the context
+		} finally {
+			writer.close();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		player.printStats();
+		System.out.println(String.format("Rendered %.1f s of audio in %.1f s (%.1fx real time)",
+				writer.getSeconds(), elapsed, writer.getSeconds() / elapsed));
+	}
+	
+	/**
+	 * Turns measures from a {@link Composer} into note events on a control thread of its own, scheduled by frame
+	 * ahead of the audio thread, which only plays them.
+	 * <p>
+	 * It keeps {@link #LOOKAHEAD_MILLIS} ahead of the audio and no further, taking each measure from the composer
+	 * only as it is about to play, as strategies which wait for measures to be played expect.
+	 * Playing live, it reads user commands between events and never waits on the composer; events it is too late
+	 * for play as soon as they can. Rendering offline, it waits for each measure to be composed, the audio waits
+	 * for it, and it ends the render after the last measure.
+	 */
+	private static class MeasurePlayer implements Runnable {
+		
+		/** time by which events are scheduled ahead of the audio playing them */
+		private static final float LOOKAHEAD_MILLIS = 100;
+		/** time the control thread sleeps when it is far enough ahead, playing live */
+		private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+		/** time the control thread sleeps when it is far enough ahead, rendering offline faster than real time */
+		private static final long OFFLINE_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+		
+		private final AudioContext ac;
+		private final Composer composer;
+		/** null when rendering offline */
+		private final InputThread inputThread;
+		/** number of measures to render offline, or -1 to play live */
+		private final int measureLimit;
+		private final Thread thread;
+		private final HeldNotesManager heldNotes = new HeldNotesManager();
+		/** every voice of every instrument */
+		private final SynthEngine engine;
+		private final NoteEventQueue queue = new NoteEventQueue();
+		/** prints measures, so that drawing them never holds up scheduling */
+		private final ConsoleDisplay display = ConsoleDisplay.create();
+		private final NoteEventPlayer eventPlayer;
+		/** reused for every event queued */
+		private final NoteEvent event = new NoteEvent();
+		private final long lookaheadFrames;
+		
+		Queue<Measure> measures = new PriorityQueue<>();
+		Measure measure;
+		int measuresStarted = 0;
+		/** frame at which the current measure starts */
+		long measureFrame;
+		/** next tick of the current measure with notes yet to be scheduled */
+		int tick;
+		double framesPerTick;
+		double millisPerTick;
+		/** number of the last note scheduled */
+		long noteNumber;
+		VelocityCurve velocityCurve = new VelocityCurve(DoubleUnaryOperator.identity(), 0.4f);
+		
+		/** plays live, taking commands from the given input thread */
+		public MeasurePlayer(AudioContext ac, Composer composer, InputThread inputThread) {
+			this(ac, composer, inputThread, -1);
+		}
+		
+		/** renders the given number of measures offline */
+		public MeasurePlayer(AudioContext ac, Composer composer, int measureLimit) {
+			this(ac, composer, null, measureLimit);
+		}
+		
+		private MeasurePlayer(AudioContext ac, Composer composer, InputThread inputThread, int measureLimit) {
+			this.ac = ac;
+			this.composer = composer;
+			this.inputThread = inputThread;
+			this.measureLimit = measureLimit;
+			this.engine = new SynthEngine(ac);
+			this.eventPlayer = new NoteEventPlayer(engine, queue, !isLive(), ac::stop,
+					BeadsTimbre.getSineTimbre(), BeadsTimbre.getInstrumentTimbre(), BeadsTimbre.getVoiceTimbre());
+			engine.setSequencer(eventPlayer);
+			ac.out.addInput(engine);
+			this.lookaheadFrames = (long) ac.msToSamples(LOOKAHEAD_MILLIS);
+			this.thread = new Thread(this, "Measure Player");
+			thread.setDaemon(!isLive()); // never outliving the render
+			measures.add(composer.beginComposing());
+		}
+		
+		private boolean isLive() {
+			return measureLimit < 0;
+		}
+		
+		public void start() {
+			thread.start();
+		}
+		
+		@Override
+		public void run() {
+			try {
+				measureFrame = engine.getFrame() + (isLive() ? lookaheadFrames : 0);
+				while (true) {
+					if (isLive() && !empty) {
+						final String input = receiveUserInput();
+						if (STOP_COMMANDS.contains(input)) {
+							// TODO figure out best stopping procedure
+							inputThread.end();
+							composer.finishComposing();
+							ac.stop();
+							printStats();
+							System.out.println(closingString);
+							System.exit(0); // best termination solution?
+							return; // dead code
 						}
+						Measure onTheFlyMeasure = composer.receiveInput(input);
+						if (onTheFlyMeasure != null)
+							measures.add(onTheFlyMeasure);
 					}
-							
-							
-					private void playNotes(Instrument instrument, List<MidiNote> notes, double millisPerWholeNote) {
-						BeadsTimbre timbre = BeadsTimbre.getTimbre(instrument); // FIXME true for now
-						int attackTime = timbre.getPeakMillis();
-						Buffer buffer = timbre.getWaveform();
-						
-						for (MidiNote note : notes) {
-							pitch = note.getPitch();
-//							System.out.print(pitch + " "); // for old note printing method
-							float freq = Pitch.mtof(pitch);
-							int durationMillis = (int) (millisPerWholeNote * note.getDuration()); // (millis / whole-note) * whole-notes
-							float volume = (float) note.getDynamic().volume();
-							Gain g;
-							
-							int tiedFrom = note.getTiedFromPitch();
-							if (tiedFrom != 0) {
-								g = heldNotes.acquire(instrument, tiedFrom);
-								WavePlayer tiedWp = (WavePlayer) g.getConnectedInputs().iterator().next();
-								tiedWp.setFrequency(freq);
-//								tiedWp.addInput(arg0);
-							} else {
-								// start note:
-								g = new Gain(ac, 1, new Envelope(ac, 0));
-								WavePlayer wp = new WavePlayer(ac, freq, buffer);
-								g.addInput(wp);
-								// attackTime = note.getPeakMillis(); // haven't decided who decides this
-								((Envelope)g.getGainUGen()).addSegment(maxVolume*volume, attackTime);
-								ac.out.addInput(g);
-							}
-							if (!note.tiesOver()) {
-								// add note end:
-								((Envelope)g.getGainUGen()).addSegment(0, durationMillis, new KillTrigger(g));
-							} else {
-								// prepare tie to next note
-								heldNotes.register(instrument, pitch, g);
-							}
-						}
+					long scheduleUntil = engine.getFrame() + lookaheadFrames;
+					if (nextOnsetFrame() >= scheduleUntil) {
+						queue.advanceHorizon(scheduleUntil);
+						LockSupport.parkNanos(isLive() ? IDLE_NANOS : OFFLINE_IDLE_NANOS);
+						continue;
 					}
-				};
-		clock.addMessageListener(bead);
-		ac.out.addDependent(clock);
-//		ac.out.addInput(clock);
-//		System.out.println("ac.out outputs: " + ac.out.getOuts());
-//		System.out.println("ac.out ins: " + ac.out.getIns());
-//		System.out.println("ac.out connected ugens: " + ac.out.getNumberOfConnectedUGens(0));
-//		System.out.println("ac.out connected inputs: " + ac.out.getConnectedInputs().size());
-		bead.setKillListener(new AudioContextStopTrigger(ac)); // y u no work?
-		ac.start();
-//		System.out.println("Connected UGens: " + ac.out.getNumberOfConnectedUGens(0));
-
+					if (!scheduleNextOnset())
+						return; // rendered every measure
+				}
+			} finally {
+				queue.close(measureFrame);
+			}
+		}
+		
+		/** @return frame of the next notes to be scheduled, or of the next measure if this one has no more */
+		private long nextOnsetFrame() {
+			if (measure == null)
+				return measureFrame;
+			int onset = nextOnset();
+			return onset < 0 ? measureFrame + Math.round(measure.lengthTicks() * framesPerTick)
+					: measureFrame + Math.round(onset * framesPerTick);
+		}
+		
+		/** @return next tick of the current measure at or after {@link #tick} at which any instrument plays, or -1 */
+		private int nextOnset() {
+			int next = -1;
+			for (Instrument instrument : measure.getInstruments()) {
+				EventTimeline timeline = measure.getTimeline(instrument);
+				int index = timeline.indexAtOrAfter(tick);
+				if (index < timeline.size() && timeline.onset(index) < measure.lengthTicks()
+						&& (next < 0 || timeline.onset(index) < next))
+					next = timeline.onset(index);
+			}
+			return next;
+		}
+		
+		/**
+		 * Queues every note at the next onset of the current measure, starting the next measure first if this one has
+		 * no more.
+		 * 
+		 * @return false if there are no more measures to render
+		 */
+		private boolean scheduleNextOnset() {
+			int onset = measure == null ? -1 : nextOnset();
+			if (onset < 0) {
+				if (measure != null)
+					measureFrame += Math.round(measure.lengthTicks() * framesPerTick);
+				if (!isLive() && measuresStarted == measureLimit) {
+					composer.finishComposing();
+					return false;
+				}
+				startNextMeasure();
+				return true;
+			}
+			// notes at this onset of every instrument are one round of simultaneous note changes
+			long frame = measureFrame + Math.round(onset * framesPerTick);
+			boolean playedAnyNotes = false;
+			for (Instrument instrument : measure.getInstruments()) {
+				EventTimeline timeline = measure.getTimeline(instrument);
+				int first = timeline.indexAtOrAfter(onset);
+				int last = timeline.indexAfter(onset);
+				if (playNotes(instrument, timeline, first, last, frame))
+					playedAnyNotes = true;
+			}
+			
+			// CLEANUP:
+			if (playedAnyNotes) {
+				Collection<Long> obsolete = heldNotes.endAcquisitionPhase();
+				for (Long old : obsolete)
+					put(event.release(frame, old, 1));
+			}
+			tick = onset + 1;
+			queue.advanceHorizon(frame + 1);
+			return true;
+		}
+		
+		private void startNextMeasure() {
+			if (measures.size() < 1) {
+				final Measure nextMeasure = isLive() ? composer.writeNextMeasure() : composer.awaitNextMeasure();
+				if (nextMeasure != null)
+					measures.add(nextMeasure);
+			}
+			measure = measures.poll(); // TODO maybe use multiple threads to make this smoother
+			measuresStarted++;
+			tick = 0;
+			if (isLive() && measureFrame < engine.getFrame()) // fell far behind, e.g. waiting on the composer
+				measureFrame = engine.getFrame() + lookaheadFrames;
+			double millisPerBeat = 60000 / measure.getBpm();
+			millisPerTick = millisPerBeat / measure.beatTicks(); // (millis / beat) / (ticks / beat)
+			framesPerTick = ac.msToSamples(millisPerTick);
+			display.show("[Measure " + measure.getMeasureNumber() + "] " + measure.getMetaInfo(), isLive() ? measure : null);
+		}
+		
+		/**
+		 * Queues the notes of the given timeline from index first (inclusive) to last (exclusive)
+		 * 
+		 * @param frame at which they start
+		 * @return true if any notes were played
+		 */
+		private boolean playNotes(Instrument instrument, EventTimeline timeline, int first, int last, long frame) {
+			int pool = eventPlayer.poolIndex(BeadsTimbre.getTimbre(instrument)); // FIXME true for now
+			boolean played = false;
+			
+			for (int i=first; i<last; i++) {
+				if (!timeline.isNote(i))
+					continue;
+				played = true;
+				MidiNote note = timeline.note(i);
+				int pitch = timeline.pitch(i);
+				float freq = Pitch.mtof(pitch);
+				float durationMillis = (float) (millisPerTick * timeline.duration(i)); // (millis / tick) * ticks
+				float volume = velocityCurve.gain(note.getDynamic());
+				long number = ++noteNumber;
+				
+				int tiedFrom = note.getTiedFromPitch();
+				Long tied = tiedFrom == 0 ? null : heldNotes.acquire(instrument, tiedFrom);
+				// start note, or continue the one it is tied from if that is still sounding:
+				// attackTime = note.getPeakMillis(); // haven't decided who decides this
+				if (!note.tiesOver()) {
+					// add note end:
+					put(event.note(frame, number, tied == null ? 0 : tied, pool, freq, volume, durationMillis));
+				} else {
+					// prepare tie to next note
+					put(event.note(frame, number, tied == null ? 0 : tied, pool, freq, volume, -1));
+					heldNotes.register(instrument, pitch, number);
+				}
+			}
+			return played;
+		}
+		
+		/** Queues the given event, waiting for the audio thread to make room if the queue is full */
+		private void put(NoteEvent event) {
+			while (!queue.offer(event))
+				LockSupport.parkNanos(IDLE_NANOS);
+		}
+		
+		private void printStats() {
+			display.close(); // so the stats come after every measure
+			System.out.print(eventPlayer.voiceStats());
+			System.out.println("Events: " + eventPlayer.stats());
+		}
 	}
 	
 	public static float random(double x) {
@@ -230,7 +384,7 @@ public class BeadRunner {
 	 * Allows multiple notes to change at once, possibly acquiring each other's notes. After every round of 
 	 * simultaneous note changes, only one instance of each note is allowed to be held per {@link Instrument}.
 	 * 
-	 * <p> Call {@link #register(Instrument, Integer, Gain) register} to begin holding a note.
+	 * <p> Call {@link #register(Instrument, Integer, Long) register} to begin holding a note.
 	 * <p> Call {@link #acquire(Instrument, Integer)} to take over ownership of a held note, which will no longer be tracked
 	 * <p> Be sure to call {@link #endAcquisitionPhase()} after every round of simultaneous note changes.
 	 * The map returned contains obsolete held notes which will no longer be tracked. 
@@ -238,8 +392,8 @@ public class BeadRunner {
 	 */
 	private static class HeldNotesManager {
 		
-		private Map<Instrument,Map<Integer,Gain>> previousHeldNotes;
-		private Map<Instrument,Map<Integer,Gain>> nextHeldNotes;
+		private Map<Instrument,Map<Integer,Long>> previousHeldNotes;
+		private Map<Instrument,Map<Integer,Long>> nextHeldNotes;
 		
 		public HeldNotesManager() {
 			this.previousHeldNotes = new HashMap<>();
@@ -249,21 +403,21 @@ public class BeadRunner {
 		/**
 		 * @param instrument
 		 * @param note the note to be held
-		 * @param gain the gain which produces the held note
+		 * @param held number of the held note, by which the audio thread finds the voice playing it
 		 */
-		public void register(Instrument instrument, Integer note, Gain gain) {
+		public void register(Instrument instrument, Integer note, Long held) {
 			if (!nextHeldNotes.containsKey(instrument))
 				nextHeldNotes.put(instrument, new HashMap<>());
-			nextHeldNotes.get(instrument).put(note, gain);
+			nextHeldNotes.get(instrument).put(note, held);
 		}
 		
 		/**
 		 * @param instrument
 		 * @param note the pitch to acquire
-		 * @return the associated gain, which will be removed from the list of held pitches
+		 * @return number of the held note, which will be removed from the list of held pitches
 		 */
-		public Gain acquire(Instrument instrument, Integer note) {
-			Map<Integer, Gain> notes = previousHeldNotes.get(instrument);
+		public Long acquire(Instrument instrument, Integer note) {
+			Map<Integer, Long> notes = previousHeldNotes.get(instrument);
 			return notes == null ? null : notes.remove(note);
 		}
 		
@@ -273,16 +427,16 @@ public class BeadRunner {
 		 * @return obsolete collection of previously held notes which will now be forgotten 
 		 * by this manager forever; the consumer should be sure to clean them up as necessary.
 		 */
-		public Collection<Gain> endAcquisitionPhase() {
+		public Collection<Long> endAcquisitionPhase() {
 			// XXX THIS NEEDS TO BE REVISED
 			// probably it needs to take into account the original length of the note
-			List<Gain> forgotten = new ArrayList<>();
+			List<Long> forgotten = new ArrayList<>();
 			
-			Map<Instrument,Map<Integer,Gain>> obsolete = previousHeldNotes;
+			Map<Instrument,Map<Integer,Long>> obsolete = previousHeldNotes;
 			boolean notEmpty = !nextHeldNotes.isEmpty();
 			// carry over any notes that have not been stepped on
 			for (Instrument instrument : obsolete.keySet()) {
-				Map<Integer, Gain> oldInstNoteMap = obsolete.get(instrument);
+				Map<Integer, Long> oldInstNoteMap = obsolete.get(instrument);
 				for (Integer note : oldInstNoteMap.keySet()) {
 					if (notEmpty && (nextHeldNotes.get(instrument) == null || 
 							!nextHeldNotes.get(instrument).containsKey(note)))
@@ -1,24 +1,55 @@
 package main;
 
+import java.util.stream.IntStream;
+
 import net.beadsproject.beads.data.Buffer;
 import performance.Timbre;
 import performance.instrument.Instrument;
 
+/**
+ * A waveform and attack time for a Beads voice, along with a {@link Wavetable} of the waveform for {@link SynthEngine}.
+ * <p>
+ * The shared timbres are each built once, on first use, in a holder class; call {@link #precompute()} before
+ * playing so that none is built on the audio thread.
+ */
 public class BeadsTimbre implements Timbre {
 	
 	int peakMillis;
 	Buffer waveform;
+	private final Wavetable wavetable;
 	
-	private static BeadsTimbre sineTimbre;
-	private static BeadsTimbre instrumentTimbre;
-	private static BeadsTimbre voiceTimbre;
+	private static class SineHolder {
+		static final BeadsTimbre TIMBRE = new BeadsTimbre(150, Buffer.SINE, Wavetable.sine());
+	}
+	private static class InstrumentHolder {
+		static final BeadsTimbre TIMBRE = new BeadsTimbre(120, instrumentWaveform());
+	}
+	private static class VoiceHolder {
+		static final BeadsTimbre TIMBRE = new BeadsTimbre(200, voiceWaveform());
+	}
 	
 	public BeadsTimbre(int attackTimeMillis, Buffer waveform) {
+		this(attackTimeMillis, waveform, Wavetable.of(waveform.buf));
+	}
+	
+	private BeadsTimbre(int attackTimeMillis, Buffer waveform, Wavetable wavetable) {
 		this.peakMillis = attackTimeMillis;
 		this.waveform = waveform;
+		this.wavetable = wavetable;
 	}
 	public int getPeakMillis() { return peakMillis; }
 	public Buffer getWaveform() { return waveform; }
+	/** @return band-limited tables of the waveform */
+	public Wavetable getWavetable() { return wavetable; }
+	
+	/**
+	 * Builds every shared timbre now rather than on first use, each spreading its work over the common fork-join pool.
+	 */
+	public static void precompute() {
+		getSineTimbre();
+		getInstrumentTimbre();
+		getVoiceTimbre();
+	}
 	
 	public static BeadsTimbre getTimbre(Instrument instrument) {
 		if (instrument == Instrument.SOPRANO_VOICE
@@ -42,98 +73,100 @@ public class BeadsTimbre implements Timbre {
 	}
 	
 	public static BeadsTimbre getSineTimbre() {
-		if (sineTimbre == null)
-			sineTimbre = new BeadsTimbre(150, Buffer.SINE);
-		return sineTimbre;
+		return SineHolder.TIMBRE;
 	}
 	
 	public static BeadsTimbre getInstrumentTimbre() {
-		if (instrumentTimbre == null) {
-			int resolution = 10000;
-			int harmonics = Math.min(1000, resolution/4/20);
-			// decay envelope on harmonics:
-			double nToThe = -2.7;
-			// sinusoidal envelope on harmonics:
-			double nthHarmonicIsMinimum = 2;
-			double minimumHarmonicRatio = .6;
-			double rangeHalf = (1.0 - minimumHarmonicRatio)/2.0;
-			double rangeCenter = 1.0 - rangeHalf;
-			// add noisy neighbors:
-			double neighborDist = .05;
-			double neighborRatio = .15;
-			
-			Buffer buffer = new Buffer(resolution);
-			{
-				for (int i=0; i<resolution; i++) {
-					float value = 0;
-					for (int j=1; j<harmonics+1; j++) {
-						double harmonic = Math.sin(i*2*Math.PI/resolution*j);
-						double upperNeighborRatio = j*(1+neighborDist);
-						double lowerNeighborRatio = j*(1-neighborDist);
-						double harmonicUpperNeighbor = Math.sin(i*2*Math.PI/resolution*upperNeighborRatio);
-						double harmonicLowerNeighbor = Math.sin(i*2*Math.PI/resolution*lowerNeighborRatio);
-						double decayEnv = Math.pow(j, nToThe);
-						double sinusoidalEnv = rangeCenter+rangeHalf*Math.cos((j-1.2)*Math.PI/nthHarmonicIsMinimum);
-//					double sinusoidalEnv2 = Math.cos(rangeCenter+rangeHalf*Math.cos((j-1.2)*Math.PI/nthHarmonicIsMinimum/2.0));
-						double envFinal = decayEnv 
-								* sinusoidalEnv 
-//									* sinusoidalEnv2
-								;
-						value += harmonic * envFinal
-								+ harmonicUpperNeighbor * envFinal * neighborRatio
-								+ harmonicLowerNeighbor * envFinal * neighborRatio
-								;
-					}
-					buffer.buf[i] = value;
+		return InstrumentHolder.TIMBRE;
+	}
+	
+	public static BeadsTimbre getVoiceTimbre() {
+		return VoiceHolder.TIMBRE;
+	}
+	
+	private static Buffer instrumentWaveform() {
+		int resolution = 10000;
+		int harmonics = Math.min(1000, resolution/4/20);
+		// decay envelope on harmonics:
+		double nToThe = -2.7;
+		// sinusoidal envelope on harmonics:
+		double nthHarmonicIsMinimum = 2;
+		double minimumHarmonicRatio = .6;
+		double rangeHalf = (1.0 - minimumHarmonicRatio)/2.0;
+		double rangeCenter = 1.0 - rangeHalf;
+		// add noisy neighbors:
+		double neighborDist = .05;
+		double neighborRatio = .15;
+		
+		Buffer buffer = new Buffer(resolution);
+		{
+			// each sample on its own, so spread over the common fork-join pool
+			IntStream.range(0, resolution).parallel().forEach(i -> {
+				float value = 0;
+				for (int j=1; j<harmonics+1; j++) {
+					double harmonic = Math.sin(i*2*Math.PI/resolution*j);
+					double upperNeighborRatio = j*(1+neighborDist);
+					double lowerNeighborRatio = j*(1-neighborDist);
+					double harmonicUpperNeighbor = Math.sin(i*2*Math.PI/resolution*upperNeighborRatio);
+					double harmonicLowerNeighbor = Math.sin(i*2*Math.PI/resolution*lowerNeighborRatio);
+					double decayEnv = Math.pow(j, nToThe);
+					double sinusoidalEnv = rangeCenter+rangeHalf*Math.cos((j-1.2)*Math.PI/nthHarmonicIsMinimum);
+//				double sinusoidalEnv2 = Math.cos(rangeCenter+rangeHalf*Math.cos((j-1.2)*Math.PI/nthHarmonicIsMinimum/2.0));
+					double envFinal = decayEnv 
+							* sinusoidalEnv 
+//								* sinusoidalEnv2
+							;
+					value += harmonic * envFinal
+							+ harmonicUpperNeighbor * envFinal * neighborRatio
+							+ harmonicLowerNeighbor * envFinal * neighborRatio
+							;
 				}
-			}
-			instrumentTimbre = new BeadsTimbre(120, buffer);
+				buffer.buf[i] = value;
+			});
 		}
-		return instrumentTimbre;
+		return buffer;
 	}
 	
-	public static BeadsTimbre getVoiceTimbre() {
-		if (voiceTimbre == null) {
-			int resolution = 10000;
-			int harmonics = Math.min(1000, resolution/4/20);
-			// decay envelope on harmonics:
-			double nToThe = -2.3;
-			// sinusoidal envelope on harmonics:
-			double nthHarmonicIsMinimum = 6;
-			double minimumHarmonicRatio = .6;
-			double rangeHalf = (1.0 - minimumHarmonicRatio)/2.0;
-			double rangeCenter = 1.0 - rangeHalf;
-			// add noisy neighbors:
-			double neighborDist = .07;
-			double neighborRatio = .7;
-			
-			Buffer buffer = new Buffer(resolution);
-			{
-				for (int i=0; i<resolution; i++) {
-					float value = 0;
-					for (int j=1; j<harmonics+1; j++) {
-						double harmonic = Math.sin(i*2*Math.PI/resolution*j);
-						double upperNeighborRatio = j*(1+neighborDist);
-						double lowerNeighborRatio = j*(1-neighborDist);
-						double harmonicUpperNeighbor = Math.sin(i*2*Math.PI/resolution*upperNeighborRatio);
-						double harmonicLowerNeighbor = Math.sin(i*2*Math.PI/resolution*lowerNeighborRatio);
-						double decayEnv = Math.pow(j, nToThe);
-						double sinusoidalEnv = rangeCenter+rangeHalf*Math.cos((j-1)*Math.PI/nthHarmonicIsMinimum);
-						double sinusoidalEnv2 = Math.cos(rangeCenter+rangeHalf*Math.cos((j-1)*Math.PI/nthHarmonicIsMinimum/3.0));
-						double envFinal = decayEnv 
-								* sinusoidalEnv 
-								* sinusoidalEnv2
-								;
-						value += harmonic * envFinal
-								+ harmonicUpperNeighbor * envFinal * neighborRatio
-								+ harmonicLowerNeighbor * envFinal * neighborRatio
-								;
-					}
-					buffer.buf[i] = value;
+	private static Buffer voiceWaveform() {
+		int resolution = 10000;
+		int harmonics = Math.min(1000, resolution/4/20);
+		// decay envelope on harmonics:
+		double nToThe = -2.3;
+		// sinusoidal envelope on harmonics:
+		double nthHarmonicIsMinimum = 6;
+		double minimumHarmonicRatio = .6;
+		double rangeHalf = (1.0 - minimumHarmonicRatio)/2.0;
+		double rangeCenter = 1.0 - rangeHalf;
+		// add noisy neighbors:
+		double neighborDist = .07;
+		double neighborRatio = .7;
+		
+		Buffer buffer = new Buffer(resolution);
+		{
+			// each sample on its own, so spread over the common fork-join pool
+			IntStream.range(0, resolution).parallel().forEach(i -> {
+				float value = 0;
+				for (int j=1; j<harmonics+1; j++) {
+					double harmonic = Math.sin(i*2*Math.PI/resolution*j);
+					double upperNeighborRatio = j*(1+neighborDist);
+					double lowerNeighborRatio = j*(1-neighborDist);
+					double harmonicUpperNeighbor = Math.sin(i*2*Math.PI/resolution*upperNeighborRatio);
+					double harmonicLowerNeighbor = Math.sin(i*2*Math.PI/resolution*lowerNeighborRatio);
+					double decayEnv = Math.pow(j, nToThe);
+					double sinusoidalEnv = rangeCenter+rangeHalf*Math.cos((j-1)*Math.PI/nthHarmonicIsMinimum);
+					double sinusoidalEnv2 = Math.cos(rangeCenter+rangeHalf*Math.cos((j-1)*Math.PI/nthHarmonicIsMinimum/3.0));
+					double envFinal = decayEnv 
+							* sinusoidalEnv 
+							* sinusoidalEnv2
+							;
+					value += harmonic * envFinal
+							+ harmonicUpperNeighbor * envFinal * neighborRatio
+							+ harmonicLowerNeighbor * envFinal * neighborRatio
+							;
 				}
-			}
-			voiceTimbre = new BeadsTimbre(200, buffer);
+				buffer.buf[i] = value;
+			});
 		}
-		return voiceTimbre;
+		return buffer;
 	}
 }
\ No newline at end of file
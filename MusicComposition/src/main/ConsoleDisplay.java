@@ -0,0 +1,167 @@
+package main;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import theory.Measure;
+
+/**
+ * Prints what is being played from a low-priority thread of its own, so that drawing measures and writing to the
+ * console never hold up a thread which has notes to send.
+ * <p>
+ * Lines and measures are queued without waiting; if the console falls so far behind that the queue is full, they
+ * are dropped and counted instead. Whatever has queued up is drawn and printed in one batch.
+ * <p>
+ * Setting the system property {@value #DISPLAY_PROPERTY} to <code>off</code>, e.g. for a headless deployment,
+ * disables the display entirely: nothing is queued, drawn or printed, and no thread is started.
+ */
+public class ConsoleDisplay {
+
+	/** system property which, set to <code>off</code>, disables the display made by {@link #create()} */
+	public static final String DISPLAY_PROPERTY = "display";
+	/** default number of lines and measures which can wait to be printed */
+	public static final int DEFAULT_CAPACITY = 256;
+	/** most entries printed in one batch */
+	private static final int BATCH = 64;
+	/** time to wait for the queue to be printed when the display is closed */
+	private static final long CLOSE_MILLIS = 1000;
+
+	/** queued to stop the display thread */
+	private static final Entry CLOSE = new Entry(null, null);
+
+	private final PrintStream out;
+	private final BlockingQueue<Entry> queue;
+	private final Thread thread;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean closed;
+
+	/**
+	 * @param out to which lines are printed, or null to disable the display
+	 * @param capacity number of lines and measures which can wait to be printed
+	 */
+	public ConsoleDisplay(PrintStream out, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Display must hold at least one line, not " + capacity);
+		this.out = out;
+		if (out == null) {
+			this.queue = null;
+			this.thread = null;
+			this.closed = true;
+			return;
+		}
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.thread = new Thread(this::run, "Console Display");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/** @return display to standard output, unless disabled by the system property {@value #DISPLAY_PROPERTY} */
+	public static ConsoleDisplay create() {
+		boolean enabled = !"off".equalsIgnoreCase(System.getProperty(DISPLAY_PROPERTY));
+		return new ConsoleDisplay(enabled ? System.out : null, DEFAULT_CAPACITY);
+	}
+
+	/** @return whether anything shown is printed */
+	public boolean isEnabled() {
+		return out != null;
+	}
+
+	/** Queues a line to be printed */
+	public void println(String line) {
+		offer(new Entry(line, null));
+	}
+
+	/**
+	 * Queues a measure to be printed, drawn by the display thread.
+	 *
+	 * @param header line printed above the measure
+	 * @param drawn measure whose {@link Measure#stringDrawing() drawing} is printed, or null for the header alone;
+	 *              it should not change once shown
+	 */
+	public void show(String header, Measure drawn) {
+		offer(new Entry(header, drawn));
+	}
+
+	/** @return number of lines and measures dropped because the queue was full */
+	public long dropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Prints whatever is queued, waiting a short time for it, and stops the display thread.
+	 * Anything shown afterwards is dropped.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			if (queue.offer(CLOSE, CLOSE_MILLIS, TimeUnit.MILLISECONDS))
+				thread.join(CLOSE_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void offer(Entry entry) {
+		if (out == null)
+			return;
+		if (closed || !queue.offer(entry))
+			dropped.incrementAndGet();
+	}
+
+	private void run() {
+		StringBuilder text = new StringBuilder();
+		List<Entry> batch = new ArrayList<>(BATCH);
+		String lineSeparator = System.lineSeparator();
+		long reported = 0;
+		boolean running = true;
+		while (running) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, BATCH - 1);
+			for (Entry entry : batch) {
+				if (entry == CLOSE) {
+					running = false;
+					break;
+				}
+				if (entry.line != null)
+					text.append(entry.line).append(lineSeparator);
+				if (entry.drawn != null)
+					text.append(entry.drawn.stringDrawing()).append(lineSeparator);
+			}
+			long dropped = this.dropped.get();
+			if (dropped > reported) {
+				text.append("(display fell behind; ").append(dropped - reported).append(" lines dropped)")
+						.append(lineSeparator);
+				reported = dropped;
+			}
+			out.print(text);
+			out.flush();
+			text.setLength(0);
+			batch.clear();
+		}
+	}
+
+	/** A line, a measure to draw, or both */
+	private static class Entry {
+
+		final String line;
+		final Measure drawn;
+
+		Entry(String line, Measure drawn) {
+			this.line = line;
+			this.drawn = drawn;
+		}
+	}
+
+}
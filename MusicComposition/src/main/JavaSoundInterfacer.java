@@ -2,7 +2,6 @@ package main;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -22,7 +21,8 @@ import javax.sound.midi.Soundbank;
 import javax.sound.midi.Synthesizer;
 
 import composing.Composer;
-import performance.MidiNote;
+import performance.VelocityCurve;
+import theory.EventTimeline;
 import theory.Measure;
 
 public class JavaSoundInterfacer {
@@ -42,53 +42,68 @@ public class JavaSoundInterfacer {
 	private static boolean empty = true;
 	private static final List<String> STOP_COMMANDS = Arrays.asList(new String[] { "stop", "end", "quit", "kill" });
 
+	/** MIDI controller number of the "All Notes Off" channel mode message */
+	private static final int ALL_NOTES_OFF = 123;
+
 	private static Synthesizer synthesizer;
 	private static Receiver synthRcvr;
+	private static MidiChannelAllocator channels;
 	
 	public static void main(String[] args) throws MidiUnavailableException, InvalidMidiDataException {
 		
 		synthesizer = MidiSystem.getSynthesizer();
 		synthesizer.open();
 	    synthRcvr = synthesizer.getReceiver();
+	    channels = new MidiChannelAllocator(synthRcvr, synthesizer.getChannels().length);
 	    
 //	    javaSoundPractice();
 	    composeMusic();
 	}
 	
 	private static void composeMusic() {
-		int maxVolume = 127;
+		VelocityCurve velocityCurve = VelocityCurve.LINEAR;
 		Queue<Measure> measures = new PriorityQueue<>();
 		Measure measure;
 		Composer composer = new Composer();
 		InputThread inputThread = new InputThread();
 		inputThread.start();
 		InstrumentBank instrumentBank = new InstrumentBank();
+		ConsoleDisplay display = ConsoleDisplay.create(); // so drawing measures never delays a note
 		
 		System.out.println(openingString);
 		
 		measures.add(composer.beginComposing());
+		PlaybackScheduler scheduler = new PlaybackScheduler(synthesizer);
+		long measureStart = -1;
+		List<Instrument> midiInstruments = new ArrayList<>();
 		while (true) {
-			Double ticker = 0.0; // TODO align this to currentTimeMillis() ? could prevent possible stutter
 			if (measures.size() < 1)
 				measures.add(composer.writeNextMeasure());
 			measure = measures.poll();
-			System.out.println("[Measure: " + measure.getMeasureNumber() + "] " + measure.getMetaInfo());
-			System.out.println(measure.stringDrawing());
+			display.show("[Measure: " + measure.getMeasureNumber() + "] " + measure.getMetaInfo(), measure);
 			//		System.out.println("Notes: " + measure.getNotes(measure1.getInstruments().iterator().next(), 0, measure1.length()));
-			List<Double> times = new ArrayList<>(measure.getTimes());
-			Collections.sort(times);
+			int[] ticks = measure.getTicks();
+
+			// load the measure's instruments as the last one ends, rather than in the middle of this one
+			midiInstruments.clear();
+			for (performance.instrument.Instrument instrument : measure.getInstruments())
+				midiInstruments.add(instrumentBank.translate(instrument));
+			channels.prepare(midiInstruments, measureStart);
 
 			double bpm = measure.getBpm();
-			double beatValue = measure.beatValue();
-			// millis = time / beatValue / bpm * (60,000 millis/min)
+			int beatTicks = measure.beatTicks();
+			long lateEvents = scheduler.lateEvents();
 
-			for (Double time : times) {
+			for (int tick : ticks) {
 				if (!empty) {
 					final String input = receiveUserInput(); // TODO move this
 					if (STOP_COMMANDS.contains(input)) {
 						// TODO figure out best stopping procedure
 						inputThread.end();
 						composer.finishComposing();
+						display.close();
+						System.out.println("Playback: " + scheduler.report());
+						System.out.println("Channels: " + channels.stats());
 						System.out.println(closingString);
 						System.exit(0); // best termination solution?
 						return; // dead code
@@ -98,28 +113,34 @@ public class JavaSoundInterfacer {
 						measures.add(onTheFlyMeasure);
 				}
 				
-				// check if time < ticker? should be unnecessary
-				if (ticker < time)
-					waitWholeNotes(time - ticker, beatValue, bpm);
-				ticker = time;
+				long timestamp = scheduler.awaitTick(tick, beatTicks, bpm);
 				
 				for (performance.instrument.Instrument instrument : measure.getInstruments()) {
 					Instrument midiInstrument = instrumentBank.translate(instrument);
-					List<MidiNote> notes = measure.getNotes(instrument, time);
-					if (!notes.isEmpty() &&!instrument.equals(performance.instrument.Instrument.PIANO))
-						allNotesOff(midiInstrument);
-					for (MidiNote note : notes) {
-						noteOn(midiInstrument, note.getPitch(), (int) (maxVolume * note.getDynamic().volume())); // TODO
+					EventTimeline timeline = measure.getTimeline(instrument);
+					int first = timeline.indexAtOrAfter(tick);
+					int last = timeline.indexAfter(tick);
+					boolean anyNotes = false;
+					for (int i=first; i<last && !anyNotes; i++)
+						anyNotes = timeline.isNote(i);
+					if (anyNotes && !instrument.equals(performance.instrument.Instrument.PIANO))
+						allNotesOff(midiInstrument, timestamp);
+					for (int i=first; i<last; i++) {
+						if (timeline.isNote(i))
+							noteOn(midiInstrument, timeline.pitch(i), velocityCurve.velocity(timeline.dynamic(i)), timestamp);
 					}
 				}
 				
 			}
-			if (ticker < measure.length())
-				waitWholeNotes(measure.length() - ticker, beatValue, bpm);
+			long measureEnd = scheduler.endMeasure(measure.lengthTicks(), beatTicks, bpm);
+			measureStart = measureEnd;
+			if (scheduler.lateEvents() > lateEvents)
+				display.println("Playback ran late " + (scheduler.lateEvents() - lateEvents) + " times in measure "
+						+ measure.getMeasureNumber());
 			
-			// attempt to turn off all notes at measure end:
+			// turn off all notes at measure end:
 			for (performance.instrument.Instrument instrument : measure.getInstruments())
-				allNotesOff(instrumentBank.translate(instrument)); // FIXME not working for some unknown reason
+				allNotesOff(instrumentBank.translate(instrument), measureEnd);
 		}
 	}
 	
@@ -169,7 +190,7 @@ public class JavaSoundInterfacer {
 	    programChangeMsg.setMessage(ShortMessage.PROGRAM_CHANGE, instrument.getPatch().getBank(), instrument.getPatch().getProgram());
 	    synthRcvr.send(programChangeMsg, -1);
 //	    synthRcvr.send(myMsg, -1); // -1 means no time stamp
-	    noteOn(instrument, 60, 93);
+	    noteOn(instrument, 60, 93, -1);
 	    try { Thread.sleep(1000); } catch (Exception e) { }
 	    ShortMessage decayMsg = new ShortMessage();
 	    decayMsg.setMessage(ShortMessage.CHANNEL_PRESSURE, 0, 0);
@@ -179,27 +200,30 @@ public class JavaSoundInterfacer {
 	    synthRcvr.send(offMsg, -1);
 //	    noteOff(4, 60);
 //	    synthRcvr.send(myMsg, -1); // -1 means no time stamp
-	    noteOn(instrument, 60, 93);
+	    noteOn(instrument, 60, 93, -1);
 	    System.out.println("off requested");
 	    try { Thread.sleep(1000); } catch (Exception e) { }
 	    try { Thread.sleep(1000); } catch (Exception e) { }
 	    try { Thread.sleep(1000); } catch (Exception e) { }
 	}
 	
-	private static void noteOn(Instrument instrument, int midiPitch, int velocity) {
+	/**
+	 * @param timestamp device time in microseconds at which to play the note, or -1 for immediately
+	 */
+	private static void noteOn(Instrument instrument, int midiPitch, int velocity, long timestamp) {
 		ShortMessage noteOnMsg = new ShortMessage();
-		int channel = MidiChannelRegistrar.getInstance().getForInstrument(instrument);
+		int channel = channels.getChannel(instrument, timestamp);
 		try {
 			noteOnMsg.setMessage(ShortMessage.NOTE_ON, channel, midiPitch, velocity);
 		} catch (InvalidMidiDataException e) {
 			e.printStackTrace();
 		}
-		synthRcvr.send(noteOnMsg, -1);
+		synthRcvr.send(noteOnMsg, timestamp);
 	}
 	
 	private static void noteOff(Instrument instrument, int midiPitch) {
 //		ShortMessage noteOffMsg = new ShortMessage();
-		int channel = MidiChannelRegistrar.getInstance().getForInstrument(instrument);
+		int channel = channels.getChannel(instrument, -1);
 		synthesizer.getChannels()[channel].noteOff(midiPitch);
 //		try {
 //			noteOffMsg.setMessage(ShortMessage.NOTE_OFF, channel, midiPitch);
@@ -210,18 +234,20 @@ public class JavaSoundInterfacer {
 //		synthRcvr.send(noteOffMsg,  -1);
 	}
 	
-	private static void allNotesOff(Instrument instrument) {
-		int channel = MidiChannelRegistrar.getInstance().getForInstrument(instrument);
-		synthesizer.getChannels()[channel].allNotesOff();;
-	}
-	
-	private static void waitWholeNotes(double wholeNotes, double beatValue, double bpm) {
-		int millis = (int) (wholeNotes / beatValue / bpm * 60000);
+	/**
+	 * Sent as a message rather than through the MidiChannel, so that it is ordered with time-stamped notes
+	 * 
+	 * @param timestamp device time in microseconds at which to stop the notes, or -1 for immediately
+	 */
+	private static void allNotesOff(Instrument instrument, long timestamp) {
+		ShortMessage allNotesOffMsg = new ShortMessage();
+		int channel = channels.getChannel(instrument, timestamp);
 		try {
-			Thread.sleep(millis);
-		} catch (InterruptedException e) {
+			allNotesOffMsg.setMessage(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0);
+		} catch (InvalidMidiDataException e) {
 			e.printStackTrace();
 		}
+		synthRcvr.send(allNotesOffMsg, timestamp);
 	}
 	
 	private static synchronized void addUserInput(String input) {
@@ -263,84 +289,6 @@ public class JavaSoundInterfacer {
 		
 	}
 	
-	private static class MidiChannelRegistrar { // FIXME Apparently "Channel 10" is reserved for drum sounds
-		
-		private static MidiChannelRegistrar instance;
-		private static Queue<MidiChannel> unusedChannels;
-		private static Map<Instrument,MidiChannel> registered;
-		private static Map<MidiChannel,Integer> channelIDs;
-		
-		private MidiChannelRegistrar() {
-			unusedChannels = new LinkedList<>();
-			registered = new HashMap<>();
-			channelIDs = new HashMap<>();
-			
-			int i=0;
-		    for (MidiChannel channel : synthesizer.getChannels()) {
-		    	unusedChannels.add(channel);
-		    	channelIDs.put(channel, i++);
-		    }
-		}
-		
-		public static MidiChannelRegistrar getInstance() {
-			if (instance == null)
-				instance = new MidiChannelRegistrar();
-			return instance;
-		}
-		
-		/**
-		 * Locates and appropriate MidiChannel and loads the given instrument if necessary.
-		 * 
-		 * @param instrument to play on the returned channel
-		 * @return index of the MidiChannel with the given instrument loaded
-		 * @throws IllegalStateException if all channels are in use by other instruments
-		 */
-		public synchronized int getForInstrument(Instrument instrument) {
-			if (registered.containsKey(instrument))
-				return channelIDs.get(registered.get(instrument));
-			
-			if (unusedChannels.isEmpty())
-				throw new IllegalStateException("No more free channels!");
-			
-			int program = instrument.getPatch().getProgram();
-			MidiChannel channel = null;
-			
-			// check if an unused channel is already setup for the instrument
-			boolean found = false;
-			for (MidiChannel unused : unusedChannels) {
-				if (unused.getProgram() == program) {
-					channel = unused;
-					break;
-				}
-			}
-			if (channel != null) {
-				unusedChannels.remove(channel);
-			} else {
-				channel = unusedChannels.poll();
-				channel.programChange(instrument.getPatch().getProgram());
-			}
-			registered.put(instrument, channel);
-			Integer channelID = channelIDs.get(channel);
-//			System.out.println("Returned channel " + channelID + " for " + instrument.getName());
-			return channelID;
-		}
-		
-		public synchronized void release(Instrument instrument) {
-			MidiChannel channel = registered.get(instrument);
-			if (channel != null) {
-				unusedChannels.add(channel);
-				registered.remove(instrument);
-			}
-		}
-		
-		public synchronized void releaseAll() {
-			unusedChannels = new LinkedList<>();
-			for (MidiChannel channel : synthesizer.getChannels())
-				unusedChannels.add(channel);
-			registered = new HashMap<>();
-		}
-	}
-	
 	public static class InputThread extends Thread {
 		
 		private boolean stopped;
@@ -0,0 +1,213 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sound.midi.Instrument;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Patch;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Gives each instrument being played a MIDI channel of its own, skipping the percussion channel, and sends the
+ * program changes which load the instruments.
+ * <p>
+ * Channels keep their instruments between measures and pieces. Once every channel is taken, the channel of the
+ * instrument least recently played, which is not in the current measure, is given to the next; and a channel whose
+ * program already matches an instrument is chosen over one which would need a program change.
+ * <p>
+ * Each measure's instruments should be {@link #prepare(Collection, long) prepared} before it starts, so that every
+ * program change is sent together, ahead of the measure's first note, rather than in the middle of it.
+ * <p>
+ * Not thread safe; meant to be used by the one thread sending notes.
+ */
+public class MidiChannelAllocator {
+
+	/** channel reserved for percussion by General MIDI, i.e. channel 10 counting from 1 */
+	public static final int PERCUSSION_CHANNEL = 9;
+	/** MIDI controller numbers of the bank select messages */
+	private static final int BANK_SELECT_MSB = 0, BANK_SELECT_LSB = 32;
+	/** bank or program which a channel has not been set to by this allocator */
+	private static final int UNKNOWN = -1;
+
+	private final Receiver receiver;
+	private final int channels;
+	/** channels by instrument, the most recently played last */
+	private final LinkedHashMap<Instrument,Integer> assigned = new LinkedHashMap<>(16, 0.75f, true);
+	private final Deque<Integer> free = new ArrayDeque<>();
+	/** instruments of the current measure, whose channels are not taken from them */
+	private final Set<Instrument> playing = new HashSet<>();
+	// by channel:
+	private final int[] banks;
+	private final int[] programs;
+
+	private long allocations;
+	private long reused;
+	private long programChanges;
+	private long lateProgramChanges;
+	private long evictions;
+	private long overflows;
+	private int peakOccupied;
+
+	/**
+	 * @param receiver to which program changes are sent
+	 * @param channels number of channels of the synthesizer, the percussion channel included
+	 */
+	public MidiChannelAllocator(Receiver receiver, int channels) {
+		if (channels < 1 || channels > 16)
+			throw new IllegalArgumentException("MIDI has between 1 and 16 channels, not " + channels);
+		this.receiver = receiver;
+		this.channels = channels;
+		this.banks = new int[channels];
+		this.programs = new int[channels];
+		for (int channel=0; channel<channels; channel++) {
+			banks[channel] = UNKNOWN;
+			programs[channel] = UNKNOWN;
+			if (channel != PERCUSSION_CHANNEL)
+				free.add(channel);
+		}
+		if (free.isEmpty())
+			throw new IllegalArgumentException("No channels besides the percussion channel");
+	}
+
+	/**
+	 * Starts a measure: gives every instrument in it a channel, and sends any program changes this needs at once.
+	 * Until the next measure is prepared, the channels of these instruments are not given to others.
+	 *
+	 * @param instruments played in the measure
+	 * @param timestamp device time in microseconds at which the measure starts, or -1 for immediately
+	 */
+	public void prepare(Collection<Instrument> instruments, long timestamp) {
+		playing.clear();
+		playing.addAll(instruments);
+		for (Instrument instrument : instruments)
+			channel(instrument, timestamp);
+	}
+
+	/**
+	 * Lookups of an instrument which was not prepared for the measure may have to change a channel's program
+	 * there and then, which is counted as a late program change.
+	 *
+	 * @param timestamp device time in microseconds at which the instrument plays, or -1 for immediately
+	 * @return channel on which the given instrument is loaded
+	 */
+	public int getChannel(Instrument instrument, long timestamp) {
+		long changes = programChanges;
+		int channel = channel(instrument, timestamp);
+		lateProgramChanges += programChanges - changes;
+		return channel;
+	}
+
+	private int channel(Instrument instrument, long timestamp) {
+		Integer channel = assigned.get(instrument); // marks it played most recently
+		if (channel != null)
+			return channel;
+
+		allocations++;
+		channel = free.isEmpty() ? evict() : takeFree(instrument.getPatch());
+		assigned.put(instrument, channel);
+		peakOccupied = Math.max(peakOccupied, assigned.size());
+		load(channel, instrument.getPatch(), timestamp);
+		return channel;
+	}
+
+	/** @return a free channel, preferably one already set to the given patch */
+	private int takeFree(Patch patch) {
+		for (Iterator<Integer> iterator = free.iterator(); iterator.hasNext(); ) {
+			int channel = iterator.next();
+			if (programs[channel] == patch.getProgram() && banks[channel] == patch.getBank()) {
+				iterator.remove();
+				return channel;
+			}
+		}
+		return free.poll();
+	}
+
+	/**
+	 * Takes the channel of the least recently played instrument not in the current measure, or failing that,
+	 * of any instrument, which will then need a channel again for its next note.
+	 */
+	private int evict() {
+		evictions++;
+		Iterator<Map.Entry<Instrument,Integer>> iterator = assigned.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Instrument,Integer> eldest = iterator.next();
+			if (!playing.contains(eldest.getKey())) {
+				iterator.remove();
+				return eldest.getValue();
+			}
+		}
+		// more instruments in this measure than channels
+		overflows++;
+		iterator = assigned.entrySet().iterator();
+		int channel = iterator.next().getValue();
+		iterator.remove();
+		return channel;
+	}
+
+	/** Sends the messages setting the given channel to the given patch, unless it is already */
+	private void load(int channel, Patch patch, long timestamp) {
+		int bank = patch.getBank();
+		int program = patch.getProgram();
+		if (banks[channel] == bank && programs[channel] == program) {
+			reused++;
+			return;
+		}
+		try {
+			if (banks[channel] != bank) {
+				send(ShortMessage.CONTROL_CHANGE, channel, BANK_SELECT_MSB, bank >> 7 & 0x7F, timestamp);
+				send(ShortMessage.CONTROL_CHANGE, channel, BANK_SELECT_LSB, bank & 0x7F, timestamp);
+			}
+			send(ShortMessage.PROGRAM_CHANGE, channel, program, 0, timestamp);
+		} catch (InvalidMidiDataException e) {
+			throw new IllegalArgumentException("Cannot load patch " + bank + ":" + program, e);
+		}
+		banks[channel] = bank;
+		programs[channel] = program;
+		programChanges++;
+	}
+
+	private void send(int command, int channel, int data1, int data2, long timestamp) throws InvalidMidiDataException {
+		ShortMessage message = new ShortMessage();
+		message.setMessage(command, channel, data1, data2);
+		receiver.send(message, timestamp);
+	}
+
+	/**
+	 * Frees every channel, e.g. for a new piece with new instruments. Channels keep their programs, so an instrument
+	 * played again may still find one without a program change.
+	 */
+	public void releaseAll() {
+		assigned.clear();
+		playing.clear();
+		free.clear();
+		for (int channel=0; channel<channels; channel++)
+			if (channel != PERCUSSION_CHANNEL)
+				free.add(channel);
+	}
+
+	/** @return number of channels with an instrument */
+	public int occupied() {
+		return assigned.size();
+	}
+
+	/** @return number of channels instruments can be given, i.e. all but the percussion channel */
+	public int capacity() {
+		return channels > PERCUSSION_CHANNEL ? channels - 1 : channels;
+	}
+
+	public String stats() {
+		return String.format("%d of %d channels in use (at most %d), %d allocations (%d without a program change), "
+				+ "%d program changes (%d mid-measure), %d evictions (%d of instruments still playing)",
+				occupied(), capacity(), peakOccupied, allocations, reused, programChanges, lateProgramChanges,
+				evictions, overflows);
+	}
+
+}
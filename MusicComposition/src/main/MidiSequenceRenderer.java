@@ -0,0 +1,215 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import composing.Composer;
+import composing.Composition;
+import performance.MidiNote;
+import performance.VelocityCurve;
+import performance.instrument.Instrument;
+import theory.EventTimeline;
+import theory.Measure;
+import theory.Ticks;
+
+/**
+ * Renders measures into a {@link Sequence}, which can be played by a {@link Sequencer}
+ * with the MIDI subsystem keeping time, or written to a Standard MIDI File.
+ * <p>
+ * The sequence counts {@link Ticks#PPQ} ticks to the quarter note, so measure timelines are copied
+ * over without rounding. The first track carries a tempo change wherever the tempo changes, and each
+ * instrument gets a track of its own on a channel of its own.
+ */
+public class MidiSequenceRenderer {
+
+	private static final int CHANNELS = 16;
+	/** meta message type for a tempo change, in microseconds per quarter note */
+	private static final int TEMPO = 0x51;
+	/** measures composed by default in {@link #main(String[])} */
+	private static final int DEFAULT_MEASURES = 32;
+
+	private JavaSoundTimbre timbre = JavaSoundTimbre.getInstance();
+	private VelocityCurve velocityCurve = VelocityCurve.LINEAR;
+
+	/** @param velocityCurve by which notes' dynamics become velocities */
+	public MidiSequenceRenderer setVelocityCurve(VelocityCurve velocityCurve) {
+		this.velocityCurve = velocityCurve;
+		return this;
+	}
+
+	/**
+	 * A streaming composition is read one measure at a time, though the sequence itself holds every note.
+	 * 
+	 * @param composition whose written measures are to be rendered
+	 * @return a new sequence of the composition
+	 * @throws InvalidMidiDataException if the composition cannot be expressed in MIDI
+	 */
+	public Sequence render(Composition composition) throws InvalidMidiDataException {
+		return render(composition.getMeasures());
+	}
+
+	/**
+	 * @param measures to be rendered one after another, e.g. a window of future measures
+	 * @return a new sequence of the given measures
+	 * @throws InvalidMidiDataException if the measures cannot be expressed in MIDI
+	 */
+	public Sequence render(List<Measure> measures) throws InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.PPQ, Ticks.PPQ);
+		Track conductor = sequence.createTrack();
+		Map<Instrument,InstrumentTrack> tracks = new LinkedHashMap<>();
+
+		long measureStart = 0;
+		double bpm = -1;
+		double beatValue = -1;
+		for (Measure measure : measures) {
+			// the tempo is in quarter notes, so a new beat value at the same bpm changes it too
+			if (measure.getBpm() != bpm || measure.beatValue() != beatValue) {
+				bpm = measure.getBpm();
+				beatValue = measure.beatValue();
+				conductor.add(tempoChange(bpm, beatValue, measureStart));
+			}
+			for (Instrument instrument : measure.getInstruments()) {
+				InstrumentTrack track = tracks.get(instrument);
+				if (track == null) {
+					track = new InstrumentTrack(sequence.createTrack(), channel(tracks.size()), velocityCurve);
+					track.add(ShortMessage.PROGRAM_CHANGE, timbre.render(instrument), 0, 0);
+					tracks.put(instrument, track);
+				}
+				track.addAll(measure.getTimeline(instrument), measureStart);
+			}
+			measureStart += measure.lengthTicks();
+		}
+		for (InstrumentTrack track : tracks.values())
+			track.releaseTies();
+		return sequence;
+	}
+
+	/**
+	 * @param sequence to be saved
+	 * @param file to write the sequence into as a type 1 Standard MIDI File
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(Sequence sequence, File file) throws IOException {
+		MidiSystem.write(sequence, 1, file);
+	}
+
+	/**
+	 * @param sequence to be played
+	 * @return the sequencer playing the given sequence, which the caller should close when done
+	 * @throws MidiUnavailableException if no sequencer is available
+	 * @throws InvalidMidiDataException if the sequencer cannot play the given sequence
+	 */
+	public static Sequencer play(Sequence sequence) throws MidiUnavailableException, InvalidMidiDataException {
+		Sequencer sequencer = MidiSystem.getSequencer();
+		sequencer.open();
+		sequencer.setSequence(sequence);
+		sequencer.start();
+		return sequencer;
+	}
+
+	/**
+	 * <code>[file.mid] [measures] [seed]</code> composes a piece and writes it as a Standard MIDI File.
+	 */
+	public static void main(String[] args) throws IOException, InvalidMidiDataException {
+		File file = new File(args.length > 0 ? args[0] : "composition.mid");
+		int measures = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MEASURES;
+		if (measures <= 0)
+			throw new IllegalArgumentException("Must render at least one measure, not " + measures);
+		Composer composer = args.length > 2 ? new Composer(Long.parseLong(args[2])) : new Composer();
+		composer.setComposingOnDemand(true);
+		composer.beginComposing();
+		for (int i=1; i<measures; i++)
+			composer.awaitNextMeasure();
+		Composition composition = composer.finishComposing();
+		write(new MidiSequenceRenderer().render(composition), file);
+		System.out.println("Wrote " + composition.size() + " measures to " + file);
+	}
+
+	/**
+	 * @param bpm beats per minute
+	 * @param beatValue beat length as a fraction of a whole note
+	 * @param tick at which to change tempo
+	 */
+	private static MidiEvent tempoChange(double bpm, double beatValue, long tick) throws InvalidMidiDataException {
+		double quartersPerMinute = bpm * beatValue * 4;
+		int microsPerQuarter = (int) Math.round(60_000_000 / quartersPerMinute);
+		byte[] data = { (byte) (microsPerQuarter >> 16), (byte) (microsPerQuarter >> 8), (byte) microsPerQuarter };
+		return new MidiEvent(new MetaMessage(TEMPO, data, data.length), tick);
+	}
+
+	/**
+	 * @param track index among the instrument tracks
+	 * @return channel for the given track, skipping the percussion channel
+	 */
+	private static int channel(int track) {
+		int channel = track < MidiChannelAllocator.PERCUSSION_CHANNEL ? track : track + 1;
+		if (channel >= CHANNELS)
+			throw new IllegalStateException("No more free channels!");
+		return channel;
+	}
+
+	private static class InstrumentTrack {
+
+		private final Track track;
+		private final int channel;
+		private final VelocityCurve velocityCurve;
+		/** notes held over a tie, by pitch, and the tick each would otherwise have ended */
+		private final Map<Integer,Long> tied = new HashMap<>();
+
+		public InstrumentTrack(Track track, int channel, VelocityCurve velocityCurve) {
+			this.track = track;
+			this.channel = channel;
+			this.velocityCurve = velocityCurve;
+		}
+
+		public void addAll(EventTimeline timeline, long offset) throws InvalidMidiDataException {
+			for (int i=0; i<timeline.size(); i++) {
+				if (!timeline.isNote(i))
+					continue;
+				MidiNote note = timeline.note(i);
+				int pitch = timeline.pitch(i);
+				long onset = offset + timeline.onset(i);
+				long end = onset + timeline.duration(i);
+
+				Long tiedEnd = tied.remove(note.getTiedFromPitch());
+				if (tiedEnd == null || note.getTiedFromPitch() != pitch) {
+					if (tiedEnd != null) // a tie to a different pitch ends the held note here
+						add(ShortMessage.NOTE_OFF, note.getTiedFromPitch(), 0, onset);
+					add(ShortMessage.NOTE_ON, pitch, velocityCurve.velocity(timeline.dynamic(i)), onset);
+				}
+				if (note.tiesOver())
+					tied.put(pitch, end);
+				else
+					add(ShortMessage.NOTE_OFF, pitch, 0, end);
+			}
+		}
+
+		/** Ends any notes still held over a tie at the end of the sequence */
+		public void releaseTies() throws InvalidMidiDataException {
+			for (Map.Entry<Integer,Long> held : tied.entrySet())
+				add(ShortMessage.NOTE_OFF, held.getKey(), 0, held.getValue());
+			tied.clear();
+		}
+
+		public void add(int command, int data1, int data2, long tick) throws InvalidMidiDataException {
+			MidiMessage message = new ShortMessage(command, channel, data1, data2);
+			track.add(new MidiEvent(message, tick));
+		}
+	}
+
+}
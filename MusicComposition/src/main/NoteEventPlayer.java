@@ -0,0 +1,171 @@
+package main;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import main.NoteEventQueue.NoteEvent;
+
+/**
+ * Plays the events of a {@link NoteEventQueue} in a {@link SynthEngine}'s blocks, on the audio thread, doing nothing
+ * but start, continue and release voices from a {@link VoicePool} per timbre.
+ * <p>
+ * Held notes are found again by number in a fixed table, so a note tied from a held note long forgotten, or from one
+ * whose voice has since been stolen, simply starts afresh.
+ * <p>
+ * Playing live, an event which arrives late plays at the start of the next block, and a block never waits for events.
+ * Rendering offline, a block waits until every event in it has been queued, so the output is the same however slowly
+ * the control thread runs. Once the queue is closed and drained, the player runs its end action at the end frame.
+ */
+public class NoteEventPlayer implements SynthEngine.Sequencer {
+
+	/** held notes which can be looked up at once; a note is forgotten once this many notes have been played after it */
+	private static final int HELD_NOTES = 4096;
+	/** time between checks for events while waiting offline */
+	private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final NoteEventQueue queue;
+	private final BeadsTimbre[] timbres;
+	private final VoicePool[] pools;
+	private final boolean waitForEvents;
+	private final Runnable onEnd;
+	private boolean ended;
+	/** reused for every event polled */
+	private final NoteEvent event = new NoteEvent();
+
+	// held notes, each at its number modulo HELD_NOTES:
+	private final long[] heldNotes = new long[HELD_NOTES];
+	private final VoicePool.Voice[] heldVoices = new VoicePool.Voice[HELD_NOTES];
+	/** number of each held note in its voice's pool, to tell whether the voice is still playing it */
+	private final long[] heldPoolNotes = new long[HELD_NOTES];
+
+	private volatile long events;
+	private volatile long lateEvents;
+	private volatile long maxLateFrames;
+
+	/**
+	 * @param engine in which every pool's voices play
+	 * @param queue from which events are played
+	 * @param waitForEvents whether each block waits until every event in it has been queued, for rendering offline
+	 * @param onEnd run on the audio thread once the queue is closed and its end frame reached
+	 * @param timbres one pool is made for each, numbered in order
+	 */
+	public NoteEventPlayer(SynthEngine engine, NoteEventQueue queue, boolean waitForEvents, Runnable onEnd,
+			BeadsTimbre... timbres) {
+		this.queue = queue;
+		this.waitForEvents = waitForEvents;
+		this.onEnd = onEnd;
+		this.timbres = timbres.clone();
+		this.pools = new VoicePool[timbres.length];
+		for (int i=0; i<timbres.length; i++)
+			pools[i] = new VoicePool(engine, timbres[i]);
+	}
+
+	/**
+	 * May be called from any thread.
+	 *
+	 * @return index of the pool playing the given timbre, for {@link NoteEvent#note}
+	 * @throws IllegalArgumentException if no pool plays it
+	 */
+	public int poolIndex(BeadsTimbre timbre) {
+		for (int i=0; i<timbres.length; i++)
+			if (timbres[i] == timbre)
+				return i;
+		throw new IllegalArgumentException("No voice pool plays the timbre " + timbre);
+	}
+
+	@Override
+	public int nextEvent(long blockFrame, int bufferSize) {
+		long blockEnd = blockFrame + bufferSize;
+		while (true) {
+			long horizon = queue.horizon(); // before looking at the queue, so no event can slip in between
+			long frame = queue.peekFrame();
+			if (frame != Long.MAX_VALUE)
+				return (int) Math.max(0, Math.min(bufferSize, frame - blockFrame));
+			if (queue.isClosed()) {
+				if (!ended && queue.endFrame() < blockEnd) {
+					ended = true;
+					onEnd.run();
+				}
+				return bufferSize;
+			}
+			if (!waitForEvents || horizon >= blockEnd)
+				return bufferSize;
+			LockSupport.parkNanos(WAIT_NANOS);
+		}
+	}
+
+	@Override
+	public void playNext(long frame) {
+		if (!queue.poll(event))
+			return;
+		events++;
+		long late = frame - event.getFrame();
+		if (late > 0) {
+			lateEvents++;
+			maxLateFrames = Math.max(maxLateFrames, late);
+		}
+		switch (event.getKind()) {
+			case NOTE:
+				playNote(event);
+				break;
+			case RELEASE:
+				VoicePool.Voice voice = takeHeld(event.getNote());
+				if (voice != null)
+					voice.release(event.getReleaseMillis());
+				break;
+		}
+	}
+
+	private void playNote(NoteEvent event) {
+		VoicePool.Voice voice = event.getTiedFrom() == 0 ? null : takeHeld(event.getTiedFrom());
+		if (voice != null) {
+			voice.setFrequency(event.getFrequency());
+		} else {
+			voice = pools[event.getPool()].start(event.getFrequency(), event.getVolume());
+			if (voice == null)
+				return; // every voice busy
+		}
+		if (event.isHeld()) {
+			int slot = (int) (event.getNote() % HELD_NOTES);
+			heldNotes[slot] = event.getNote();
+			heldVoices[slot] = voice;
+			heldPoolNotes[slot] = voice.note();
+		} else {
+			voice.release(event.getReleaseMillis());
+		}
+	}
+
+	/** @return voice still playing the given held note, which is no longer held, or null if there is none */
+	private VoicePool.Voice takeHeld(long note) {
+		int slot = (int) (note % HELD_NOTES);
+		VoicePool.Voice voice = heldVoices[slot];
+		if (heldNotes[slot] != note || voice == null)
+			return null;
+		heldVoices[slot] = null;
+		return voice.isPlaying(heldPoolNotes[slot]) ? voice : null;
+	}
+
+	/** @return number of events played */
+	public long events() {
+		return events;
+	}
+
+	/** @return number of events played after the frame they were scheduled for */
+	public long lateEvents() {
+		return lateEvents;
+	}
+
+	public String stats() {
+		return String.format("%d events, %d late (at most %d frames)", events, lateEvents, maxLateFrames);
+	}
+
+	/** @return stats of each pool which has played any notes, one per line */
+	public String voiceStats() {
+		StringBuilder stats = new StringBuilder();
+		for (VoicePool pool : pools)
+			if (pool.notes() > 0)
+				stats.append("Voices: ").append(pool.stats()).append('\n');
+		return stats.toString();
+	}
+
+}
@@ -0,0 +1,234 @@
+package main;
+
+/**
+ * Bounded, lock-free queue of note events handed from a single control thread to the audio thread, each to be played
+ * at an exact frame.
+ * <p>
+ * Only one thread may {@link #offer(NoteEvent) offer} (the producer) and only one thread may
+ * {@link #poll(NoteEvent) poll} (the consumer). Events are copied in and out of parallel arrays rather than queued
+ * as objects, so that neither side allocates, and must be offered in order of their frames.
+ * <p>
+ * Besides the events, the producer publishes a horizon, before which every event has been offered, so that a consumer
+ * which may wait for events knows when it need not, and finally {@link #close(long) closes} the queue with the frame
+ * at which playback ends.
+ */
+public class NoteEventQueue {
+
+	/** default number of events the queue can hold */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/** What an event does */
+	public enum Kind {
+		/** starts a note, or continues a note it is tied from */
+		NOTE,
+		/** releases a held note */
+		RELEASE,
+	}
+
+	private final int mask;
+	private final Kind[] kinds;
+	private final long[] frames;
+	private final long[] notes;
+	private final long[] tiedFrom;
+	private final int[] pools;
+	private final float[] frequencies;
+	private final float[] volumes;
+	private final float[] releaseMillis;
+
+	/** sequence of the next event to be polled; written only by the consumer */
+	private volatile long head;
+	/** sequence of the next event to be offered; written only by the producer */
+	private volatile long tail;
+	/** frame before which every event has been offered; written only by the producer */
+	private volatile long horizon = Long.MIN_VALUE;
+	private volatile boolean closed;
+	private volatile long endFrame = Long.MAX_VALUE;
+
+	public NoteEventQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity minimum number of events this queue can hold, rounded up to a power of 2
+	 */
+	public NoteEventQueue(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30, but was " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.mask = size - 1;
+		kinds = new Kind[size];
+		frames = new long[size];
+		notes = new long[size];
+		tiedFrom = new long[size];
+		pools = new int[size];
+		frequencies = new float[size];
+		volumes = new float[size];
+		releaseMillis = new float[size];
+	}
+
+	/** @return maximum number of events this queue can hold */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/** @return number of events waiting */
+	public int size() {
+		long h = head; // read head first, so the difference is never negative
+		return (int) (tail - h);
+	}
+
+	/**
+	 * Producer only.
+	 *
+	 * @return false if the queue is full, in which case the event was not queued
+	 */
+	public boolean offer(NoteEvent event) {
+		if (closed)
+			throw new IllegalStateException("Cannot queue events once the queue is closed");
+		long t = tail;
+		if (t - head > mask)
+			return false;
+		int slot = (int) t & mask;
+		kinds[slot] = event.kind;
+		frames[slot] = event.frame;
+		notes[slot] = event.note;
+		tiedFrom[slot] = event.tiedFrom;
+		pools[slot] = event.pool;
+		frequencies[slot] = event.frequency;
+		volumes[slot] = event.volume;
+		releaseMillis[slot] = event.releaseMillis;
+		tail = t + 1; // publishes the slot
+		return true;
+	}
+
+	/** Producer only. Promises that every event before the given frame has been offered. */
+	public void advanceHorizon(long frame) {
+		if (frame > horizon)
+			horizon = frame;
+	}
+
+	/** Producer only. Promises that no more events will be offered, and that playback ends at the given frame. */
+	public void close(long endFrame) {
+		this.endFrame = endFrame;
+		horizon = Long.MAX_VALUE;
+		closed = true;
+	}
+
+	/** @return frame before which every event has been offered */
+	public long horizon() {
+		return horizon;
+	}
+
+	/** @return whether the producer has offered its last event */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/** @return frame at which playback ends, once the queue is closed */
+	public long endFrame() {
+		return endFrame;
+	}
+
+	/** Consumer only. @return frame of the next event, or {@link Long#MAX_VALUE} if there is none */
+	public long peekFrame() {
+		long h = head;
+		return h < tail ? frames[(int) h & mask] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Consumer only.
+	 *
+	 * @param into event into which the next event is copied
+	 * @return false if there was no event
+	 */
+	public boolean poll(NoteEvent into) {
+		long h = head;
+		if (h >= tail)
+			return false;
+		int slot = (int) h & mask;
+		into.kind = kinds[slot];
+		into.frame = frames[slot];
+		into.note = notes[slot];
+		into.tiedFrom = tiedFrom[slot];
+		into.pool = pools[slot];
+		into.frequency = frequencies[slot];
+		into.volume = volumes[slot];
+		into.releaseMillis = releaseMillis[slot];
+		head = h + 1;
+		return true;
+	}
+
+	/**
+	 * One event, reused by each side to copy events into and out of the queue.
+	 */
+	public static class NoteEvent {
+
+		private Kind kind;
+		private long frame;
+		private long note;
+		private long tiedFrom;
+		private int pool;
+		private float frequency;
+		private float volume;
+		private float releaseMillis;
+
+		/**
+		 * Makes this event start a note, or continue a held note playing in the same pool.
+		 *
+		 * @param frame at which to play the event
+		 * @param note number of the note, unique and above 0
+		 * @param tiedFrom number of the held note it continues, or 0 if none; if that note is no longer sounding,
+		 *                 the note is started afresh
+		 * @param pool index of the voice pool in which to play the note
+		 * @param frequency in Hz
+		 * @param volume peak gain of the note
+		 * @param releaseMillis time over which the note fades out once started, or -1 to hold it until released
+		 * @return this event
+		 */
+		public NoteEvent note(long frame, long note, long tiedFrom, int pool, float frequency, float volume,
+				float releaseMillis) {
+			this.kind = Kind.NOTE;
+			this.frame = frame;
+			this.note = note;
+			this.tiedFrom = tiedFrom;
+			this.pool = pool;
+			this.frequency = frequency;
+			this.volume = volume;
+			this.releaseMillis = releaseMillis;
+			return this;
+		}
+
+		/**
+		 * Makes this event release a held note, if it is still sounding.
+		 *
+		 * @return this event
+		 */
+		public NoteEvent release(long frame, long note, float releaseMillis) {
+			this.kind = Kind.RELEASE;
+			this.frame = frame;
+			this.note = note;
+			this.tiedFrom = 0;
+			this.pool = 0;
+			this.frequency = 0;
+			this.volume = 0;
+			this.releaseMillis = releaseMillis;
+			return this;
+		}
+
+		public Kind getKind() { return kind; }
+		public long getFrame() { return frame; }
+		public long getNote() { return note; }
+		/** @return number of the held note this note continues, or 0 if none */
+		public long getTiedFrom() { return tiedFrom; }
+		public int getPool() { return pool; }
+		public float getFrequency() { return frequency; }
+		public float getVolume() { return volume; }
+		/** @return time over which the note fades out, or a negative number if it is held */
+		public float getReleaseMillis() { return releaseMillis; }
+		/** @return whether the note is held until released, e.g. to be tied to another */
+		public boolean isHeld() { return releaseMillis < 0; }
+	}
+
+}
@@ -0,0 +1,151 @@
+package main;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.midi.MidiDevice;
+
+/**
+ * Paces live playback against absolute deadlines rather than sleeping from one event to the next,
+ * so time spent composing, printing or collecting garbage never accumulates into drift.
+ * <p>
+ * Every event's deadline is measured from the start of its measure, and each measure starts exactly
+ * where the previous one ended. If the device accepts time-stamped messages, the scheduler wakes a
+ * little ahead of each deadline and returns the device timestamp at which the event should sound,
+ * so the device absorbs the remaining jitter. Otherwise it waits until the deadline itself and
+ * returns -1, meaning "now".
+ * <p>
+ * Lateness is measured for every event and summed up by {@link #report()}, rather than printed as it
+ * happens on the thread keeping time. If playback falls far behind, e.g. after the process was
+ * suspended, the schedule is shifted forward instead of rushing to catch up.
+ */
+public class PlaybackScheduler {
+
+	/** default time by which events are sent ahead of their deadline, when the device supports it */
+	public static final long DEFAULT_LOOKAHEAD_MILLIS = 30;
+	/** events sent later than this after their deadline are reported */
+	private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+	/** events later than this after their deadline shift the rest of the schedule */
+	private static final long RESYNC_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private final MidiDevice device;
+	private final long lookaheadNanos;
+	private final boolean timestamped;
+
+	private long originNanos;
+	private long deviceOriginMicros;
+	/** deadline of the start of the current measure */
+	private long measureNanos;
+
+	private long events;
+	private long lateEvents;
+	private long resyncs;
+	private long totalLatenessNanos;
+	private long maxLatenessNanos;
+
+	public PlaybackScheduler(MidiDevice device) {
+		this(device, DEFAULT_LOOKAHEAD_MILLIS);
+	}
+
+	/**
+	 * @param device to which time-stamped messages will be sent
+	 * @param lookaheadMillis time by which events are sent ahead of their deadline
+	 */
+	public PlaybackScheduler(MidiDevice device, long lookaheadMillis) {
+		if (lookaheadMillis < 0)
+			throw new IllegalArgumentException("Lookahead cannot be negative: " + lookaheadMillis);
+		this.device = device;
+		this.timestamped = device.getMicrosecondPosition() >= 0;
+		this.lookaheadNanos = timestamped ? TimeUnit.MILLISECONDS.toNanos(lookaheadMillis) : 0;
+		start();
+	}
+
+	/**
+	 * Starts the schedule over, with the first measure beginning one lookahead from now.
+	 */
+	public void start() {
+		originNanos = System.nanoTime();
+		deviceOriginMicros = timestamped ? device.getMicrosecondPosition() : -1;
+		measureNanos = originNanos + lookaheadNanos;
+	}
+
+	/** @return whether messages sent for this schedule carry device timestamps */
+	public boolean isTimestamped() {
+		return timestamped;
+	}
+
+	/**
+	 * Waits until it is time to send the events at the given tick of the current measure.
+	 *
+	 * @param tick onset of the events, counted from the start of the current measure
+	 * @param beatTicks ticks per beat of the current measure
+	 * @param bpm beats per minute of the current measure
+	 * @return device timestamp at which the events should sound, or -1 to play immediately
+	 */
+	public long awaitTick(int tick, int beatTicks, double bpm) {
+		return await(measureNanos + tickNanos(tick, beatTicks, bpm));
+	}
+
+	/**
+	 * Waits until the end of the current measure, which becomes the start of the next.
+	 *
+	 * @param lengthTicks length of the current measure
+	 * @param beatTicks ticks per beat of the current measure
+	 * @param bpm beats per minute of the current measure
+	 * @return device timestamp at which the measure ends, or -1 for immediately
+	 */
+	public long endMeasure(int lengthTicks, int beatTicks, double bpm) {
+		long deadline = measureNanos + tickNanos(lengthTicks, beatTicks, bpm);
+		long timestamp = await(deadline);
+		measureNanos = deadline;
+		return timestamp;
+	}
+
+	private long await(long deadline) {
+		long sendAt = deadline - lookaheadNanos;
+		long now;
+		while ((now = System.nanoTime()) < sendAt)
+			LockSupport.parkNanos(sendAt - now);
+
+		long lateness = now - deadline;
+		events++;
+		if (lateness > 0) {
+			totalLatenessNanos += lateness;
+			maxLatenessNanos = Math.max(maxLatenessNanos, lateness);
+		}
+		if (lateness > LATE_NANOS)
+			lateEvents++; // only counted: printing here would delay the events still to come
+		if (lateness > RESYNC_NANOS) {
+			// don't rush the following events to catch up
+			resyncs++;
+			long shift = lateness + lookaheadNanos;
+			measureNanos += shift;
+			deadline += shift;
+		}
+		return timestamp(deadline);
+	}
+
+	private long timestamp(long deadline) {
+		if (!timestamped)
+			return -1;
+		return deviceOriginMicros + (deadline - originNanos) / 1000;
+	}
+
+	private static long tickNanos(int ticks, int beatTicks, double bpm) {
+		// nanos = ticks / (ticks / beat) / (beats / minute) * (nanos / minute)
+		return Math.round(ticks / (double) beatTicks / bpm * TimeUnit.MINUTES.toNanos(1));
+	}
+
+	/** @return number of events scheduled so far which were sent noticeably late */
+	public long lateEvents() {
+		return lateEvents;
+	}
+
+	/** @return summary of the lateness of every event scheduled so far */
+	public String report() {
+		return String.format("%d events scheduled, %d more than %d ms late (mean %.2f ms, max %.1f ms), %d resyncs",
+				events, lateEvents, TimeUnit.NANOSECONDS.toMillis(LATE_NANOS),
+				events == 0 ? 0 : totalLatenessNanos / 1e6 / events, maxLatenessNanos / 1e6, resyncs);
+	}
+
+}
@@ -0,0 +1,297 @@
+package main;
+
+import java.util.Arrays;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.UGen;
+
+/**
+ * Every voice of a piece in one UGen, each reading a {@link Wavetable} through a linear envelope, all summed into a
+ * single mono output in one loop over the block.
+ * <p>
+ * Voices are slots in parallel arrays rather than objects, so starting a note allocates nothing and a block costs
+ * a few multiplies and adds per sounding voice and sample; voices which are not sounding cost nothing.
+ * Each voice plays from the table of its waveform with as many harmonics as its pitch allows below half the sample
+ * rate, so that high notes do not alias.
+ * <p>
+ * Like any UGen, the engine should only be played from the audio thread. Notes are best started by a
+ * {@link Sequencer}, which the engine asks for events as it renders each block, so that each note starts on the very
+ * sample it is scheduled for rather than at the start of the block.
+ */
+public class SynthEngine extends UGen {
+
+	/** default number of voices */
+	public static final int DEFAULT_VOICES = 256;
+	/** most events played in one block, so that a block takes bounded time however many are due; the rest wait */
+	public static final int MAX_EVENTS_PER_BLOCK = 256;
+	/** envelope segments which may be waiting after the current one, e.g. a steal, an attack and a release */
+	private static final int SEGMENTS = 4;
+
+	private final int size;
+	private final float sampleRate;
+	/** number of slots claimed so far, which are the first */
+	private int claimed;
+	private Sequencer sequencer;
+	/** frame at which the next block starts, counting from the first block rendered */
+	private volatile long frame;
+
+	// voices, by slot:
+	private final float[][] tables;
+	private final float[] phase;
+	/** table samples per output sample */
+	private final float[] increment;
+	private final float[] level;
+	/** change in level per sample over the current segment */
+	private final float[] step;
+	/** level at the end of the current segment */
+	private final float[] target;
+	/** samples left in the current segment, or 0 if holding its level */
+	private final int[] remaining;
+	/** whether the voice stops once its segments are done */
+	private final boolean[] ending;
+	private final boolean[] sounding;
+
+	// segments waiting, SEGMENTS per slot, as a ring from the slot's first:
+	private final float[] segmentTargets;
+	private final int[] segmentSamples;
+	private final int[] firstSegment;
+	private final int[] segmentsWaiting;
+
+	/** sounding slots, in no particular order */
+	private final int[] active;
+	private int activeCount;
+
+	public SynthEngine(AudioContext ac) {
+		this(ac, DEFAULT_VOICES);
+	}
+
+	/** @param size maximum number of voices */
+	public SynthEngine(AudioContext ac, int size) {
+		super(ac, 1);
+		if (size < 1)
+			throw new IllegalArgumentException("Engine must have at least one voice, not " + size);
+		this.size = size;
+		this.sampleRate = ac.getSampleRate();
+		tables = new float[size][];
+		phase = new float[size];
+		increment = new float[size];
+		level = new float[size];
+		step = new float[size];
+		target = new float[size];
+		remaining = new int[size];
+		ending = new boolean[size];
+		sounding = new boolean[size];
+		segmentTargets = new float[size * SEGMENTS];
+		segmentSamples = new int[size * SEGMENTS];
+		firstSegment = new int[size];
+		segmentsWaiting = new int[size];
+		active = new int[size];
+	}
+
+	/**
+	 * Source of events played at exact frames in the blocks the engine renders, called on the audio thread.
+	 */
+	public interface Sequencer {
+		/**
+		 * @param blockFrame frame at which the block being rendered starts
+		 * @param bufferSize frames in the block
+		 * @return offset in the block of the next event, 0 if it is late, or bufferSize if there is none in the block
+		 */
+		int nextEvent(long blockFrame, int bufferSize);
+
+		/**
+		 * Plays the next event, which is now due.
+		 *
+		 * @param frame at which it is played, which may be after the one it was scheduled for
+		 */
+		void playNext(long frame);
+	}
+
+	/** @param sequencer whose events are played from the next block on, or null for none */
+	public void setSequencer(Sequencer sequencer) {
+		this.sequencer = sequencer;
+	}
+
+	/** @return frame at which the next block starts, which may be read from any thread to schedule events ahead */
+	public long getFrame() {
+		return frame;
+	}
+
+	/** @return a slot of its own for some voice to play notes in, which it keeps */
+	public int claimSlot() {
+		if (claimed == size)
+			throw new IllegalStateException("All " + size + " voices of the engine are claimed");
+		return claimed++;
+	}
+
+	/**
+	 * Starts a note in the given slot, rising from silence to the given level. If the slot is already sounding,
+	 * the note there first fades out over fadeMillis.
+	 *
+	 * @param wavetable of the note's waveform
+	 * @param frequency in Hz
+	 * @param volume peak gain of the note
+	 * @param attackMillis time to reach the peak
+	 * @param fadeMillis time over which any note sounding in the slot fades out first
+	 */
+	public void start(int slot, Wavetable wavetable, float frequency, float volume, float attackMillis, float fadeMillis) {
+		segmentsWaiting[slot] = 0;
+		remaining[slot] = 0;
+		ending[slot] = false;
+		if (sounding[slot]) {
+			addSegment(slot, 0, fadeMillis);
+		} else {
+			level[slot] = 0;
+			phase[slot] = 0;
+			sounding[slot] = true;
+			active[activeCount++] = slot;
+		}
+		setFrequency(slot, wavetable, frequency);
+		addSegment(slot, volume, attackMillis);
+	}
+
+	/** Changes the pitch of the note sounding in the given slot, e.g. for a note tied to another */
+	public void setFrequency(int slot, Wavetable wavetable, float frequency) {
+		tables[slot] = wavetable.table(frequency, sampleRate);
+		increment[slot] = frequency * Wavetable.TABLE_SIZE / sampleRate;
+	}
+
+	/** Fades the note in the given slot out over the given time, after its waiting segments, and then stops it */
+	public void release(int slot, float millis) {
+		addSegment(slot, 0, millis);
+		ending[slot] = true;
+	}
+
+	/** @return whether a note is sounding in the given slot, including one being released */
+	public boolean isSounding(int slot) {
+		return sounding[slot];
+	}
+
+	/** @return current gain of the given slot */
+	public float level(int slot) {
+		return level[slot];
+	}
+
+	/** @return number of voices sounding */
+	public int soundingVoices() {
+		return activeCount;
+	}
+
+	/** @return maximum number of voices */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Queues a segment moving linearly to the given level. When the queue is full the last segment waiting is
+	 * replaced, which only happens to a voice given more segments than any note needs.
+	 */
+	private void addSegment(int slot, float level, float millis) {
+		int waiting = segmentsWaiting[slot];
+		if (waiting == SEGMENTS)
+			waiting--;
+		int segment = slot * SEGMENTS + (firstSegment[slot] + waiting) % SEGMENTS;
+		segmentTargets[segment] = level;
+		segmentSamples[segment] = Math.max(1, (int) context.msToSamples(millis));
+		segmentsWaiting[slot] = waiting + 1;
+	}
+
+	/** @return whether another segment was waiting, which is now current */
+	private boolean nextSegment(int slot) {
+		if (segmentsWaiting[slot] == 0)
+			return false;
+		int segment = slot * SEGMENTS + firstSegment[slot];
+		firstSegment[slot] = (firstSegment[slot] + 1) % SEGMENTS;
+		segmentsWaiting[slot]--;
+		int samples = segmentSamples[segment];
+		target[slot] = segmentTargets[segment];
+		step[slot] = (target[slot] - level[slot]) / samples;
+		remaining[slot] = samples;
+		return true;
+	}
+
+	@Override
+	public void calculateBuffer() {
+		float[] out = bufOut[0];
+		Arrays.fill(out, 0, bufferSize, 0);
+		long blockFrame = frame;
+		int rendered = 0;
+		if (sequencer != null) {
+			for (int events=0; events<MAX_EVENTS_PER_BLOCK; events++) {
+				int offset = sequencer.nextEvent(blockFrame, bufferSize);
+				if (offset >= bufferSize)
+					break;
+				if (offset > rendered) {
+					render(out, rendered, offset);
+					rendered = offset;
+				}
+				sequencer.playNext(blockFrame + rendered);
+			}
+		}
+		render(out, rendered, bufferSize);
+		frame = blockFrame + bufferSize;
+	}
+
+	/** Adds every sounding voice to the given frames of the block */
+	private void render(float[] out, int from, int to) {
+		for (int i=0; i<activeCount; ) {
+			int slot = active[i];
+			if (render(slot, out, from, to)) {
+				i++;
+			} else { // stopped, so its place goes to the last
+				sounding[slot] = false;
+				active[i] = active[--activeCount];
+			}
+		}
+	}
+
+	/**
+	 * Adds the given slot's voice to the given frames of the block, a segment at a time.
+	 *
+	 * @return false if the voice stopped
+	 */
+	private boolean render(int slot, float[] out, int from, int to) {
+		float[] table = tables[slot];
+		float phase = this.phase[slot];
+		float increment = this.increment[slot];
+		float level = this.level[slot];
+		float step = this.step[slot];
+		int remaining = this.remaining[slot];
+		boolean stopped = false;
+		for (int i=from; i<to; ) {
+			if (remaining == 0) {
+				this.level[slot] = level;
+				if (nextSegment(slot)) {
+					step = this.step[slot];
+					remaining = this.remaining[slot];
+				} else if (ending[slot]) {
+					stopped = true;
+					break;
+				} else {
+					step = 0;
+				}
+			}
+			int start = i;
+			int end = remaining == 0 ? to : Math.min(to, i + remaining);
+			for (; i<end; i++) {
+				int index = (int) phase;
+				float sample = table[index] + (table[index + 1] - table[index]) * (phase - index);
+				out[i] += sample * level;
+				level += step;
+				phase += increment;
+				if (phase >= Wavetable.TABLE_SIZE)
+					phase -= Wavetable.TABLE_SIZE;
+			}
+			if (remaining > 0) {
+				remaining -= end - start;
+				if (remaining == 0)
+					level = target[slot]; // exactly, whatever rounding crept in
+			}
+		}
+		this.phase[slot] = phase;
+		this.level[slot] = level;
+		this.remaining[slot] = remaining;
+		return !stopped;
+	}
+
+}
@@ -0,0 +1,198 @@
+package main;
+
+/**
+ * A fixed number of voices playing one {@link BeadsTimbre}, each a slot of a {@link SynthEngine} claimed on first use
+ * and reused note after note, so that once every voice has been used playing allocates nothing.
+ * <p>
+ * Idle voices cost nothing to compute. A note started while every voice is sounding steals one
+ * according to the pool's {@link StealPolicy}. Voices should only be started and released from the audio thread,
+ * like the engine, which is the only thread to write the counts; they may be read from any thread.
+ */
+public class VoicePool {
+
+	/** default number of voices in each pool */
+	public static final int DEFAULT_VOICES = 32;
+	/** time over which a stolen voice's note fades out before the new note's attack, so that it does not click */
+	private static final float STEAL_MILLIS = 5;
+
+	/** Which voice a note takes when every voice is sounding */
+	public enum StealPolicy {
+		/** the voice whose note started first, preferring notes already released to those held */
+		OLDEST,
+		/** the voice whose envelope is lowest */
+		QUIETEST,
+		/** none; the new note is dropped */
+		NONE,
+	}
+
+	private final SynthEngine engine;
+	private final BeadsTimbre timbre;
+	private final Voice[] voices;
+	/** number of voices created so far, which are the first in the array */
+	private int created;
+	private StealPolicy policy = StealPolicy.OLDEST;
+
+	private volatile int peakActive;
+	private volatile long notes;
+	private volatile long steals;
+	private volatile long dropped;
+
+	public VoicePool(SynthEngine engine, BeadsTimbre timbre) {
+		this(engine, timbre, DEFAULT_VOICES);
+	}
+
+	/** @param size maximum number of notes sounding at once, each taking a slot of the engine once it is used */
+	public VoicePool(SynthEngine engine, BeadsTimbre timbre, int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("Pool must have at least one voice, not " + size);
+		this.engine = engine;
+		this.timbre = timbre;
+		this.voices = new Voice[size];
+	}
+
+	public void setStealPolicy(StealPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Starts a note rising to the given volume over the timbre's attack time. The note sounds until
+	 * {@link Voice#release(float) released}.
+	 *
+	 * @param frequency in Hz
+	 * @param volume peak gain of the note
+	 * @return the voice playing the note, or null if every voice is sounding and the policy is not to steal
+	 */
+	public Voice start(float frequency, float volume) {
+		Voice voice = idleVoice();
+		if (voice == null) {
+			voice = stealableVoice();
+			if (voice == null) {
+				dropped++;
+				return null;
+			}
+			steals++;
+		}
+		voice.start(frequency, volume, ++notes);
+		return voice;
+	}
+
+	/** @return number of voices sounding, which may be a block out of date read from another thread */
+	public int activeVoices() {
+		int active = 0;
+		for (int i=0; i<created; i++)
+			if (voices[i].isSounding())
+				active++;
+		return active;
+	}
+
+	/** @return most voices ever sounding at once */
+	public int peakVoices() {
+		return peakActive;
+	}
+
+	/** @return number of voices created, each one slot of the engine; never more than the pool's size */
+	public int allocations() {
+		return created;
+	}
+
+	/** @return number of notes started */
+	public long notes() {
+		return notes;
+	}
+
+	/** @return number of notes which took a voice from a note still sounding */
+	public long steals() {
+		return steals;
+	}
+
+	/** @return number of notes not played because every voice was sounding */
+	public long dropped() {
+		return dropped;
+	}
+
+	public String stats() {
+		return String.format("%d/%d voices sounding (peak %d), %d notes, %d allocations (%.2f per note), %d steals, %d dropped",
+				activeVoices(), voices.length, peakVoices(), notes(), allocations(),
+				notes() == 0 ? 0 : (double) allocations() / notes(), steals(), dropped());
+	}
+
+	private Voice idleVoice() {
+		for (int i=0; i<created; i++)
+			if (!voices[i].isSounding())
+				return voices[i];
+		if (created < voices.length)
+			return voices[created++] = new Voice();
+		return null;
+	}
+
+	private Voice stealableVoice() {
+		Voice stolen = null;
+		switch (policy) {
+			case OLDEST:
+				for (Voice voice : voices)
+					if (stolen == null || voice.releasing && !stolen.releasing
+							|| voice.releasing == stolen.releasing && voice.started < stolen.started)
+						stolen = voice;
+				break;
+			case QUIETEST:
+				for (Voice voice : voices)
+					if (stolen == null || engine.level(voice.slot) < engine.level(stolen.slot))
+						stolen = voice;
+				break;
+			case NONE:
+				break;
+		}
+		return stolen;
+	}
+
+	/**
+	 * One slot of the engine in a pool. A voice is only good for the note it was started with:
+	 * once released and finished, or stolen, it plays some other note.
+	 */
+	public class Voice {
+
+		private final int slot;
+		private boolean releasing;
+		/** number of the note this voice is playing, counting notes started in the pool */
+		private long started;
+
+		private Voice() {
+			slot = engine.claimSlot();
+		}
+
+		private void start(float frequency, float volume, long note) {
+			boolean stealing = isSounding();
+			engine.start(slot, timbre.getWavetable(), frequency, volume, timbre.getPeakMillis(), STEAL_MILLIS);
+			started = note;
+			releasing = false;
+			if (!stealing)
+				peakActive = Math.max(peakActive, activeVoices());
+		}
+
+		/** Changes the pitch of the note, e.g. for a note tied to another */
+		public void setFrequency(float frequency) {
+			engine.setFrequency(slot, timbre.getWavetable(), frequency);
+		}
+
+		/** Fades the note out over the given time, after which the voice is free to play another */
+		public void release(float millis) {
+			releasing = true;
+			engine.release(slot, millis);
+		}
+
+		/** @return whether this voice is still playing the note given by the number it was started with */
+		public boolean isPlaying(long note) {
+			return isSounding() && started == note;
+		}
+
+		/** @return number of the note this voice was last started with, for {@link #isPlaying(long)} */
+		public long note() {
+			return started;
+		}
+
+		private boolean isSounding() {
+			return engine.isSounding(slot);
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+import net.beadsproject.beads.core.UGen;
+
+/**
+ * Streams the output of a {@link UGen} into a 16-bit PCM WAV file, one audio frame at a time.
+ * <p>
+ * Register with {@link AudioContext#invokeAfterEveryFrame(Bead)} and {@link #close()} when done.
+ * Samples are staged in a fixed-size chunk, so memory use does not grow with the length of the
+ * recording; the header is filled in with the final sizes on close.
+ * <p>
+ * The header counts bytes in 32 bits, so a file holds at most 4 GiB of samples, about 6.7 hours of 44.1 kHz
+ * stereo. Recording past that fails, leaving a valid file of everything recorded until then.
+ */
+public class WavFileWriter extends Bead {
+
+	private static final int HEADER_BYTES = 44;
+	private static final int BYTES_PER_SAMPLE = 2;
+	private static final int CHUNK_BYTES = 1 << 16;
+	/** most bytes of samples the unsigned 32-bit sizes of the header can count */
+	private static final long MAX_DATA_BYTES = 0xFFFFFFFFL - (HEADER_BYTES - 8);
+
+	private final UGen source;
+	private final int channels;
+	private final int sampleRate;
+	private final RandomAccessFile file;
+	private final byte[] chunk;
+	private int chunked;
+	private long frames;
+	private final long maxFrames;
+
+	/**
+	 * @param ac context whose output is to be recorded
+	 * @param file to be created or overwritten
+	 * @throws IOException if the file cannot be opened
+	 */
+	public WavFileWriter(AudioContext ac, File file) throws IOException {
+		this(ac.out, (int) ac.getSampleRate(), file);
+	}
+
+	/**
+	 * @param source UGen whose output channels are to be recorded
+	 * @param sampleRate of the source
+	 * @param file to be created or overwritten
+	 * @throws IOException if the file cannot be opened
+	 */
+	public WavFileWriter(UGen source, int sampleRate, File file) throws IOException {
+		this.source = source;
+		this.channels = source.getOuts();
+		this.sampleRate = sampleRate;
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		this.file.write(new byte[HEADER_BYTES]); // filled in on close
+		this.chunk = new byte[CHUNK_BYTES - CHUNK_BYTES % (channels * BYTES_PER_SAMPLE)];
+		this.maxFrames = MAX_DATA_BYTES / (channels * BYTES_PER_SAMPLE);
+	}
+
+	/** @return number of frames (samples per channel) written so far */
+	public long getFrames() {
+		return frames;
+	}
+
+	/** @return seconds of audio written so far */
+	public double getSeconds() {
+		return frames / (double) sampleRate;
+	}
+
+	@Override
+	protected void messageReceived(Bead message) {
+		int bufferSize = source.getOutBuffer(0).length;
+		if (frames + bufferSize > maxFrames)
+			throw new IllegalStateException(String.format("WAV file is full after %.1f hours of audio; "
+					+ "its header cannot count more than %d bytes of samples", getSeconds() / 3600, MAX_DATA_BYTES));
+		try {
+			for (int i=0; i<bufferSize; i++) {
+				if (chunked == chunk.length)
+					flush();
+				for (int channel=0; channel<channels; channel++) {
+					float sample = Math.max(-1, Math.min(1, source.getOutBuffer(channel)[i]));
+					int pcm = (int) (sample * Short.MAX_VALUE);
+					chunk[chunked++] = (byte) pcm;
+					chunk[chunked++] = (byte) (pcm >> 8);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed writing audio", e);
+		}
+		frames += bufferSize;
+	}
+
+	private void flush() throws IOException {
+		file.write(chunk, 0, chunked);
+		chunked = 0;
+	}
+
+	/**
+	 * Writes any remaining samples and the header, then closes the file.
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+			long dataBytes = frames * channels * BYTES_PER_SAMPLE;
+			file.seek(0);
+			file.writeBytes("RIFF");
+			file.writeInt(Integer.reverseBytes((int) (dataBytes + HEADER_BYTES - 8))); // unsigned, never past MAX_DATA_BYTES
+			file.writeBytes("WAVE");
+			file.writeBytes("fmt ");
+			file.writeInt(Integer.reverseBytes(16)); // PCM format chunk size
+			file.writeShort(Short.reverseBytes((short) 1)); // PCM
+			file.writeShort(Short.reverseBytes((short) channels));
+			file.writeInt(Integer.reverseBytes(sampleRate));
+			file.writeInt(Integer.reverseBytes(sampleRate * channels * BYTES_PER_SAMPLE)); // byte rate
+			file.writeShort(Short.reverseBytes((short) (channels * BYTES_PER_SAMPLE))); // block align
+			file.writeShort(Short.reverseBytes((short) (8 * BYTES_PER_SAMPLE)));
+			file.writeBytes("data");
+			file.writeInt(Integer.reverseBytes((int) dataBytes));
+		} finally {
+			file.close();
+		}
+	}
+
+}
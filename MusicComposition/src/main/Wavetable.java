@@ -0,0 +1,120 @@
+package main;
+
+import java.util.stream.IntStream;
+
+/**
+ * One cycle of a waveform at a range of bandwidths, so that a note of any pitch can be played from a table holding
+ * no harmonics above half the sample rate, and so without aliasing.
+ * <p>
+ * Level 0 holds the first {@link #MAX_HARMONICS} harmonics of the waveform, and each level after it half as many
+ * as the one before, down to the fundamental alone. Each table has a copy of its first sample at the end,
+ * so that playback can interpolate between neighbouring samples without wrapping.
+ * Wavetables never change once built, and so may be shared by any number of voices and threads.
+ */
+public final class Wavetable {
+
+	/** samples in one cycle of each table */
+	public static final int TABLE_SIZE = 2048;
+	/** harmonics held by level 0, as many as a table of {@link #TABLE_SIZE} samples can */
+	public static final int MAX_HARMONICS = TABLE_SIZE / 2;
+	/** number of levels, from {@link #MAX_HARMONICS} harmonics down to one */
+	public static final int LEVELS = Integer.numberOfTrailingZeros(MAX_HARMONICS) + 1;
+
+	/** tables by level, each {@link #TABLE_SIZE} + 1 samples */
+	private final float[][] levels;
+
+	private Wavetable(float[][] levels) {
+		this.levels = levels;
+	}
+
+	/**
+	 * Analyses the given cycle into its harmonics and builds every level from them. Takes a few milliseconds
+	 * for a cycle of thousands of samples, spread over the common fork-join pool.
+	 *
+	 * @param cycle samples of one cycle of the waveform, e.g. a Beads buffer; any constant offset is dropped
+	 */
+	public static Wavetable of(float[] cycle) {
+		int length = cycle.length;
+		int harmonics = Math.min(MAX_HARMONICS, length / 2);
+		double[] cosines = new double[length];
+		double[] sines = new double[length];
+		for (int i=0; i<length; i++) {
+			cosines[i] = Math.cos(2 * Math.PI * i / length);
+			sines[i] = Math.sin(2 * Math.PI * i / length);
+		}
+		// a discrete Fourier transform, one harmonic at a time
+		double[] cosineAmplitudes = new double[harmonics + 1];
+		double[] sineAmplitudes = new double[harmonics + 1];
+		IntStream.rangeClosed(1, harmonics).parallel().forEach(harmonic -> {
+			double cosine = 0;
+			double sine = 0;
+			for (int i=0, index=0; i<length; i++, index=(index + harmonic) % length) {
+				cosine += cycle[i] * cosines[index];
+				sine += cycle[i] * sines[index];
+			}
+			cosineAmplitudes[harmonic] = 2 * cosine / length;
+			sineAmplitudes[harmonic] = 2 * sine / length;
+		});
+		return ofHarmonics(cosineAmplitudes, sineAmplitudes);
+	}
+
+	/** @return wavetable of a sine wave of amplitude 1 */
+	public static Wavetable sine() {
+		return ofHarmonics(new double[] { 0, 0 }, new double[] { 0, 1 });
+	}
+
+	/**
+	 * @param cosineAmplitudes amplitude of the cosine of each harmonic, by number from 1; index 0 is ignored
+	 * @param sineAmplitudes amplitude of the sine of each harmonic, by number from 1; index 0 is ignored
+	 */
+	private static Wavetable ofHarmonics(double[] cosineAmplitudes, double[] sineAmplitudes) {
+		double[] cosines = new double[TABLE_SIZE];
+		double[] sines = new double[TABLE_SIZE];
+		for (int i=0; i<TABLE_SIZE; i++) {
+			cosines[i] = Math.cos(2 * Math.PI * i / TABLE_SIZE);
+			sines[i] = Math.sin(2 * Math.PI * i / TABLE_SIZE);
+		}
+		int harmonics = Math.min(MAX_HARMONICS, Math.min(cosineAmplitudes.length, sineAmplitudes.length) - 1);
+		float[][] levels = new float[LEVELS][TABLE_SIZE + 1];
+		// sample by sample, summing harmonics from the fundamental up and keeping the sum as each level is reached
+		IntStream.range(0, TABLE_SIZE).parallel().forEach(i -> {
+			double sum = 0;
+			int harmonic = 1;
+			for (int level=LEVELS-1; level>=0; level--) {
+				for (int most=Math.min(MAX_HARMONICS >> level, harmonics); harmonic<=most; harmonic++) {
+					int index = (int) ((long) harmonic * i % TABLE_SIZE);
+					sum += cosineAmplitudes[harmonic] * cosines[index] + sineAmplitudes[harmonic] * sines[index];
+				}
+				levels[level][i] = (float) sum;
+			}
+		});
+		for (float[] table : levels)
+			table[TABLE_SIZE] = table[0];
+		return new Wavetable(levels);
+	}
+
+	/**
+	 * @param frequency in Hz of the note to be played
+	 * @param sampleRate in Hz at which it is played
+	 * @return the table with the most harmonics, all of which are below half the sample rate
+	 */
+	public float[] table(float frequency, float sampleRate) {
+		return levels[level(frequency, sampleRate)];
+	}
+
+	/** @return level of the table with the most harmonics, all of which are below half the sample rate */
+	public static int level(float frequency, float sampleRate) {
+		int harmonics = (int) (sampleRate / 2 / frequency);
+		if (harmonics >= MAX_HARMONICS)
+			return 0;
+		if (harmonics <= 1)
+			return LEVELS - 1;
+		return Integer.numberOfLeadingZeros(harmonics) - Integer.numberOfLeadingZeros(MAX_HARMONICS);
+	}
+
+	/** @return the table of the given level */
+	public float[] level(int level) {
+		return levels[level];
+	}
+
+}
@@ -1,18 +1,32 @@
 package performance;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * How loudly to play, from {@link #SOFTEST} to {@link #LOUDEST} levels either side of mezzo forte.
+ * <p>
+ * Dynamics are immutable, and there is only one instance of each level, so they can be compared with ==.
+ * Going above the loudest or below the softest stays put.
+ */
 public class Dynamic {
 
-	public static final Dynamic PIANISSIMO = new Dynamic(-3);
-	public static final Dynamic PIANO = new Dynamic(-2);
-	public static final Dynamic MEZZO_PIANO = new Dynamic(-1);
-	public static final Dynamic MEZZO_FORTE = new Dynamic(0);
-	public static final Dynamic FORTE = new Dynamic(1);
-	public static final Dynamic FORTISSIMO = new Dynamic(2);
-	
-	public static final Map<Dynamic,Float> volumeCache = new HashMap<>();
+	public static final int SOFTEST = -16;
+	public static final int LOUDEST = 16;
+	private static final Dynamic[] LEVELS = new Dynamic[LOUDEST - SOFTEST + 1];
+	/** {@link #volume()} of each level, worked out up front so any thread may read it */
+	private static final float[] VOLUMES = new float[LEVELS.length];
+	static {
+		for (int i=0; i<LEVELS.length; i++) {
+			LEVELS[i] = new Dynamic(SOFTEST + i);
+			double y = (Math.atan((SOFTEST + i - 1) * .5) / Math.PI) + 0.5;
+			VOLUMES[i] = (float) (1-Math.pow(1-y, 2));
+		}
+	}
+
+	public static final Dynamic PIANISSIMO = of(-3);
+	public static final Dynamic PIANO = of(-2);
+	public static final Dynamic MEZZO_PIANO = of(-1);
+	public static final Dynamic MEZZO_FORTE = of(0);
+	public static final Dynamic FORTE = of(1);
+	public static final Dynamic FORTISSIMO = of(2);
 	
 	private final int value;
 	
@@ -22,26 +36,37 @@ public class Dynamic {
 	
 	/** @return value between 0 (silent) and 1 (maximum) */
 	public float volume() {
-		if (volumeCache.containsKey(this))
-			return volumeCache.get(this);
-		double y = (Math.atan((value-1)*.5) / Math.PI) + 0.5;
-		float volume = (float) (1-Math.pow(1-y, 2));
-		volumeCache.put(this, volume);
-		return volume;
+		return VOLUMES[value - SOFTEST];
+	}
+	
+	/** @return level relative to mezzo forte, between {@link #SOFTEST} and {@link #LOUDEST} */
+	public int getLevel() {
+		return value;
+	}
+	
+	/** @return position of this level in tables indexed from {@link #SOFTEST} */
+	int index() {
+		return value - SOFTEST;
+	}
+	
+	/** @return number of levels, i.e. the length of a table indexed by {@link #index()} */
+	static int levels() {
+		return LEVELS.length;
 	}
 	
-	public static Dynamic of(Dynamic other) {
-		return new Dynamic(other.value);
+	/** @param level relative to mezzo forte, clamped between {@link #SOFTEST} and {@link #LOUDEST} */
+	public static Dynamic of(int level) {
+		return LEVELS[Math.max(SOFTEST, Math.min(LOUDEST, level)) - SOFTEST];
 	}
 	
 	/** @return the dynamic immediately louder than this one */
 	public static Dynamic above(Dynamic other) {
-		return new Dynamic(other.value + 1);
+		return of(other.value + 1);
 	}
 	
 	/** @return the dynamic immediately quieter than this one */
 	public static Dynamic below(Dynamic other) {
-		return new Dynamic(other.value - 1);
+		return of(other.value - 1);
 	}
 	
 	/** e.g. "mf" or "pp" */
@@ -1,29 +1,43 @@
 package performance;
 
+import theory.Ticks;
+
 public class MidiAction implements Cloneable {
 
-	protected double duration;
+	/** duration in {@link Ticks} */
+	protected int ticks;
 	
+	/**
+	 * @param duration as a fraction of a whole note, rounded to the nearest {@link Ticks tick}
+	 */
 	public MidiAction(double duration) {
 		if (duration <= 0)
 			throw new IllegalArgumentException("MidiNote must have a positive duration.");
-		this.duration = duration;
+		this.ticks = Ticks.fromWholeNotes(duration);
+		if (ticks <= 0)
+			throw new IllegalArgumentException("MidiNote must last at least one tick: " + duration);
 	}
 
+	/** @return duration as a fraction of a whole note */
 	public double getDuration() {
-		return duration;
+		return Ticks.toWholeNotes(ticks);
+	}
+	
+	/** @return duration in {@link Ticks} */
+	public int getTicks() {
+		return ticks;
 	}
 	
 	/** Returns a new clone, lengthened by the given timeRatio */
 	public MidiAction expand(double timeRatio) {
 		if (timeRatio <= 0)
 			throw new IllegalArgumentException("Only positive ratios accepted for expansions.");
-		return new MidiAction(timeRatio*duration);
+		return new MidiAction(timeRatio*getDuration());
 	}
 	
 	@Override
 	public MidiAction clone() {
-		return new MidiAction(this.duration);
+		return new MidiAction(getDuration());
 	}
 	
 	public static class MidiRest extends MidiAction {
@@ -34,12 +48,12 @@ public class MidiAction implements Cloneable {
 		
 		@Override
 		public MidiRest clone() {
-			return new MidiRest(MidiRest.this.duration);
+			return new MidiRest(getDuration());
 		}
 		
 		@Override
 		public String toString() {
-			return "MidiRest[" + duration + "]";
+			return "MidiRest[" + getDuration() + "]";
 		}
 	}
 }
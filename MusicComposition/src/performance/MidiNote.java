@@ -36,7 +36,7 @@ public class MidiNote extends MidiAction {
 	}
 	
 	public Dynamic getDynamic() {
-		return Dynamic.of(dynamic);
+		return dynamic;
 	}
 	
 	public void setDynamic(Dynamic dynamic) {
@@ -61,7 +61,7 @@ public class MidiNote extends MidiAction {
 	public MidiNote expand(double timeRatio) {
 		if (timeRatio <= 0)
 			throw new IllegalArgumentException("Only positive ratios accepted for expansions.");
-		MidiNote note = new MidiNote(pitch, duration*timeRatio);
+		MidiNote note = new MidiNote(pitch, getDuration()*timeRatio);
 		note.peakMillis = this.peakMillis;
 		note.dynamic = this.dynamic;
 		// choosing not to preserve any ties
@@ -73,6 +73,11 @@ public class MidiNote extends MidiAction {
 		tiesOver = ties;
 	}
 	
+	/** discouraged, use #tieOver */
+	public void setTiedFromPitch(int midiPitch) {
+		tiedFromPitch = midiPitch;
+	}
+	
 	public static void tieOver(MidiNote from, MidiNote to) {
 		from.tiesOver = true;
 		to.tiedFromPitch = from.pitch;
@@ -80,7 +85,7 @@ public class MidiNote extends MidiAction {
 	
 	@Override
 	public String toString() {
-		return "MidiNote[" + pitch + "," + duration + "]";
+		return "MidiNote[" + pitch + "," + getDuration() + "]";
 	}
 	
 	@Override
@@ -0,0 +1,57 @@
+package performance;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * How loudly an output backend plays each {@link Dynamic}: as a MIDI velocity for JavaSound, or as a gain for Beads.
+ * <p>
+ * Every level is worked out when the curve is made, so a curve is immutable, may be shared by the
+ * composer and player threads, and looking a dynamic up is a single array read.
+ */
+public final class VelocityCurve {
+
+	public static final int MAX_VELOCITY = 127;
+
+	/** velocity and gain in proportion to {@link Dynamic#volume()} */
+	public static final VelocityCurve LINEAR = new VelocityCurve(DoubleUnaryOperator.identity(), 1);
+
+	/** by {@link Dynamic} index */
+	private final int[] velocities;
+	private final float[] gains;
+
+	/**
+	 * @param shape maps a {@link Dynamic#volume()} between 0 and 1 to a loudness between 0 and 1
+	 * @param maxGain gain at a loudness of 1
+	 */
+	public VelocityCurve(DoubleUnaryOperator shape, float maxGain) {
+		velocities = new int[Dynamic.levels()];
+		gains = new float[Dynamic.levels()];
+		for (int level=Dynamic.SOFTEST; level<=Dynamic.LOUDEST; level++) {
+			Dynamic dynamic = Dynamic.of(level);
+			double loudness = shape.applyAsDouble(dynamic.volume());
+			if (loudness < 0 || loudness > 1)
+				throw new IllegalArgumentException(dynamic + " is shaped to " + loudness + ", not between 0 and 1");
+			// velocity 0 would be a note off
+			velocities[dynamic.index()] = Math.max(1, (int) Math.round(MAX_VELOCITY * loudness));
+			gains[dynamic.index()] = (float) (maxGain * loudness);
+		}
+	}
+
+	/**
+	 * @param exponent to raise volumes to, above 1 to spread out the quiet end and below 1 the loud end
+	 * @param maxGain gain at full volume
+	 */
+	public static VelocityCurve power(double exponent, float maxGain) {
+		return new VelocityCurve(volume -> Math.pow(volume, exponent), maxGain);
+	}
+
+	/** @return MIDI velocity, from 1 to {@link #MAX_VELOCITY} */
+	public int velocity(Dynamic dynamic) {
+		return velocities[dynamic.index()];
+	}
+
+	public float gain(Dynamic dynamic) {
+		return gains[dynamic.index()];
+	}
+
+}
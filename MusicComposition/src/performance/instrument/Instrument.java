@@ -80,6 +80,10 @@ public class Instrument implements Comparable<Instrument> {
 		this.name = name;
 	}
 	
+	public String getName() {
+		return name;
+	}
+	
 	@Override
 	public int compareTo(Instrument o) {
 		boolean thisKnown = knownInstruments.contains(this);
@@ -0,0 +1,73 @@
+package theory;
+
+import theory.ChordSpec.Quality;
+
+/**
+ * The pitches of a built chord, which never change and so may be shared by any number of threads.
+ * <p>
+ * Interned by {@link ChordCache}; use {@link #toChord()} wherever a {@link Chord} to modify is needed.
+ */
+public final class BuiltChord {
+
+	/** MIDI pitches, lowest first */
+	private final int[] pitches;
+	/** one bit per pitch class present, C being bit 0 */
+	private final int pitchClasses;
+	/** worked out on first use, since only triads have one */
+	private volatile Quality quality;
+
+	BuiltChord(Chord chord) {
+		pitches = chord.get().stream().mapToInt(MidiPitch::get).toArray();
+		pitchClasses = PitchClassSet.of(pitches);
+	}
+
+	public int size() {
+		return pitches.length;
+	}
+
+	/** @return MIDI pitch at the given index, counting up from the lowest */
+	public int pitch(int index) {
+		return pitches[index];
+	}
+
+	public int lowest() {
+		return pitches[0];
+	}
+
+	/** @return copy of the MIDI pitches, lowest first */
+	public int[] pitches() {
+		return pitches.clone();
+	}
+
+	/** @return the pitch classes present, as a {@link PitchClassSet} */
+	public int pitchClasses() {
+		return pitchClasses;
+	}
+
+	/** @return whether any octave of the given MIDI pitch is in this chord */
+	public boolean containsPitchClass(int midiPitch) {
+		return PitchClassSet.contains(pitchClasses, midiPitch);
+	}
+
+	/** @see Key#chordQuality(Chord) */
+	public Quality quality() {
+		Quality known = quality;
+		if (known == null)
+			quality = known = Key.chordQuality(toChord());
+		return known;
+	}
+
+	/** @return new, modifiable chord of these pitches */
+	public Chord toChord() {
+		Chord chord = new Chord();
+		for (int pitch : pitches)
+			chord.add(MidiPitch.of(pitch));
+		return chord;
+	}
+
+	@Override
+	public String toString() {
+		return toChord().toString();
+	}
+
+}
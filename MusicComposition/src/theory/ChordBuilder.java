@@ -10,6 +10,8 @@ import java.util.Set;
  */
 public class ChordBuilder {
 
+	public static final int DEFAULT_OCTAVE = 4;
+	
 	private Scale scale = Key.MAJOR;
 	private Note root;
 	private int octave;
@@ -18,8 +20,8 @@ public class ChordBuilder {
 	private Set<ChordNote> noteMask;
 	
 	public ChordBuilder() {
-		root = new Note(Letter.A);
-		octave = 4;
+		root = Note.of(Letter.A);
+		octave = DEFAULT_OCTAVE;
 //		major = true;
 		this.noteMask = new HashSet<>();
 		
@@ -29,7 +31,7 @@ public class ChordBuilder {
 	}
 	
 	public Chord build() {
-		MidiPitch rootPitch = new MidiPitch(root, octave);
+		MidiPitch rootPitch = MidiPitch.of(root, octave);
 		Chord chord = new Chord();
 		
 		int[] intervalsFromRoot = scale.intervalsFromRoot();
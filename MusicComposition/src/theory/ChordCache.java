@@ -0,0 +1,112 @@
+package theory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import theory.ChordSpec.Degree;
+
+/**
+ * Interns built chords, so each is only ever built once.
+ * <p>
+ * A {@link ChordSpec} is looked up by everything its pitches depend on, packed into a long:
+ * tonic, quality, degree, the qualities of the degrees up to it, inversion and octave.
+ * A chord of a {@link Key} is looked up by the key's tonic and scale, scale degree, degree and octave.
+ * Hits and misses are counted, to see what composing spends on chords.
+ */
+public class ChordCache {
+
+	private static final Map<Long,BuiltChord> cache = new ConcurrentHashMap<>(); // shared by batch composing threads
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+
+	/** marks keys of chords built from a {@link Key} rather than a {@link ChordSpec} */
+	private static final long KEY_CHORD = 1L << 62;
+	private static final int MAX_INVERSION = 0xFF;
+	private static final int MAX_OCTAVE = 0xF;
+
+	// util class
+	private ChordCache() {}
+
+	/**
+	 * @param spec chord to build
+	 * @param octave of the chord's root
+	 * @return the pitches of the given chord, as {@link ChordSpec#builder()} would build them
+	 */
+	public static BuiltChord get(ChordSpec spec, int octave) {
+		int inversion = spec.getInversion();
+		if (inversion < 0 || inversion > MAX_INVERSION || octave < 0 || octave > MAX_OCTAVE) {
+			misses.increment();
+			return new BuiltChord(spec.builder().setOctave(octave).build());
+		}
+		long key = spec.getTonicIndex()
+				| spec.getQuality().ordinal() << 4
+				| spec.getDegree().ordinal() << 6;
+		for (Degree degree : Degree.values())
+			if (degree != Degree.NONE && degree.ordinal() <= spec.getDegree().ordinal())
+				key |= spec.getDegreeQuality(degree).ordinal() << (9 + 2 * (degree.ordinal() - 1));
+		key |= (long) inversion << 17 | (long) octave << 25;
+
+		BuiltChord chord = cached(key);
+		return chord != null ? chord : intern(key, spec.builder().setOctave(octave).build());
+	}
+
+	/**
+	 * @param key whose scale is to be stacked in thirds
+	 * @param scaleDegree of the chord's root, already checked to be in the scale
+	 * @param degree of the chord
+	 * @param octave of the chord's root
+	 * @return the pitches of the given chord, as {@link Key#chord(int, Degree, int)} would build them
+	 */
+	static BuiltChord get(Key key, int scaleDegree, Degree degree, int octave) {
+		if (octave < 0 || octave > MAX_OCTAVE) {
+			misses.increment();
+			return new BuiltChord(key.buildChord(scaleDegree, degree, octave));
+		}
+		long cacheKey = KEY_CHORD
+				| key.signature()
+				| (long) scaleDegree << 20
+				| (long) degree.ordinal() << 24
+				| (long) octave << 27;
+
+		BuiltChord chord = cached(cacheKey);
+		return chord != null ? chord : intern(cacheKey, key.buildChord(scaleDegree, degree, octave));
+	}
+
+	private static BuiltChord cached(long key) {
+		BuiltChord chord = cache.get(key);
+		if (chord != null)
+			hits.increment();
+		return chord;
+	}
+
+	private static BuiltChord intern(long key, Chord chord) {
+		misses.increment();
+		BuiltChord built = new BuiltChord(chord);
+		BuiltChord raced = cache.putIfAbsent(key, built);
+		return raced == null ? built : raced;
+	}
+
+	/** @return number of lookups answered from the cache so far */
+	public static long hits() {
+		return hits.sum();
+	}
+
+	/** @return number of lookups which had to build a chord so far */
+	public static long misses() {
+		return misses.sum();
+	}
+
+	/** @return number of distinct chords interned */
+	public static int size() {
+		return cache.size();
+	}
+
+	public static String stats() {
+		long hits = hits();
+		long misses = misses();
+		return String.format("%d chords, %d hits, %d misses (%.1f%% hit rate)",
+				size(), hits, misses, hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses));
+	}
+
+}
@@ -47,6 +47,7 @@ public class ChordSpec {
 	// getters and setters:
 	public Note 	getTonic() 						{ return tonic.clone(); }
 	public void 	setTonic(Note newTonic) 		{ this.tonic = newTonic; } 
+	public int 		getTonicIndex() 				{ return tonic.getIndex(); }
 	public Quality 	getQuality() 					{ return quality; }
 	public void 	setQuality(Quality newQuality) 	{ this.quality = newQuality; }
 	public Degree 	getDegree() 					{ return degree; }
@@ -62,7 +63,17 @@ public class ChordSpec {
 	public void 	setInversion(int newInversion) 	{ this.inversion = newInversion; }
 	
 	public Chord build() {
-		return builder().build();
+		return interned().toChord();
+	}
+	
+	/** @return the pitches {@link #build()} would give, built once and then shared; see {@link ChordCache} */
+	public BuiltChord interned() {
+		return ChordCache.get(this, ChordBuilder.DEFAULT_OCTAVE);
+	}
+	
+	/** @return the pitches of this chord with its root in the given octave, built once and then shared */
+	public BuiltChord interned(int octave) {
+		return ChordCache.get(this, octave);
 	}
 	
 	public ChordBuilder builder() {
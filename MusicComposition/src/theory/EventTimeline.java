@@ -0,0 +1,168 @@
+package theory;
+
+import java.util.Arrays;
+
+import performance.Dynamic;
+import performance.MidiAction;
+import performance.MidiNote;
+
+/**
+ * Time-sorted storage of the {@link MidiAction}s played by a single instrument.
+ * <p>
+ * Onsets and durations (in {@link Ticks}) and pitches are kept in parallel primitive arrays,
+ * sorted by onset, so that range queries are a binary search and walking a range of events
+ * allocates nothing:
+ * <pre>
+ * for (int i = timeline.indexAtOrAfter(start), end = timeline.indexAtOrAfter(stop); i &lt; end; i++)
+ *     play(timeline.pitch(i), timeline.duration(i));
+ * </pre>
+ * Actions sharing an onset are kept in the order they were added.
+ * <p>
+ * The action objects themselves are retained, as composers adjust them (e.g. dynamics, ties) after adding.
+ */
+public final class EventTimeline {
+
+	/** {@link #pitch(int) pitch} reported for actions that are not notes */
+	public static final int REST = -1;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private int size;
+	private int[] onsets;
+	private int[] durations;
+	private int[] pitches;
+	private MidiAction[] actions;
+
+	private int latestEnd;
+
+	public EventTimeline() {
+		this.onsets = new int[INITIAL_CAPACITY];
+		this.durations = new int[INITIAL_CAPACITY];
+		this.pitches = new int[INITIAL_CAPACITY];
+		this.actions = new MidiAction[INITIAL_CAPACITY];
+	}
+
+	/** @return number of actions in this timeline */
+	public int size() { return size; }
+
+	public boolean isEmpty() { return size == 0; }
+
+	/** @return tick the action at the given index begins */
+	public int onset(int index) { return onsets[checkIndex(index)]; }
+
+	/** @return duration in ticks of the action at the given index */
+	public int duration(int index) { return durations[checkIndex(index)]; }
+
+	/** @return MIDI pitch of the action at the given index, or {@link #REST} */
+	public int pitch(int index) { return pitches[checkIndex(index)]; }
+
+	public boolean isNote(int index) { return pitches[checkIndex(index)] != REST; }
+
+	public MidiAction action(int index) { return actions[checkIndex(index)]; }
+
+	/** @throws ClassCastException if the action at the given index is not a note */
+	public MidiNote note(int index) { return (MidiNote) actions[checkIndex(index)]; }
+
+	/** @return dynamic of the note at the given index, or <code>null</code> for rests */
+	public Dynamic dynamic(int index) {
+		return isNote(index) ? note(index).getDynamic() : null;
+	}
+
+	/** @return tick the latest action in this timeline ends, or zero if empty */
+	public int latestEnd() { return latestEnd; }
+
+	/**
+	 * @param tick to search for
+	 * @return index of the first action beginning at or after the given tick,
+	 * or {@link #size()} if there is none
+	 */
+	public int indexAtOrAfter(int tick) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (onsets[mid] < tick)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @param tick to search for
+	 * @return index of the first action beginning strictly after the given tick,
+	 * or {@link #size()} if there is none
+	 */
+	public int indexAfter(int tick) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (onsets[mid] <= tick)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/** @return number of distinct onsets in this timeline */
+	public int distinctOnsets() {
+		int count = 0;
+		for (int i=0; i<size; i++)
+			if (i == 0 || onsets[i] != onsets[i-1])
+				count++;
+		return count;
+	}
+
+	/**
+	 * Inserts an action, keeping this timeline sorted. Appending at or after
+	 * the latest onset, as composers usually do, is amortized constant time.
+	 *
+	 * @param action to be added
+	 * @param onset tick the given action begins
+	 */
+	public void add(MidiAction action, int onset) {
+		if (size == onsets.length)
+			grow();
+		int index = indexAfter(onset); // after any actions sharing this onset
+		int moved = size - index;
+		if (moved > 0) {
+			System.arraycopy(onsets, index, onsets, index + 1, moved);
+			System.arraycopy(durations, index, durations, index + 1, moved);
+			System.arraycopy(pitches, index, pitches, index + 1, moved);
+			System.arraycopy(actions, index, actions, index + 1, moved);
+		}
+		onsets[index] = onset;
+		durations[index] = action.getTicks();
+		pitches[index] = action instanceof MidiNote ? ((MidiNote) action).getPitch() : REST;
+		actions[index] = action;
+		size++;
+		latestEnd = Math.max(latestEnd, onset + action.getTicks());
+	}
+
+	/**
+	 * @param other timeline whose actions are to be added to this one
+	 * @param offset tick in this timeline to place the other timeline's zero time mark
+	 */
+	public void addAll(EventTimeline other, int offset) {
+		for (int i=0; i<other.size; i++)
+			add(other.actions[i], other.onsets[i] + offset);
+	}
+
+	private void grow() {
+		int capacity = onsets.length * 2;
+		onsets = Arrays.copyOf(onsets, capacity);
+		durations = Arrays.copyOf(durations, capacity);
+		pitches = Arrays.copyOf(pitches, capacity);
+		actions = Arrays.copyOf(actions, capacity);
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index " + index + " outside timeline of size " + size);
+		return index;
+	}
+
+}
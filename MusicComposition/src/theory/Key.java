@@ -7,13 +7,11 @@ import static theory.Mode.LOCRIAN;
 import static theory.Mode.LYDIAN;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import theory.ChordSpec.Degree;
 import theory.ChordSpec.Quality;
@@ -35,8 +33,31 @@ public class Key implements Cloneable {
 	
 	// TODO should tonic,scale be replaced with a set of notes? perhaps in a supertype?
 	
-	private Note tonic;
-	private ScaleImpl scale;
+	/** the major key of each tonic, by {@link Note#getIndex()} */
+	private static final Key[] MAJOR_KEYS = new Key[PitchClassSet.OCTAVE];
+	static {
+		for (int i=0; i<MAJOR_KEYS.length; i++)
+			MAJOR_KEYS[i] = new Key(Note.ofIndex(i), MAJOR);
+	}
+	private static final int AMBIGUOUS = -1;
+	private static final int NOT_DIATONIC = -2;
+	/** what {@link #inferDiatonic(Collection)} makes of each {@link PitchClassSet}: a major tonic's note index, or why there is none */
+	private static final byte[] INFERRED_TONICS = new byte[PitchClassSet.CHROMATIC + 1];
+	static {
+		for (int set=0; set<INFERRED_TONICS.length; set++)
+			INFERRED_TONICS[set] = (byte) inferTonic(set);
+	}
+	/** keys made up by {@link #inferKey(Collection)} when no diatonic key fits, filled in as they come up */
+	private static final Key[] ARBITRARY_KEYS = new Key[PitchClassSet.CHROMATIC + 1];
+	
+	private final Note tonic;
+	private final ScaleImpl scale;
+	private final int width;
+	/** half steps above the tonic of each scale note, as a {@link PitchClassSet} */
+	private final int intervals;
+	/** pitch classes of the scale notes, as a {@link PitchClassSet} */
+	private final int pitchClasses;
+	private final int signature;
 	
 	public Key(Note tonic, Scale scale) {
 		this.tonic = tonic;
@@ -44,6 +65,10 @@ public class Key implements Cloneable {
 		if (modPos(12, scale.getWidth()) != 0)
 			throw new RuntimeException("WARNING: Key not guaranteed to function properly "
 									+ "in all cases if scale does not repeat every octave.");
+		width = this.scale.getWidth();
+		intervals = this.scale.pitchClasses();
+		pitchClasses = PitchClassSet.rotate(intervals, PitchClassSet.pitchClass(tonic));
+		signature = tonic.getIndex() | intervals << 4 | width << 16;
 	}
 	
 	public Note getTonic() {
@@ -54,24 +79,17 @@ public class Key implements Cloneable {
 		return new ScaleImpl(scale); // TODO return original?
 	}
 	
+	/** @return pitch classes of the notes in this key, as a {@link PitchClassSet} */
+	public int pitchClasses() {
+		return pitchClasses;
+	}
+	
 	public boolean contains(Note note) {
-		if (scale.getWidth() != 12)
-			throw new IllegalStateException("Only keys repeating every octave support contains at this time.");
-		int intervalAbove = tonic.halfStepsTo(note);
-		for (int i : scale.intervalsFromRoot())
-			if (i == intervalAbove)
-				return true;
-		return false;
+		return (pitchClasses & 1 << PitchClassSet.pitchClass(note)) != 0;
 	}
 	
 	public boolean contains(MidiPitch pitch) {
-		MidiPitch tonicPitch = new MidiPitch(tonic, 1);
-		int halfStepsAboveTonic = modPos(tonicPitch.halfStepsTo(pitch), scale.getWidth());
-		for (int interval : scale.intervalsFromRoot())
-			if (interval == halfStepsAboveTonic)
-				return true;
-//		System.out.println("scale doesn't contain note halfStepsAboveTonic: " + halfStepsAboveTonic);
-		return false;
+		return PitchClassSet.contains(pitchClasses, pitch.get());
 	}
 	
 	/**
@@ -80,22 +98,21 @@ public class Key implements Cloneable {
 	 * @return the scale degree that the given pitch represents in this key
 	 */
 	public int scaleDegree(MidiPitch pitch) {
-		MidiPitch tonicPitch = new MidiPitch(tonic, 1);
-		int halfStepsAboveTonic = modPos(tonicPitch.halfStepsTo(pitch), scale.getWidth());
-		int[] intervals = scale.intervalsFromRoot();
-		for (int i=0; i<intervals.length; i++)
-			if (intervals[i] == halfStepsAboveTonic)
-				return i+1;
-		throw new IllegalArgumentException("The given pitch was not contained in this key: "+ pitch);
+		if (!contains(pitch))
+			throw new IllegalArgumentException("The given pitch was not contained in this key: "+ pitch);
+		return scaleDegree(PitchClassSet.pitchClass(pitch.get()));
 	}
 	
 	public int scaleDegree(Note note) {
-		int halfStepsAboveTonic = tonic.halfStepsTo(note);
-		int[] intervals = scale.intervalsFromRoot();
-		for (int i=0; i<intervals.length; i++)
-			if (intervals[i] == halfStepsAboveTonic)
-				return i+1;
-		throw new IllegalArgumentException("The given note was not contained in this key: "+ note);
+		if (!contains(note))
+			throw new IllegalArgumentException("The given note was not contained in this key: "+ note);
+		return scaleDegree(PitchClassSet.pitchClass(note));
+	}
+	
+	/** @param pitchClass of a note in this key */
+	private int scaleDegree(int pitchClass) {
+		int halfStepsAboveTonic = modPos(pitchClass - PitchClassSet.pitchClass(tonic), width);
+		return PitchClassSet.countBelow(intervals, halfStepsAboveTonic) + 1;
 	}
 	
 	/**
@@ -116,7 +133,7 @@ public class Key implements Cloneable {
 		for (int j=0; j>steps; j--) {
 			currentPitch -= intervals[modPos(j + scaleDegree - 2, length)];
 		}
-		return new MidiPitch(currentPitch);
+		return MidiPitch.of(currentPitch);
 	}
 	
 	public Note note(int scaleDegree) {
@@ -133,24 +150,33 @@ public class Key implements Cloneable {
 	}
 	
 	public Chord chord(int scaleDegree, Degree chordDegree, int octave) {
+		return builtChord(scaleDegree, chordDegree, octave).toChord();
+	}
+	
+	/** @return the pitches of the given chord, built once and then shared; see {@link ChordCache} */
+	public BuiltChord builtChord(int scaleDegree, Degree chordDegree, int octave) {
+		if (scaleDegree < 1 || scaleDegree > scale.intervals.length)
+			throw new IllegalArgumentException();
+		return ChordCache.get(this, scaleDegree, chordDegree, octave);
+	}
+	
+	Chord buildChord(int scaleDegree, Degree chordDegree, int octave) {
 		Chord chord = new Chord();
 		
 		int[] intervals = scale.intervals();
 		int length = intervals.length;
-		if (scaleDegree < 1 || scaleDegree > length)
-			throw new IllegalArgumentException();
 			
 		int numThirdsAbove = 2 + chordDegree.ordinal(); // how many times to add a third above the root
 		
 		int pitch = MidiPitch.inOctave(note(scaleDegree), octave);
-		chord.add(new MidiPitch(pitch));
+		chord.add(MidiPitch.of(pitch));
 //		System.out.println("pitch " + pitch);
 		
 		for (int i=0; i<numThirdsAbove; i++) {
 			for (int j=0; j<2; j++) {
 				pitch += intervals[modPos((2*i+j+scaleDegree-1), length)];
 			}
-			chord.add(new MidiPitch(pitch));
+			chord.add(MidiPitch.of(pitch));
 //			System.out.println("pitch " + pitch);
 		}
 		
@@ -158,7 +184,15 @@ public class Key implements Cloneable {
 	}
 	
 	public ChordSpec chordSpec(int scaleDegree) {
-		return new ChordSpec(note(scaleDegree), chordQuality(chord(scaleDegree, 1))); // any octave
+		return new ChordSpec(note(scaleDegree), builtChord(scaleDegree, Degree.NONE, 1).quality()); // any octave
+	}
+	
+	/**
+	 * @return tonic, scale intervals and scale width packed into 20 bits for {@link ChordCache}, 
+	 * 		which always fit since the scale repeats every octave
+	 */
+	int signature() {
+		return signature;
 	}
 	
 	public Key relativeKey() {
@@ -191,16 +225,16 @@ public class Key implements Cloneable {
 	 * @return one acceptable Note name for the given MidiPitch
 	 */
 	public static Note toFlatNote(MidiPitch pitch) {
-		final MidiPitch aFour = new MidiPitch(69);
+		final MidiPitch aFour = MidiPitch.of(69);
 		int halfStepsAboveA = modPos(aFour.halfStepsTo(pitch), 12);
 		int[] intervals = MINOR.intervalsFromRoot();
 		for (int i=0; i<intervals.length; i++) {
 			if (halfStepsAboveA == intervals[i])
-				return new Note(Letter.values()[i]);
+				return Note.of(Letter.values()[i]);
 			if (halfStepsAboveA < intervals[i])
-				return new Note(Letter.values()[i], Accidental.FLAT);
+				return Note.of(Letter.values()[i], Accidental.FLAT);
 		}
-		return new Note(Letter.A, Accidental.FLAT); // didn't check below A or above G, must be Ab
+		return Note.of(Letter.A, Accidental.FLAT); // didn't check below A or above G, must be Ab
 	}
 	
 	/**
@@ -211,21 +245,23 @@ public class Key implements Cloneable {
 	 * @return one acceptable Note name for the given MidiPitch
 	 */
 	public static Note toSharpNote(MidiPitch pitch) {
-		final MidiPitch aFour = new MidiPitch(69);
+		final MidiPitch aFour = MidiPitch.of(69);
 		int halfStepsAboveA = modPos(aFour.halfStepsTo(pitch), 12);
 		int[] intervals = Key.MINOR.intervalsFromRoot();
 		for (int i=0; i<intervals.length; i++) {
 			if (halfStepsAboveA == intervals[i])
-				return new Note(Letter.values()[i]);
+				return Note.of(Letter.values()[i]);
 			if (halfStepsAboveA < intervals[i])
-				return new Note(Letter.values()[i-1], Accidental.SHARP);
+				return Note.of(Letter.values()[i-1], Accidental.SHARP);
 		}
-		return new Note(Letter.G, Accidental.SHARP); // didn't check below A or above G, must be Ab
+		return Note.of(Letter.G, Accidental.SHARP); // didn't check below A or above G, must be Ab
 	}
 	
 	/** @see #inferDiatonic(Collection) */
 	public static Key inferDiatonic(Set<Note> notes) {
-		return inferDiatonic(notes.stream().map(note -> new MidiPitch(note, 1)).collect(Collectors.toSet()));
+		if (notes.size() < 3)
+			throw new IllegalArgumentException("Must have at least 3 pitches to infer a diatonic key.");
+		return inferDiatonic(noteSet(notes));
 	}
 
 	/**
@@ -239,52 +275,49 @@ public class Key implements Cloneable {
 	public static Key inferDiatonic(Collection<MidiPitch> pitches) {
 		if (pitches.size() < 3)
 			throw new IllegalArgumentException("Must have at least 3 pitches to infer a diatonic key.");
-		List<Integer> integers = pitches.stream()
-										.map(MidiPitch::get)
-										.map(integer -> integer % 12)
-										.sorted()
-										.collect(Collectors.toList());
-		// from here on, the list must represent a set of at least three integers from 0-11
-		List<Integer> faScale = Arrays.stream(LYDIAN.intervalsFromRoot()).boxed().collect(Collectors.toList());
-		List<Integer> tiScale = Arrays.stream(LOCRIAN.intervalsFromRoot()).boxed().collect(Collectors.toList());
-		
-//		System.out.println("Searching for diatonic in pitches: " + integers);
-		
+		return inferDiatonic(pitchSet(pitches));
+	}
+	
+	private static Key inferDiatonic(int pitchClasses) {
+		int tonic = INFERRED_TONICS[pitchClasses];
+		if (tonic == AMBIGUOUS)
+			throw new IllegalArgumentException("Notes given can belong to more than one possible key.");
+		if (tonic == NOT_DIATONIC)
+			throw new IllegalArgumentException("Notes given cannot fit in a diatonic scale.");
+		return MAJOR_KEYS[tonic];
+	}
+	
+	/**
+	 * Fills in {@link #INFERRED_TONICS}: looks for the fa or ti of the set, lowest pitch class first,
+	 * which is a pitch class that the whole set lies in the {@link Mode#LYDIAN} or {@link Mode#LOCRIAN} scale of.
+	 * 
+	 * @return note index of the tonic of the major key of the given {@link PitchClassSet}, 
+	 * 		or {@link #AMBIGUOUS} or {@link #NOT_DIATONIC}
+	 */
+	private static int inferTonic(int pitchClasses) {
 		boolean diatonicPossible = false;
-		for (int i=0; i<integers.size(); i++) {
-			boolean isTritone = false;
-			boolean notFa = false;
-			boolean notTi = false;
-			for (Integer other : integers) {
-				int diff = modPos(other - integers.get(i), 12);
-				if (diff == 6)
-					isTritone = true;
-				if (!faScale.contains(diff))
-					notFa = true;
-				if (!tiScale.contains(diff))
-					notTi = true;
-			}
+		for (int pitchClass=0; pitchClass<PitchClassSet.OCTAVE; pitchClass++) {
+			if ((pitchClasses & 1 << pitchClass) == 0)
+				continue;
+			int above = PitchClassSet.rotate(pitchClasses, -pitchClass);
+			boolean notFa = !PitchClassSet.containsAll(LYDIAN.pitchClasses(), above);
+			boolean notTi = !PitchClassSet.containsAll(LOCRIAN.pitchClasses(), above);
 			if (notFa && notTi)
 				continue;
 			// right here, notFa is equal to !notTi
-			if (isTritone) {
-				// all done, return the key converted to major
-				Note faOrTi = toFlatNote(new MidiPitch(integers.get(i)));
-				Note tonic = faOrTi.halfStepsAbove(notTi ? 7 : 1);
-				return new Key(tonic, MAJOR);
+			if ((above & 1 << PitchClassSet.TRITONE) != 0) {
+				// all done, the key converted to major
+				Note faOrTi = PitchClassSet.note(pitchClass);
+				return faOrTi.halfStepsAbove(notTi ? 7 : 1).getIndex();
 			}
-			// 
 			diatonicPossible = true;
 		}
-		if (diatonicPossible)
-			throw new IllegalArgumentException("Notes given can belong to more than one possible key.");
-		else
-			throw new IllegalArgumentException("Notes given cannot fit in a diatonic scale.");
+		return diatonicPossible ? AMBIGUOUS : NOT_DIATONIC;
 	}
 	
 	/** @see #inferKey(Collection) */
 	public static Key inferKey(Set<Note> notes) {
-		return inferKey(notes.stream().map(note -> new MidiPitch(note, 1)).collect(Collectors.toSet()));
+		return detectKey(noteSet(notes), notes.size());
 	}
 	
 	/**
@@ -294,50 +327,74 @@ public class Key implements Cloneable {
 	 * @see #inferDiatonic(Collection)
 	 */
 	public static Key inferKey(Collection<MidiPitch> pitches) {
-		Key key;
-		try {
-			key = Key.inferDiatonic(pitches);
+		return detectKey(pitchSet(pitches), pitches.size());
+	}
+	
+	/**
+	 * Same as {@link #inferKey(Collection)} for pitches one of each of the given pitch classes, 
+	 * without printing the key detected.
+	 * 
+	 * @param pitchClasses a {@link PitchClassSet}
+	 */
+	public static Key inferKey(int pitchClasses) {
+		return inferKey(pitchClasses, PitchClassSet.size(pitchClasses));
+	}
+	
+	private static Key detectKey(int pitchClasses, int pitches) {
+		Key key = inferKey(pitchClasses, pitches);
+		if (key == MAJOR_KEYS[key.tonic.getIndex()])
 			System.out.println("Detecting key " + key);
-		} catch (IllegalArgumentException e) {
-			// too many or too few pitches to decide on a single key
-			// let's just work with what we know
-			List<Integer> pitchList = pitches.stream()
-					.map(MidiPitch::get)
-					.map(integer -> modPos(integer, 12)) // causes arbitrary ordering
-					.distinct()
-					.sorted()
-					.collect(Collectors.toList());
-			int[] intervals = new int[pitchList.size()];
-//			System.out.println("tonicWhyNot: " + newMidiPitch.get());
-			for (int i=0; i<intervals.length-1; i++)
-				intervals[i] = pitchList.get(i+1) - pitchList.get(i);
-			int last = intervals.length-1;
-			intervals[last] = 12 - (pitchList.get(last) - pitchList.get(0));
-//			System.out.println("CREATED INTERVALS:");
-//			for (int interval : intervals)
-//				System.out.println("" + interval);
-			Note tonicWhyNot = Key.toFlatNote(new MidiPitch(pitchList.get(0)));
-			Scale scaleSureOk = new ScaleImpl(intervals);
-			key = new Key(tonicWhyNot, scaleSureOk);
-		}
 		return key;
 	}
+	
+	private static Key inferKey(int pitchClasses, int pitches) {
+		int tonic = pitches < 3 ? NOT_DIATONIC : INFERRED_TONICS[pitchClasses];
+		if (tonic >= 0)
+			return MAJOR_KEYS[tonic];
+		// too many or too few pitches to decide on a single key
+		// let's just work with what we know
+		Key key = ARBITRARY_KEYS[pitchClasses];
+		if (key == null) // any thread may fill it in, since every thread makes the same key
+			ARBITRARY_KEYS[pitchClasses] = key = arbitraryKey(pitchClasses);
+		return key;
+	}
+	
+	/** @return key of the given {@link PitchClassSet}, with its lowest pitch class as tonic */
+	private static Key arbitraryKey(int pitchClasses) {
+		if (pitchClasses == PitchClassSet.EMPTY)
+			throw new IllegalArgumentException("No pitches to infer a key from.");
+		int[] pitchList = PitchClassSet.toArray(pitchClasses);
+		int[] intervals = new int[pitchList.length];
+		for (int i=0; i<intervals.length-1; i++)
+			intervals[i] = pitchList[i+1] - pitchList[i];
+		int last = intervals.length-1;
+		intervals[last] = 12 - (pitchList[last] - pitchList[0]);
+		Note tonicWhyNot = PitchClassSet.note(pitchList[0]);
+		Scale scaleSureOk = new ScaleImpl(intervals);
+		return new Key(tonicWhyNot, scaleSureOk);
+	}
+	
+	private static int pitchSet(Collection<MidiPitch> pitches) {
+		int set = PitchClassSet.EMPTY;
+		for (MidiPitch pitch : pitches)
+			set = PitchClassSet.with(set, pitch.get());
+		return set;
+	}
+	
+	private static int noteSet(Collection<Note> notes) {
+		int set = PitchClassSet.EMPTY;
+		for (Note note : notes)
+			set |= 1 << PitchClassSet.pitchClass(note);
+		return set;
+	}
 
 	// semi-redundant, but useful
 	public static Set<Note> possibleIonianTonics(Set<Note> playedNotes) {
-		// assume all is possible to start
+		int played = noteSet(playedNotes);
 		Set<Note> possible = new HashSet<>();
-		Note a = new Note(Letter.A);
-		for (int i=0; i<12; i++) {
-			possible.add(a.halfStepsAbove(i));
-		}
-	
-		// mask out keys obviated by each note
-		List<int[]> chromatic = Arrays.asList(new int[]{1,3,6,8,10});
-		for (Note played : playedNotes) {
-			possible.removeIf(possibleTonic -> chromatic.contains(possibleTonic.halfStepsTo(played)));
-		}
-	
+		for (int tonic=0; tonic<PitchClassSet.OCTAVE; tonic++)
+			if (PitchClassSet.containsAll(MAJOR_KEYS[tonic].pitchClasses, played))
+				possible.add(Note.ofIndex(tonic));
 		return possible;
 	}
 	
@@ -346,13 +403,12 @@ public class Key implements Cloneable {
 	 * while still implying all of the given keys.
 	 */
 	public static Set<Note> playableNotes(Set<Key> impliedKeys) {
-		Set<Note> playable = new HashSet<>();
-		Note a = new Note(Letter.A);
-		for (int i=0; i<12; i++) {
-			playable.add(a.halfStepsAbove(i));
-		}
+		int pitchClasses = PitchClassSet.CHROMATIC;
 		for (Key key : impliedKeys)
-			playable.removeIf(note -> !key.contains(note));
+			pitchClasses &= key.pitchClasses;
+		Set<Note> playable = new HashSet<>();
+		for (int pitchClass : PitchClassSet.toArray(pitchClasses))
+			playable.add(PitchClassSet.note(pitchClass));
 		return playable;
 	}
 	
@@ -423,7 +479,7 @@ public class Key implements Cloneable {
 
 	@Override
 	public Key clone() {
-		return new Key(tonic.clone(), new ScaleImpl(scale));
+		return new Key(tonic, scale);
 	}
 	
 	@Override
@@ -1,13 +1,12 @@
 package theory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -21,13 +20,18 @@ public class Measure implements Comparable<Measure> {
 	// time signature:
 	private int beats;
 	private double beatValue;
+	private int beatTicks;
 	
 	int measureNumber;
 	private double bpm = 60;
 	
 	private String metaInfo = "";
 	
-	private Set<InstrumentMeasure> instruments;
+	private Map<Instrument,InstrumentMeasure> instruments;
+	/** changes made to this measure's instruments and notes, so that its drawing is only redrawn when stale */
+	private int modifications;
+	private String drawing;
+	private int drawnAt;
 	
 	public Measure(int beats, double beatValue) {
 		if (beats < 1)
@@ -36,7 +40,10 @@ public class Measure implements Comparable<Measure> {
 			throw new IllegalArgumentException("Measure beats must have a positive duration.");
 		this.beats = beats;
 		this.beatValue = beatValue;
-		this.instruments = new HashSet<>();
+		this.beatTicks = Ticks.fromWholeNotes(beatValue);
+		if (beatTicks <= 0)
+			throw new IllegalArgumentException("Measure beats must last at least one tick.");
+		this.instruments = new HashMap<>();
 	}
 	
 	/** @return number of beats in this measure */
@@ -45,6 +52,10 @@ public class Measure implements Comparable<Measure> {
 	public double beatValue() { return beatValue; }
 	/** @return duration of this measure as a fraction of a whole note, equivalent to fraction created by time signature */
 	public double length() { return beats()*beatValue(); }
+	/** @return duration of each beat in {@link Ticks} */
+	public int beatTicks() { return beatTicks; }
+	/** @return duration of this measure in {@link Ticks} */
+	public int lengthTicks() { return beats*beatTicks; }
 
 	public int getMeasureNumber() { return measureNumber; }
 	public void setMeasureNumber(int number) { this.measureNumber = number; }
@@ -55,16 +66,33 @@ public class Measure implements Comparable<Measure> {
 	public String getMetaInfo() { return new String(metaInfo); }
 	public void setMetaInfo(String info) { this.metaInfo = info; }
 	
+	/** @return an unmodifiable view of the instruments playing in this measure */
 	public Set<Instrument> getInstruments() {
-		return instruments.stream().map(InstrumentMeasure::getInstrument).collect(Collectors.toSet());
+		return Collections.unmodifiableSet(instruments.keySet());
 	}
 	
+	/** Adds the given instrument to this measure, if it is not already present */
 	public void addInstrument(Instrument instrument) {
-		instruments.add(new InstrumentMeasure(instrument));
+		if (!instruments.containsKey(instrument)) {
+			instruments.put(instrument, new InstrumentMeasure(instrument));
+			modifications++;
+		}
 	}
 	
 	public void removeInstrument(Instrument removed) {
-		instruments.removeIf(inst -> inst.getInstrument().equals(removed));
+		instruments.remove(removed);
+		modifications++;
+	}
+	
+	/**
+	 * Intended for playback and other hot paths, which can walk the returned timeline 
+	 * by index without allocating.
+	 * 
+	 * @param instrument to query
+	 * @return the time-sorted actions of the given instrument; this is the measure's own storage
+	 */
+	public EventTimeline getTimeline(Instrument instrument) {
+		return getInstrument(instrument).getTimeline();
 	}
 	
 	/**
@@ -73,7 +101,7 @@ public class Measure implements Comparable<Measure> {
 	 * @return notes and rests occurring at this time
 	 */
 	public List<MidiAction> getActions(Instrument instrument, double time) {
-		return getInstrument(instrument).getActions(time);
+		return getInstrument(instrument).getActions(Ticks.fromWholeNotes(time));
 	}
 
 	/**
@@ -82,7 +110,7 @@ public class Measure implements Comparable<Measure> {
 	 * @return notes and rests occurring in a range of times
 	 */
 	public List<MidiAction> getActions(Instrument instrument, double start, double end) {
-		return getInstrument(instrument).getActions(start, end);
+		return getInstrument(instrument).getActions(Ticks.fromWholeNotes(start), Ticks.fromWholeNotes(end));
 	}
 	
 	/**
@@ -91,7 +119,7 @@ public class Measure implements Comparable<Measure> {
 	 * @return notes occurring at this time
 	 */
 	public List<MidiNote> getNotes(Instrument instrument, double time) {
-		return getInstrument(instrument).getNotes(time);
+		return getInstrument(instrument).getNotes(Ticks.fromWholeNotes(time));
 	}
 	
 	/**
@@ -100,7 +128,7 @@ public class Measure implements Comparable<Measure> {
 	 * @return notes occurring in a range of times
 	 */
 	public List<MidiNote> getNotes(Instrument instrument, double start, double end) {
-		return getInstrument(instrument).getNotes(start, end);
+		return getInstrument(instrument).getNotes(Ticks.fromWholeNotes(start), Ticks.fromWholeNotes(end));
 	}
 
 	/**
@@ -115,7 +143,17 @@ public class Measure implements Comparable<Measure> {
 	}
 	
 	public Measure add(Instrument instrument, MidiAction note, double offset) {
-		getInstrument(instrument).add(note, offset);
+		return addAtTick(instrument, note, Ticks.fromWholeNotes(offset));
+	}
+	
+	/**
+	 * @param instrument to play the given note
+	 * @param note to be added
+	 * @param tick offset into this measure, in {@link Ticks}
+	 * @return this measure
+	 */
+	public Measure addAtTick(Instrument instrument, MidiAction note, int tick) {
+		getInstrument(instrument).add(note, tick);
 		return this;
 	}
 	
@@ -127,7 +165,7 @@ public class Measure implements Comparable<Measure> {
 	}
 	
 	public Measure add(Instrument instrument, Phrase phrase, double offset) {
-		getInstrument(instrument).add(phrase, offset);
+		getInstrument(instrument).add(phrase, Ticks.fromWholeNotes(offset));
 		return this;
 	}
 	
@@ -140,20 +178,41 @@ public class Measure implements Comparable<Measure> {
 	 */
 	public Set<Double> getTimes() {
 		Set<Double> retval = new HashSet<>();
-		for (InstrumentMeasure instrument : instruments)
-			retval.addAll(instrument.getTimes());
+		for (int tick : getTicks())
+			retval.add(Ticks.toWholeNotes(tick));
 		return retval;
 	}
 	
+	/**
+	 * @return sorted, distinct offsets in {@link Ticks} at which some number of notes (or rests) is played
+	 * @see #getTimes()
+	 */
+	public int[] getTicks() {
+		int count = 0;
+		for (InstrumentMeasure instrument : instruments.values())
+			count += instrument.notes.size();
+		int[] ticks = new int[count];
+		int i = 0;
+		for (InstrumentMeasure instrument : instruments.values())
+			for (int j=0; j<instrument.notes.size(); j++)
+				ticks[i++] = instrument.notes.onset(j);
+		Arrays.sort(ticks);
+		int distinct = 0;
+		for (int j=0; j<ticks.length; j++)
+			if (j == 0 || ticks[j] != ticks[distinct-1])
+				ticks[distinct++] = ticks[j];
+		return Arrays.copyOf(ticks, distinct);
+	}
+	
 	public boolean isEmpty() {
-		for (InstrumentMeasure instrument : instruments)
+		for (InstrumentMeasure instrument : instruments.values())
 			if (!instrument.isEmpty())
 				return false;
 		return true;
 	}
 	
 	public void absorb(Measure other) {
-		for (InstrumentMeasure im : other.instruments) {
+		for (InstrumentMeasure im : other.instruments.values()) {
 			Instrument otherInstrument = im.getInstrument();
 			if (!this.getInstruments().contains(otherInstrument))
 				this.addInstrument(otherInstrument);
@@ -178,111 +237,103 @@ public class Measure implements Comparable<Measure> {
 //		return measureString;
 //	}
 	
+	/**
+	 * Draws the pitches played by each instrument, one column per time at which any instrument plays and as many rows
+	 * per instrument as it plays notes at once, highest on top. The drawing is kept until the measure next changes,
+	 * so drawing a measure again costs nothing.
+	 */
 	public String stringDrawing() {
-		// this implementation is kinda gross
-		String drawing = "";
-		List<String> partStrings = new ArrayList<>();
-		List<Instrument> instList = instruments.stream().map(InstrumentMeasure::getInstrument)
-											   .sorted().collect(Collectors.toList());
-		int widestInstrumentName = 0;
-		for (Instrument instrument : instList) {
-			String title = instrument.toString() + ":";
-			partStrings.add(title);
-			widestInstrumentName = Math.max(title.length(), widestInstrumentName);
+		String drawing = this.drawing;
+		int modifications = this.modifications;
+		if (drawing == null || drawnAt != modifications) {
+			drawing = draw();
+			this.drawing = drawing;
+			this.drawnAt = modifications;
 		}
-		for (int i=0; i<partStrings.size(); i++) {
-			String temp = partStrings.get(i);
-			int diff = widestInstrumentName - temp.length();
-			for (int j=0; j<diff; j++)
-				temp += " ";
-			partStrings.set(i, temp);
-		}
-		
-		List<Double> times = new ArrayList<>(getTimes());
-		Collections.sort(times);
+		return drawing;
+	}
+	
+	private String draw() {
+		String lineSeparator = System.lineSeparator();
+		List<Instrument> instList = instruments.keySet().stream().sorted().collect(Collectors.toList());
+		int widestInstrumentName = 0;
+		for (Instrument instrument : instList)
+			widestInstrumentName = Math.max(instrument.toString().length() + 1, widestInstrumentName);
 		
+		int[] ticks = getTicks();
+		StringBuilder drawing = new StringBuilder();
+		int[] pitches = new int[8];
 		for (Instrument instrument : instList) {
-			String instString = partStrings.get(instList.indexOf(instrument));
-			Map<Double,List<MidiNote>> playedTimes = new HashMap<>();
-			int maxSimulNotes = times.stream()
-									 // shh, you saw nothing. this is how streams were meant to be used:
-									 .peek(time -> playedTimes.put(time, getNotes(instrument, time)))
-									 .peek(time -> Collections.sort(playedTimes.get(time), new Comparator<MidiNote>() {
-										@Override public int compare(MidiNote o1, MidiNote o2) {
-											return o2.getPitch() - o1.getPitch(); // flipped, highest on top
-										}}))
-									 .map(time -> getActions(instrument, time)) // TODO consider using getNotes() instead
-									 .mapToInt(List::size)
-									 .max()
-									 .orElse(0);
+			String title = instrument.toString() + ":";
+			drawing.append(title);
+			for (int i=title.length(); i<widestInstrumentName; i++)
+				drawing.append(' ');
+			EventTimeline timeline = getTimeline(instrument);
+			int maxSimulNotes = 0;
+			for (int tick : ticks)
+				maxSimulNotes = Math.max(maxSimulNotes, timeline.indexAfter(tick) - timeline.indexAtOrAfter(tick));
 			for (int row=0; row<maxSimulNotes; row++) {
 				if (row > 0)
 					for (int i=0; i<widestInstrumentName; i++)
-						instString += " ";
-				for (double time : times) {
-					List<MidiNote> notes = playedTimes.get(time);
-					if (row > notes.size() - 1) {
-						instString += "   "; // TODO this assumes all 2-digit pitches
+						drawing.append(' ');
+				for (int tick : ticks) {
+					// pitches of the notes at this tick, highest first
+					int count = 0;
+					for (int i=timeline.indexAtOrAfter(tick), last=timeline.indexAfter(tick); i<last; i++) {
+						if (!timeline.isNote(i))
+							continue;
+						if (count == pitches.length)
+							pitches = Arrays.copyOf(pitches, count * 2);
+						pitches[count++] = timeline.pitch(i);
+					}
+					if (row > count - 1) {
+						drawing.append("   "); // TODO this assumes all 2-digit pitches
 						continue;
 					}
-					instString += " " + notes.get(row).getPitch();
+					Arrays.sort(pitches, 0, count);
+					drawing.append(' ').append(pitches[count - 1 - row]);
 				}
-				instString += System.lineSeparator();
+				drawing.append(lineSeparator);
 			}
-			drawing += instString;
 		}
 		
-		if (drawing.length() > System.lineSeparator().length()) {
+		if (drawing.length() > lineSeparator.length()) {
 			// mushes all measures together, no break between:
-			drawing = drawing.substring(0,drawing.length()-System.lineSeparator().length());
+			drawing.setLength(drawing.length() - lineSeparator.length());
 		}
 		
-		return drawing;
+		return drawing.toString();
 	}
 	
 	public static void writeOnto(Instrument instrument, Phrase phrase, List<Measure> measures, double offset) { // FIXME honor the offset
 		if (offset + phrase.getStart() < 0)
 			throw new IllegalArgumentException("Phrase would start before start of measures.");
-		Optional<Double> totalLength = measures.stream().map(Measure::length).reduce((a, b) -> a+b);
-		if (!totalLength.isPresent() || totalLength.get() < offset + phrase.getEnd())
+		int totalLength = measures.stream().mapToInt(Measure::lengthTicks).sum();
+		if (measures.isEmpty() || totalLength < Ticks.fromWholeNotes(offset) + phrase.getEndTick())
 			throw new IllegalArgumentException("Given measures are too short to accommodate the given phrase.");
 		
 //		System.out.println("Writing a Phrase: " + phrase.timesAndNotes());
 		
 		int measureIndex = 0;
 		Measure measure = measures.get(measureIndex);
-		Double ticker = 0.0; // slide the ticker to the start of each measure
-		Map<Double, List<MidiAction>> phraseNotes = phrase.getNotes();
-		List<Double> times = new ArrayList<>(phraseNotes.keySet());
-		Collections.sort(times);
+		int ticker = 0; // slide the ticker to the start of each measure
+		EventTimeline phraseNotes = phrase.getTimeline();
 		
-//		System.out.println("Written Measures: ");
-		for (Double time : times) {
-			while (time >= ticker + measure.length()) {
-//				System.out.println("metainfo " + measure.getMetaInfo());
-//				System.out.println("Measure " + measure.timesAndNotes());
-				
-				ticker += measure.length();
+		for (int i=0; i<phraseNotes.size(); i++) {
+			int tick = phraseNotes.onset(i);
+			while (tick >= ticker + measure.lengthTicks()) {
+				ticker += measure.lengthTicks();
 				measure = measures.get(++measureIndex);
 			}
-			double location = time - ticker;
-			List<MidiAction> notes = phraseNotes.get(time);
-//			if (notes.size() > 1)
-//				throw new IllegalStateException("bug!");
-			for (MidiAction note : notes) {
-				measure.add(instrument, note, location);
-//				if (location == 0)
-//					System.out.println("downbeat" + note.getPitch() + " ");
-			}
-//			System.out.println("Writing, time/ticker/location/measureIndex " 
-//					+ time + "/" + ticker + "/" + location + "/" + measureIndex);
+			measure.addAtTick(instrument, phraseNotes.action(i), tick - ticker);
 		}
-//		System.out.println();
 	}
 	
 	private InstrumentMeasure getInstrument(Instrument instrument) {
-		return instruments.stream().filter(inst -> inst.getInstrument().equals(instrument)).
-				findAny().orElseThrow(() -> new RuntimeException("Instrument not present: " + instrument));
+		InstrumentMeasure instrumentMeasure = instruments.get(instrument);
+		if (instrumentMeasure == null)
+			throw new RuntimeException("Instrument not present: " + instrument);
+		return instrumentMeasure;
 	}
 	
 //	private double latestNoteEnd() {
@@ -298,128 +349,111 @@ public class Measure implements Comparable<Measure> {
 	private class InstrumentMeasure {
 		
 		private Instrument instrument;
-		private Map<Double,List<MidiAction>> notes;
+		private EventTimeline notes;
 		
 		public InstrumentMeasure(Instrument instrument) {
 			this.instrument = instrument;
-			this.notes = new HashMap<>();
+			this.notes = new EventTimeline();
 		}
 		
 		public Instrument getInstrument() {
 			return instrument;
 		}
 		
+		public EventTimeline getTimeline() {
+			return notes;
+		}
+		
 		// are these necessary?
 		public int beats() { return Measure.this.beats(); }
 		public double beatValue() { return Measure.this.beatValue(); }
 //		public double length() { return Measure.this.length(); }
 		
-		public List<MidiAction> getActions(double time) {
-			List<MidiAction> list = notes.get(new Double(time));
-			return list == null ? new ArrayList<>() : new ArrayList<>(list);
+		public List<MidiAction> getActions(int tick) {
+			return collect(notes.indexAtOrAfter(tick), notes.indexAfter(tick), MidiAction.class);
 		}
 		
 		/**
-		 * @param start first time to return played actions (inclusive)
-		 * @param end last time to return played a (exclusive)
+		 * @param start first tick to return played actions (inclusive)
+		 * @param end last tick to return played a (exclusive)
 		 * @return all notes played in the given time window, sorted by time played
 		 */
-		public List<MidiAction> getActions(double start, double end) {
-			List<MidiAction> allNotes = new ArrayList<>();
-			List<Double> keySet = new ArrayList<>(notes.keySet());
-			Collections.sort(keySet);
-//			System.out.println("Key set size: " + keySet.size());
-			for (Double dub : keySet) {
-				if ((dub >= start && dub < end) || dub == start)
-					allNotes.addAll(notes.get(dub));
-			}
-			// TODO sort?
-//			System.out.println("All notes found for " + instrument + ": " + allNotes.size());
-			return allNotes;
+		public List<MidiAction> getActions(int start, int end) {
+			return collect(notes.indexAtOrAfter(start), lastIndex(start, end), MidiAction.class);
 		}
 		
-		public List<MidiNote> getNotes(double time) {
-			List<MidiNote> notes = new ArrayList<>();
-			for (MidiAction action : getActions(time))
-				if (action instanceof MidiNote)
-					notes.add((MidiNote) action);
-			return notes;
+		public List<MidiNote> getNotes(int tick) {
+			return collect(notes.indexAtOrAfter(tick), notes.indexAfter(tick), MidiNote.class);
 		}
 		
 		/**
-		 * @param start first time to return played notes (inclusive)
-		 * @param end last time to return played notes (exclusive)
+		 * @param start first tick to return played notes (inclusive)
+		 * @param end last tick to return played notes (exclusive)
 		 * @return all notes played in the given time window, sorted by time played
 		 */
-		public List<MidiNote> getNotes(double start, double end) {
-			List<MidiNote> notes = new ArrayList<>();
-			for (MidiAction action : getActions(start, end))
-				if (action instanceof MidiNote)
-					notes.add((MidiNote) action);
-			return notes;
+		public List<MidiNote> getNotes(int start, int end) {
+			return collect(notes.indexAtOrAfter(start), lastIndex(start, end), MidiNote.class);
 		}
 		
 		public void add(MidiAction note) {
 			add(note, latestNoteEnd());
 		}
 		
-		public void add(MidiAction note, double offset) {
+		public void add(MidiAction note, int offset) {
 			if (offset < 0)
 				throw new IllegalArgumentException("Cannot add notes before start of measure.");
-			if (offset + note.getDuration() > beats * beatValue)
+			if (offset + note.getTicks() > lengthTicks())
 				throw new IllegalArgumentException("Note would end after end of measure."
-						+ " Note of duration " + note.getDuration() + " at time " + offset);
-			
-//			System.out.println("Adding note to " + instrument);
+						+ " Note of duration " + note.getDuration() + " at time " + Ticks.toWholeNotes(offset));
 			
-			List<MidiAction> list = notes.get(new Double(offset));
-			if (list == null) {
-				list = new ArrayList<>();
-				notes.put(new Double(offset), list);
-			}
-			list.add(note);
-//			System.out.println("Now has " + list.size() + " notes");
+			notes.add(note, offset);
+			modifications++;
 		}
 		
 		public void add(Phrase phrase) {
 			add(phrase, latestNoteEnd());
 		}
 		
-		public void add(Phrase phrase, double offset) {
-			if (offset + phrase.getStart() < 0)
+		public void add(Phrase phrase, int offset) {
+			if (offset + phrase.getStartTick() < 0)
 				throw new IllegalArgumentException("No part of the phrase can start before the start of the measure.");
-			if (offset + phrase.getEnd() > beats * beatValue)
+			if (offset + phrase.getEndTick() > lengthTicks())
 				throw new IllegalArgumentException("Phrase would end after end of measure.");
 
-			Map<Double, List<MidiAction>> phraseNotes = phrase.getNotes();
-			for (Double time : phraseNotes.keySet())
-				for (MidiAction note : phraseNotes.get(time))
-					add(note, offset + time);
-		}
-		
-		public Set<Double> getTimes() {
-			return notes.keySet();
+			EventTimeline phraseNotes = phrase.getTimeline();
+			for (int i=0; i<phraseNotes.size(); i++)
+				add(phraseNotes.action(i), offset + phraseNotes.onset(i));
 		}
 		
 		public boolean isEmpty() {
-			return notes.keySet().isEmpty();
+			return notes.isEmpty();
 		}
 		
 		public void absorb(InstrumentMeasure other) {
 			if (other.beats() != beats() || other.beatValue() != beatValue())
 				throw new IllegalArgumentException("Cannot absorb a measure with a different key signature.");
-			notes.putAll(other.notes);
+			notes.addAll(other.notes, 0);
+			modifications++;
 //			setMetaInfo(metaInfo + "\n" + other.getMetaInfo());
 		}
 		
-		private double latestNoteEnd() {
-			double latest = 0;
-			for (Double dub : notes.keySet()) {
-				for (MidiAction note : notes.get(dub)) {
-					latest = Math.max(latest, dub + note.getDuration());
-				}
+		private int latestNoteEnd() {
+			return notes.latestEnd();
+		}
+		
+		/** end of a range query; a range ending at or before its start still includes actions at the start */
+		private int lastIndex(int start, int end) {
+			return Math.max(notes.indexAtOrAfter(end), notes.indexAfter(start));
+		}
+		
+		private <T extends MidiAction> List<T> collect(int from, int to, Class<T> type) {
+			List<T> list = new ArrayList<>(Math.max(to - from, 0));
+			for (int i=from; i<to; i++) {
+				MidiAction action = notes.action(i);
+				if (type.isInstance(action))
+					list.add(type.cast(action));
 			}
-			return latest;
+			return list;
 		}
 	}
 }
@@ -1,15 +1,31 @@
 package theory;
 
+/**
+ * MIDI pitch number, 60 being middle C.
+ * <p>
+ * Pitches are immutable, and there is only one instance of each pitch MIDI can play (0-127), so those
+ * can be compared with ==. Pitches outside that range are made as needed, so use equals where they may occur.
+ */
 public class MidiPitch implements Cloneable,Comparable<MidiPitch> {
 
-	private int pitch;
+	private static final MidiPitch[] PITCHES = new MidiPitch[128];
+	static {
+		for (int i=0; i<PITCHES.length; i++)
+			PITCHES[i] = new MidiPitch(i);
+	}
+	
+	private final int pitch;
 	
-	public MidiPitch(int midiPitch) {
+	private MidiPitch(int midiPitch) {
 		this.pitch = midiPitch;
 	}
 	
-	public MidiPitch(Note note, int octave) {
-		this.pitch = inOctave(note, octave);
+	public static MidiPitch of(int midiPitch) {
+		return midiPitch >= 0 && midiPitch < PITCHES.length ? PITCHES[midiPitch] : new MidiPitch(midiPitch);
+	}
+	
+	public static MidiPitch of(Note note, int octave) {
+		return of(inOctave(note, octave));
 	}
 	
 	public int get() {
@@ -21,7 +37,7 @@ public class MidiPitch implements Cloneable,Comparable<MidiPitch> {
 	 * @return a MidiPitch that is the given number of half steps above this pitch
 	 */
 	public MidiPitch above(int halfSteps) {
-		return new MidiPitch(pitch + halfSteps);
+		return of(pitch + halfSteps);
 	}
 	
 	/**
@@ -29,7 +45,7 @@ public class MidiPitch implements Cloneable,Comparable<MidiPitch> {
 	 * @return a MidiPitch that is the given number of half steps below this pitch
 	 */
 	public MidiPitch below(int halfSteps) {
-		return new MidiPitch(pitch - halfSteps);
+		return of(pitch - halfSteps);
 	}
 	
 	/**
@@ -56,17 +72,17 @@ public class MidiPitch implements Cloneable,Comparable<MidiPitch> {
 	public static int inOctave(Note note, int octave) {
 		if (octave < 0 || octave > 8)
 			throw new IllegalArgumentException("Only octaves 0-8 are currently supported");
-		return 12 + (12 * octave) + new Note(Letter.C, Accidental.NONE).halfStepsTo(note);
+		return 12 + (12 * octave) + Note.of(Letter.C).halfStepsTo(note);
 	}
 	
 	@Override
 	public MidiPitch clone() {
-		return new MidiPitch(pitch);
+		return this; // immutable
 	}
 
 	@Override
 	public int compareTo(MidiPitch o) {
-		return new Integer(pitch).compareTo(new Integer(o.pitch));
+		return Integer.compare(pitch, o.pitch);
 	}
 	
 	@Override
@@ -19,6 +19,12 @@ public enum Mode implements Scale {
 	;
 	
 	public static final int[] DIATONIC_INTERVALS = new int[] { 2, 2, 1, 2, 2, 2, 1 };
+	/** by ordinal */
+	private static final int[] PITCH_CLASSES = new int[values().length];
+	static {
+		for (Mode mode : values())
+			PITCH_CLASSES[mode.ordinal()] = PitchClassSet.ofScale(mode.intervalsFromRoot(), PitchClassSet.OCTAVE);
+	}
 	
 	@Override
 	public int[] intervals() {
@@ -30,6 +36,11 @@ public enum Mode implements Scale {
 		return intervals;
 	}
 	
+	@Override
+	public int pitchClasses() {
+		return PITCH_CLASSES[ordinal()];
+	}
+	
 //	public Scale scale() {
 //		return new ScaleImpl(intervals());
 //	}
@@ -2,10 +2,21 @@ package theory;
 
 import static composing.RandomUtil.modPos;
 
+/**
+ * A pitch class, such as C or Ab.
+ * <p>
+ * Notes are immutable, and there is only one instance of each of the twelve, so they can be compared with ==.
+ */
 public class Note implements Cloneable, Comparable<Note> {
 	
+	private static final Note[] NOTES = new Note[12];
+	static {
+		for (int i=0; i<NOTES.length; i++)
+			NOTES[i] = new Note(i);
+	}
+	
 	/** Half steps above A */
-	private int index;
+	private final int index;
 
 	private Note(int index) {
 		if (index < 0 || index > 11)
@@ -13,12 +24,22 @@ public class Note implements Cloneable, Comparable<Note> {
 		this.index = index;
 	}
 	
-	public Note(Letter letter) {
-		this(letter, Accidental.NONE);
+	public static Note of(Letter letter) {
+		return of(letter, Accidental.NONE);
+	}
+	
+	public static Note of(Letter letter, Accidental accidental) {
+		return NOTES[indexOf(letter, accidental)];
+	}
+	
+	/** @param index half steps above A, any integer */
+	public static Note ofIndex(int index) {
+		return NOTES[modPos(index, 12)];
 	}
 	
-	public Note(Letter letter, Accidental accidental) {
-		this(indexOf(letter, accidental));
+	/** @return half steps above A, from 0 to 11, so enharmonic notes share an index */
+	public int getIndex() {
+		return index;
 	}
 	
 	/**
@@ -34,7 +55,7 @@ public class Note implements Cloneable, Comparable<Note> {
 	 * @return note reached by raising this note the given number of half steps
 	 */
 	public Note halfStepsAbove(int steps) {
-		return new Note(modPos(index + steps, 12));
+		return NOTES[modPos(index + steps, 12)];
 	}
 	
 	/**
@@ -72,7 +93,7 @@ public class Note implements Cloneable, Comparable<Note> {
 	
 	@Override
 	public Note clone() {
-		return new Note(index);
+		return this; // immutable
 	}
 	
 	@Override
@@ -0,0 +1,120 @@
+package theory;
+
+import static composing.RandomUtil.modPos;
+
+/**
+ * Sets of pitch classes packed into the low 12 bits of an int, C being bit 0,
+ * so that transposing, containment and tritone tests are a few bitwise operations.
+ * <p>
+ * A set may also hold half steps above some root rather than pitch classes, as {@link Scale#pitchClasses()} does;
+ * rotating it by the root's pitch class gives the pitch classes.
+ */
+public class PitchClassSet {
+
+	public static final int EMPTY = 0;
+	public static final int CHROMATIC = 0xFFF;
+	public static final int OCTAVE = 12;
+	public static final int TRITONE = 6;
+	/** pitch class of A, which {@link Note#getIndex()} counts from */
+	private static final int A = 9;
+
+	private PitchClassSet() {} // util class
+
+	/** @return pitch class of the given MIDI pitch, from 0 (C) to 11 (B) */
+	public static int pitchClass(int midiPitch) {
+		return modPos(midiPitch, OCTAVE);
+	}
+
+	/** @return pitch class of the given note, from 0 (C) to 11 (B) */
+	public static int pitchClass(Note note) {
+		return modPos(note.getIndex() + A, OCTAVE);
+	}
+
+	/** @return the note of the given pitch class, from 0 (C) to 11 (B) */
+	public static Note note(int pitchClass) {
+		return Note.ofIndex(pitchClass - A);
+	}
+
+	/** @return set of the pitch classes of the given MIDI pitches */
+	public static int of(int... midiPitches) {
+		int set = EMPTY;
+		for (int pitch : midiPitches)
+			set = with(set, pitch);
+		return set;
+	}
+
+	/** @return the given set with the pitch class of the given MIDI pitch added */
+	public static int with(int set, int midiPitch) {
+		return set | 1 << pitchClass(midiPitch);
+	}
+
+	/**
+	 * @param intervalsFromRoot as given by {@link Scale#intervalsFromRoot()}
+	 * @param width of the scale in half steps; scales repeating more than once an octave are repeated up to the octave
+	 * @return set of half steps above the root
+	 */
+	public static int ofScale(int[] intervalsFromRoot, int width) {
+		int period = width > 0 && OCTAVE % width == 0 ? width : OCTAVE;
+		int set = EMPTY;
+		for (int start=0; start<OCTAVE; start+=period)
+			for (int interval : intervalsFromRoot)
+				set = with(set, start + interval);
+		return set;
+	}
+
+	/** @return whether the given set has the pitch class of the given MIDI pitch */
+	public static boolean contains(int set, int midiPitch) {
+		return (set & 1 << pitchClass(midiPitch)) != 0;
+	}
+
+	/** @return whether every pitch class of the given subset is in the given set */
+	public static boolean containsAll(int set, int subset) {
+		return (subset & ~set) == 0;
+	}
+
+	/** @return the given set transposed up the given number of half steps, which may be negative */
+	public static int rotate(int set, int halfSteps) {
+		int steps = modPos(halfSteps, OCTAVE);
+		return (set << steps | set >>> (OCTAVE - steps)) & CHROMATIC;
+	}
+
+	/** @return the pitch classes of the given set which have another a tritone away */
+	public static int tritones(int set) {
+		return set & rotate(set, TRITONE);
+	}
+
+	public static boolean hasTritone(int set) {
+		return tritones(set) != EMPTY;
+	}
+
+	public static int size(int set) {
+		return Integer.bitCount(set);
+	}
+
+	/** @return number of pitch classes in the given set lower than the given one */
+	public static int countBelow(int set, int pitchClass) {
+		return Integer.bitCount(set & ((1 << pitchClass) - 1));
+	}
+
+	/** @return pitch classes of the given set, lowest first */
+	public static int[] toArray(int set) {
+		int[] pitchClasses = new int[size(set)];
+		int i = 0;
+		for (int pitchClass=0; pitchClass<OCTAVE; pitchClass++)
+			if ((set & 1 << pitchClass) != 0)
+				pitchClasses[i++] = pitchClass;
+		return pitchClasses;
+	}
+
+	/** e.g. "[C E G]" */
+	public static String toString(int set) {
+		StringBuilder string = new StringBuilder("[");
+		for (int pitchClass : toArray(set)) {
+			if (string.length() > 1)
+				string.append(' ');
+			string.append(note(pitchClass));
+		}
+		return string.append(']').toString();
+	}
+
+}
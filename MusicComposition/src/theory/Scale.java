@@ -43,6 +43,11 @@ public interface Scale {
 		return retval;
 	}
 	
+	/** @return half steps above the root of each note of this scale, as a {@link PitchClassSet} */
+	public default int pitchClasses() {
+		return PitchClassSet.ofScale(intervalsFromRoot(), getWidth());
+	}
+	
 	/** @return octave size in half steps */
 	public default int getWidth() {
 		int width = 0;
@@ -9,6 +9,7 @@ public class ScaleImpl implements Scale,Cloneable {
 
 	protected String name;
 	protected int[] intervals;
+	private final int pitchClasses;
 	
 	/**
 	 * @param intervals must be an array of a positive number of positive integers
@@ -29,6 +30,7 @@ public class ScaleImpl implements Scale,Cloneable {
 			if (interval < 0)
 				throw new IllegalArgumentException("Scale intervals must be positive");
 		this.intervals = intervals;
+		this.pitchClasses = Scale.super.pitchClasses();
 	}
 	
 	/** Creates a copy of the given scale, to the extent that {@link Scale} is aware. */
@@ -48,6 +50,11 @@ public class ScaleImpl implements Scale,Cloneable {
 		return retval;
 	}
 	
+	@Override
+	public int pitchClasses() {
+		return pitchClasses;
+	}
+	
 	@Override
 	public String toString() {
 		String name = name();
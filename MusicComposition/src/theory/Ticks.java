@@ -0,0 +1,53 @@
+package theory;
+
+/**
+ * The integer time base shared by {@link Measure}, {@link theory.analysis.Phrase}
+ * and {@link performance.MidiAction}.
+ * <p>
+ * Offsets and durations are counted in ticks, {@link #PPQ} ticks to the quarter note,
+ * so that triplets and other tuplets land on exact integers which can be hashed and compared.
+ * Durations given as fractions of a whole note (e.g. 1/4.0 for a quarter note) are converted
+ * at the edges with {@link #fromWholeNotes(double)} and {@link #toWholeNotes(int)}.
+ * <p>
+ * The resolution can be configured with the system property {@value #RESOLUTION_PROPERTY}.
+ * It is fixed once this class is loaded, and should be divisible by 3 and by a few powers of 2
+ * so that common tuplets stay exact.
+ */
+public final class Ticks {
+
+	/** System property for the number of ticks per quarter note */
+	public static final String RESOLUTION_PROPERTY = "composition.ppq";
+
+	public static final int DEFAULT_PPQ = 960;
+
+	/** ticks per quarter note */
+	public static final int PPQ = Integer.getInteger(RESOLUTION_PROPERTY, DEFAULT_PPQ);
+
+	/** ticks per whole note */
+	public static final int PER_WHOLE_NOTE = 4 * PPQ;
+
+	static {
+		if (PPQ <= 0)
+			throw new IllegalStateException("Tick resolution must be positive, but "
+					+ RESOLUTION_PROPERTY + " was " + PPQ);
+	}
+
+	private Ticks() {} // util class
+
+	/**
+	 * @param wholeNotes duration or offset as a fraction of a whole note
+	 * @return the nearest whole number of ticks
+	 */
+	public static int fromWholeNotes(double wholeNotes) {
+		return (int) Math.round(wholeNotes * PER_WHOLE_NOTE);
+	}
+
+	/**
+	 * @param ticks duration or offset in ticks
+	 * @return the same duration or offset as a fraction of a whole note
+	 */
+	public static double toWholeNotes(int ticks) {
+		return ticks / (double) PER_WHOLE_NOTE;
+	}
+
+}
@@ -1,29 +1,130 @@
 package theory.analysis;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
+import performance.instrument.Instrument;
+import theory.EventTimeline;
+import theory.Key;
+import theory.Measure;
+import theory.PitchClassSet;
+
+/**
+ * What is known about a piece so far: its motifs and sections, and the pitch classes of every measure composed.
+ * <p>
+ * Measures are added as they are composed, keeping a running count of each pitch class, so the pitch classes
+ * and key of any range of recent measures can be looked up without going back over the measures themselves.
+ */
 public class Analysis {
 
+	/** default number of recent measures whose pitch classes can be looked up */
+	public static final int DEFAULT_WINDOW = 256;
+	/** number of measures, ending with each measure, from which {@link #getInferredKey(int)} is inferred */
+	public static final int KEY_WINDOW = 4;
+
 	private Set<Phrase> motifs;
+	/** in order of {@link PieceSection#compareTo(PieceSection)} */
 	private List<PieceSection> sections;
+	/** latest measure number contained by each section or any section before it, so lookups can stop early */
+	private int[] lastEnds;
+	private final List<Section> sectionsView;
+	private int firstStartOfSection;
+	private int lastEndOfSection;
 	private List<Object> views;
 	
+	/** number of measures whose pitch classes can be looked up */
+	private final int window;
+	/** 
+	 * count of each pitch class over every measure up to and including each of the last window measures, 
+	 * twelve counts per measure, with room for the measure before the window to subtract from
+	 */
+	private final int[] counts;
+	/** inferred key of each of the last window measures */
+	private final Key[] keys;
+	private int measures;
+	
 	public Analysis() {
+		this(DEFAULT_WINDOW);
+	}
+	
+	/** @param window number of recent measures whose pitch classes can be looked up */
+	public Analysis(int window) {
+		if (window < KEY_WINDOW)
+			throw new IllegalArgumentException("Window must be at least " + KEY_WINDOW + " measures, not " + window);
 		this.motifs = new HashSet<>();
 		this.sections = new ArrayList<>();
+		this.lastEnds = new int[16];
+		this.sectionsView = Collections.unmodifiableList(new AbstractList<Section>() {
+			@Override public Section get(int index) { return sections.get(index).get(); }
+			@Override public int size() { return sections.size(); }
+		});
 		this.views = new ArrayList<>();
+		this.window = window;
+		this.counts = new int[(window + 1) * PitchClassSet.OCTAVE];
+		this.keys = new Key[window + 1];
 	}
 	
 	public Set<Phrase> getMotifs() {
 		return motifs;
 	}
 	
+	/** @return unmodifiable view of the sections, in order of the measures they start and end on */
 	public List<Section> getSections() {
-		return sections.stream().sorted().map(PieceSection::get).collect(Collectors.toList());
+		return sectionsView;
+	}
+	
+	public int sectionCount() {
+		return sections.size();
+	}
+	
+	/** @param index of the section, in order of the measures they start and end on */
+	public Section getSection(int index) {
+		return sections.get(index).get();
+	}
+	
+	/** @return the section starting latest, or <code>null</code> if there are none */
+	public Section lastSection() {
+		return sections.isEmpty() ? null : sections.get(sections.size() - 1).get();
+	}
+	
+	/** @return measure number of the first measure of the section at the given index */
+	public int getSectionStart(int index) {
+		return sections.get(index).firstMeasureNumber();
+	}
+	
+	/**
+	 * Takes logarithmic time, as long as sections overlap no more than a few at a time.
+	 * 
+	 * @param measureNumber any measure number
+	 * @return index of the latest starting section containing the given measure, or -1 if none does
+	 */
+	public int indexOfSection(int measureNumber) {
+		// last section starting at or before the measure
+		int low = 0;
+		int high = sections.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (sections.get(middle).firstMeasureNumber() <= measureNumber)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		for (int index=high; index>=0 && lastEnds[index]>=measureNumber; index--)
+			if (sections.get(index).lastMeasureNumber() >= measureNumber)
+				return index;
+		return -1;
+	}
+	
+	/** @return the latest starting section containing the given measure, or <code>null</code> if none does */
+	public Section sectionContaining(int measureNumber) {
+		int index = indexOfSection(measureNumber);
+		return index < 0 ? null : sections.get(index).get();
 	}
 	
 	public void addSection(Section section) {
@@ -31,18 +132,147 @@ public class Analysis {
 	}
 	
 	public void addSection(int firstMeasureNumber, Section section) {
-		sections.add(new PieceSection(firstMeasureNumber, section));
+		PieceSection added = new PieceSection(firstMeasureNumber, section);
+		int size = sections.size();
+		if (size == lastEnds.length)
+			lastEnds = Arrays.copyOf(lastEnds, 2 * size);
+		if (size == 0 || sections.get(size - 1).compareTo(added) <= 0) {
+			// the usual case, following on from the last section
+			sections.add(added);
+			lastEnds[size] = Math.max(size == 0 ? 0 : lastEnds[size - 1], added.lastMeasureNumber());
+		} else {
+			int index = Collections.binarySearch(sections, added);
+			if (index < 0)
+				index = -index - 1;
+			while (index < size && sections.get(index).compareTo(added) == 0)
+				index++; // after any equal sections, as they were added first
+			sections.add(index, added);
+			for (int i=index; i<=size; i++)
+				lastEnds[i] = Math.max(i == 0 ? 0 : lastEnds[i - 1], sections.get(i).lastMeasureNumber());
+		}
+		firstStartOfSection = Math.max(firstStartOfSection, added.firstMeasureNumber());
+		lastEndOfSection = Math.max(lastEndOfSection, added.lastMeasureNumber());
+	}
+	
+	/**
+	 * Drops the leading sections which end before the given measure, so that a piece of any length can be analysed
+	 * in bounded memory. {@link #firstStartOfSection()} and {@link #lastEndOfSection()} are unaffected.
+	 * 
+	 * @return number of sections dropped
+	 */
+	public int forgetSectionsBefore(int measureNumber) {
+		int forgotten = 0;
+		while (forgotten < sections.size() && sections.get(forgotten).lastMeasureNumber() < measureNumber)
+			forgotten++;
+		if (forgotten > 0) {
+			sections.subList(0, forgotten).clear();
+			for (int i=0; i<sections.size(); i++)
+				lastEnds[i] = Math.max(i == 0 ? 0 : lastEnds[i - 1], sections.get(i).lastMeasureNumber());
+		}
+		return forgotten;
 	}
 	
 	public int firstStartOfSection() {
-		return sections.stream().mapToInt(PieceSection::firstMeasureNumber).max().orElse(0);
+		return firstStartOfSection;
 	}
 	
 	/**
 	 * @return measure number of the latest measure that is contained by a section
 	 */
 	public int lastEndOfSection() {
-		return sections.stream().mapToInt(PieceSection::lastMeasureNumber).max().orElse(0);
+		return lastEndOfSection;
+	}
+	
+	/** @return number of measures added to this analysis, which is the measure number of the last */
+	public int measuresAnalysed() {
+		return measures;
+	}
+	
+	/**
+	 * Counts the pitch classes of every note in the given measure, 
+	 * and infers the key of the {@link #KEY_WINDOW} measures ending with it.
+	 * The measure should be finished, as later changes to it are not counted.
+	 * 
+	 * @param measure the next measure of the piece
+	 */
+	public void addMeasure(Measure measure) {
+		int from = slot(measures) * PitchClassSet.OCTAVE;
+		int to = slot(measures + 1) * PitchClassSet.OCTAVE;
+		System.arraycopy(counts, from, counts, to, PitchClassSet.OCTAVE);
+		for (Instrument instrument : measure.getInstruments()) {
+			EventTimeline timeline = measure.getTimeline(instrument);
+			for (int i=0; i<timeline.size(); i++)
+				if (timeline.isNote(i))
+					counts[to + PitchClassSet.pitchClass(timeline.pitch(i))]++;
+		}
+		measures++;
+		int recent = pitchClasses(Math.max(1, measures - KEY_WINDOW + 1), measures);
+		keys[slot(measures)] = recent == PitchClassSet.EMPTY ? null : Key.inferKey(recent);
+	}
+	
+	/**
+	 * Scans the given measures directly, e.g. a few still being written, which cannot be added yet.
+	 * 
+	 * @return the pitch classes sounded in the given measures, as a {@link PitchClassSet}
+	 */
+	public static int pitchClasses(Collection<Measure> measures) {
+		int set = PitchClassSet.EMPTY;
+		for (Measure measure : measures) {
+			for (Instrument instrument : measure.getInstruments()) {
+				EventTimeline timeline = measure.getTimeline(instrument);
+				for (int i=0; i<timeline.size(); i++)
+					if (timeline.isNote(i))
+						set |= 1 << PitchClassSet.pitchClass(timeline.pitch(i));
+			}
+		}
+		return set;
+	}
+	
+	/**
+	 * @param firstMeasureNumber inclusive, within the window of recent measures
+	 * @param lastMeasureNumber inclusive, already added
+	 * @param pitchClass from 0 (C) to 11 (B)
+	 * @return number of notes of the given pitch class in the given measures
+	 */
+	public int count(int firstMeasureNumber, int lastMeasureNumber, int pitchClass) {
+		checkRange(firstMeasureNumber, lastMeasureNumber);
+		return counts[slot(lastMeasureNumber) * PitchClassSet.OCTAVE + pitchClass]
+				- counts[slot(firstMeasureNumber - 1) * PitchClassSet.OCTAVE + pitchClass];
+	}
+	
+	/** @return the pitch classes sounded in the given measures, as a {@link PitchClassSet} */
+	public int pitchClasses(int firstMeasureNumber, int lastMeasureNumber) {
+		checkRange(firstMeasureNumber, lastMeasureNumber);
+		int last = slot(lastMeasureNumber) * PitchClassSet.OCTAVE;
+		int beforeFirst = slot(firstMeasureNumber - 1) * PitchClassSet.OCTAVE;
+		int set = PitchClassSet.EMPTY;
+		for (int pitchClass=0; pitchClass<PitchClassSet.OCTAVE; pitchClass++)
+			if (counts[last + pitchClass] > counts[beforeFirst + pitchClass])
+				set |= 1 << pitchClass;
+		return set;
+	}
+	
+	/** @see Key#inferKey(int) */
+	public Key inferKey(int firstMeasureNumber, int lastMeasureNumber) {
+		return Key.inferKey(pitchClasses(firstMeasureNumber, lastMeasureNumber));
+	}
+	
+	/** @return the key inferred from the {@link #KEY_WINDOW} measures ending with the given one, or <code>null</code> if they are silent */
+	public Key getInferredKey(int measureNumber) {
+		checkRange(measureNumber, measureNumber);
+		return keys[slot(measureNumber)];
+	}
+	
+	private void checkRange(int firstMeasureNumber, int lastMeasureNumber) {
+		if (firstMeasureNumber < 1 || lastMeasureNumber < firstMeasureNumber || lastMeasureNumber > measures)
+			throw new IllegalArgumentException("Measures " + firstMeasureNumber + " to " + lastMeasureNumber 
+					+ " not analysed; " + measures + " measures have been");
+		if (firstMeasureNumber <= measures - window)
+			throw new IllegalArgumentException("Measure " + firstMeasureNumber + " is more than " + window + " measures back");
+	}
+	
+	private int slot(int measureNumber) {
+		return measureNumber % (window + 1);
 	}
 	
 	/**
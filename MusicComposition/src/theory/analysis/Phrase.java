@@ -1,44 +1,40 @@
 package theory.analysis;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import performance.MidiAction;
+import theory.EventTimeline;
+import theory.Ticks;
 
 public class Phrase implements Cloneable {
 	
-	private Map<Double,List<MidiAction>> notes;
+	private EventTimeline notes;
 
 	public Phrase() {
-		this.notes = new HashMap<>();
+		this.notes = new EventTimeline();
 	}
 	
 	/** @return starting time of the first note in this phrase */
 	public double getStart() {
-		if (notes.isEmpty())
-			return 0;
-		double earliest = Integer.MAX_VALUE;
-		for (Double dub : notes.keySet()) {
-			if (!notes.get(dub).isEmpty())
-				earliest = Math.min(earliest, dub);
-		}
-		return earliest;
+		return Ticks.toWholeNotes(getStartTick());
+	}
+	
+	/** @return starting tick of the first note in this phrase */
+	public int getStartTick() {
+		return notes.isEmpty() ? 0 : notes.onset(0);
 	}
 	
 	/** @return ending time of the last note in this phrase */
 	public double getEnd() {
-		if (notes.isEmpty())
-			return 0;
-		double latest = Integer.MIN_VALUE;
-		for (Double dub : notes.keySet()) {
-			for (MidiAction note : notes.get(dub)) {
-				latest = Math.max(latest, dub + note.getDuration());
-			}
-		}
-		return latest;
+		return Ticks.toWholeNotes(getEndTick());
+	}
+	
+	/** @return ending tick of the last note in this phrase */
+	public int getEndTick() {
+		return notes.latestEnd();
 	}
 	
 	/** @return duration of the phrase from {@link #getStart()} to {@link #getEnd()} */
@@ -48,12 +44,20 @@ public class Phrase implements Cloneable {
 	
 	/** @return a copy of this phrase's map of times and notes */
 	public Map<Double,List<MidiAction>> getNotes() {
-		return new HashMap<>(notes);
+		Map<Double,List<MidiAction>> map = new HashMap<>();
+		for (int i=0; i<notes.size(); i++)
+			map.computeIfAbsent(Ticks.toWholeNotes(notes.onset(i)), time -> new ArrayList<>()).add(notes.action(i));
+		return map;
+	}
+	
+	/** @return this phrase's notes sorted by tick; this is the phrase's own storage */
+	public EventTimeline getTimeline() {
+		return notes;
 	}
 	
 	/** @param note to be added to the end of this phrase */
 	public void add(MidiAction note) {
-		add(note, getEnd());
+		notes.add(note, getEndTick());
 	}
 	
 	/**
@@ -61,12 +65,7 @@ public class Phrase implements Cloneable {
 	 * @param offset time in this phrase to add the given note
 	 */
 	public void add(MidiAction note, double offset) {
-		List<MidiAction> list = notes.get(new Double(offset));
-		if (list == null) {
-			list = new ArrayList<>();
-			notes.put(new Double(offset), list);
-		}
-		list.add(note);
+		notes.add(note, Ticks.fromWholeNotes(offset));
 	}
 	
 	/** 
@@ -74,7 +73,7 @@ public class Phrase implements Cloneable {
 	 * @see #absorb(Phrase, double)
 	 */
 	public void add(Phrase other) {
-		absorb(other, getEnd());
+		notes.addAll(other.notes, getEndTick());
 	}
 	
 	/** 
@@ -102,10 +101,7 @@ public class Phrase implements Cloneable {
 	 * @param offset time in this phrase to set the given phrase's 0 time mark
 	 */
 	public void absorb(Phrase other, double offset) {
-		Map<Double, List<MidiAction>> otherNotes = other.notes;
-		for (Double time : otherNotes.keySet())
-			for (MidiAction note : otherNotes.get(time))
-				add(note, time + offset);
+		notes.addAll(other.notes, Ticks.fromWholeNotes(offset));
 	}
 
 	/**
@@ -129,31 +125,22 @@ public class Phrase implements Cloneable {
 		if (timeRatio <= 0)
 			throw new IllegalArgumentException("Only positive ratios accepted for expansions.");
 		Phrase phrase = new Phrase();
-		for (Double time : notes.keySet()) {
-			List<MidiAction> list = notes.get(time);
-			List<MidiAction> newList = new ArrayList<>();
-			for (MidiAction note : list)
-				newList.add(note.expand(timeRatio));
-			phrase.notes.put(time*timeRatio, newList);
-		}
+		for (int i=0; i<notes.size(); i++)
+			phrase.notes.add(notes.action(i).expand(timeRatio), (int) Math.round(notes.onset(i)*timeRatio));
 		return phrase;
 	}
 	
 	public String timesAndNotes() {
-		String phraseString = "";
-		Map<Double, List<MidiAction>> phraseNotes = getNotes();
-		ArrayList<Double> times = new ArrayList<>(phraseNotes.keySet());
-		Collections.sort(times);
-		for (Double time : times) {
-			phraseString += String.format("(%.2f,", time);
-			List<MidiAction> list = phraseNotes.get(time);
-			for (MidiAction phraseNote : list) {
-				phraseString += phraseNote.getDuration() + ",";
-			}
-			phraseString = phraseString.substring(0, phraseString.length() - 1);
-			phraseString += ") ";
+		StringBuilder phraseString = new StringBuilder();
+		for (int i=0; i<notes.size(); i++) {
+			int tick = notes.onset(i);
+			if (i == 0 || tick != notes.onset(i-1))
+				phraseString.append(String.format("(%.2f", Ticks.toWholeNotes(tick)));
+			phraseString.append(",").append(notes.action(i).getDuration());
+			if (i == notes.size()-1 || tick != notes.onset(i+1))
+				phraseString.append(") ");
 		}
-		return phraseString;
+		return phraseString.toString();
 	}
 	
 	@Override
@@ -1,10 +1,9 @@
 package theory.progression;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -13,8 +12,8 @@ import theory.ChordSpec;
 import theory.ChordSpec.Degree;
 import theory.ChordSpec.Quality;
 import theory.Key;
-import theory.MidiPitch;
 import theory.Note;
+import theory.PitchClassSet;
 import theory.progression.ChordProgressions.ChordProgression.ProgressionNode;
 
 /**
@@ -79,9 +78,11 @@ public class ChordProgressions {
 	public static class ChordProgression implements Cloneable, Iterable<ProgressionNode> {
 
 		protected Set<ProgressionNode> nodes;
+		/** compiled on demand, and dropped whenever this progression changes */
+		private volatile ProgressionGraph graph;
 
 		public ChordProgression() {
-			this.nodes = new HashSet<>();
+			this.nodes = new LinkedHashSet<>(); // keeps node ids in the order chords were added
 		}
 		
 		protected ProgressionNode get(ChordSpec chord) {
@@ -109,6 +110,7 @@ public class ChordProgressions {
 			}
 			for (int i=0; i<weight; i++)
 				fromNode.addSuccessor(toNode);
+			graph = null;
 		}
 		
 		protected ProgressionNode node(ChordSpec spec) {
@@ -121,13 +123,26 @@ public class ChordProgressions {
 			if (fromNode == null || toNode == null)
 				throw new IllegalStateException("Mapping not present in this ChordProgression");
 			fromNode.removeSuccessor(toNode);
+			graph = null;
 		}
 
 		public ChordSpec getNext(ChordSpec from) {
-			ProgressionNode fromNode = get(from);
-			if (fromNode == null)
-				throw new IllegalArgumentException("Chord not present in this ChordProgression");
-			return fromNode.getRandomSuccessor().getChord();
+			return compile().getNext(from);
+		}
+		
+		/** @return immutable graph of this progression as it stands, which is compiled once per change */
+		public ProgressionGraph compile() {
+			ProgressionGraph compiled = graph;
+			if (compiled == null)
+				graph = compiled = new ProgressionGraph(nodes);
+			return compiled;
+		}
+		
+		/** @return node for the given chord, looked up in the compiled graph, or null if there is none */
+		protected ProgressionNode find(ChordSpec chord) {
+			ProgressionGraph compiled = compile();
+			int id = compiled.id(chord);
+			return id < 0 ? null : compiled.node(id);
 		}
 		
 		@Override
@@ -171,10 +186,6 @@ public class ChordProgressions {
 				successors.removeAll(list);
 			}
 
-			public ProgressionNode getRandomSuccessor() {
-				return successors.get((int) (Math.random()*successors.size()));
-			}
-
 			protected List<ProgressionNode> getSuccessors() {
 				return new ArrayList<>(successors);
 			}
@@ -190,18 +201,17 @@ public class ChordProgressions {
 			protected abstract Comparator<List<ProgressionNode>> pathComparator();
 			
 			public List<ChordSpec> progress(ChordSpec fromChord, ChordSpec toChord, int maxChords) {
-				ProgressionNode fromNode = get(fromChord);
-				ProgressionNode toNode = get(toChord);
+				ProgressionGraph graph = compile();
+				int from = graph.id(fromChord);
+				int to = graph.id(toChord);
 				
 				// check inputs:
-				if (fromNode == null)
+				if (from < 0)
 					throw new IllegalArgumentException("Requested chord not present in this progression: " + fromChord);
-				if (toNode == null)
+				if (to < 0)
 					throw new IllegalArgumentException("Requested chord not present in this progression: " + toChord);
 				
-				ArrayList<ProgressionNode> list = new ArrayList<>();
-				list.add(fromNode);
-				List<ProgressionNode> result = recurse(list, toNode, maxChords);
+				List<ProgressionNode> result = search(graph, from, to, maxChords);
 				if (result == null)
 					throw new RuntimeException("No valid progression found to fulfill the given requirements.");
 				
@@ -210,35 +220,93 @@ public class ChordProgressions {
 			}
 			
 			/**
-			 * @param visited
-			 * @param destination
+			 * Called while searching, to give up on paths which cannot lead anywhere better than what's been found.
+			 * 
+			 * @param partial path so far, starting from the first chord and not yet at the destination
+			 * @param best preferred complete path found so far
 			 * @param maxChords max number of chords to include, counting first and last
-			 * @return
+			 * @return false if no path starting with the partial one would come before the best one in {@link #pathComparator()}
 			 */
-			private List<ProgressionNode> recurse(List<ProgressionNode> visited, ProgressionNode destination, int maxChords) {
-				if (visited.size() >= maxChords)
+			protected boolean canImprove(List<ProgressionNode> partial, List<ProgressionNode> best, int maxChords) {
+				return true;
+			}
+			
+			/**
+			 * Finds the path {@link #pathComparator()} puts first, among all paths from one chord to another which
+			 * stop on reaching the destination and have fewer than maxChords chords; ties go to the path found first,
+			 * trying successors in the order they were added.
+			 * <p>
+			 * Weighted successors are only tried once, as the compiled graph stores them, and chords which cannot
+			 * reach the destination within the remaining number of chords (worked out once per call, for every
+			 * chord and length) are never tried, so only paths which actually arrive are walked, each without copying.
+			 * 
+			 * @param graph this progression, compiled
+			 * @param from id of the first chord
+			 * @param destination id of the last chord
+			 * @param maxChords max number of chords to include, counting first and last
+			 * @return path, or null if there is none
+			 */
+			private List<ProgressionNode> search(ProgressionGraph graph, int from, int destination, int maxChords) {
+				int maxSteps = maxChords - 2;
+				if (maxSteps < 1)
 					return null;
-				ProgressionNode lastChord = visited.get(visited.size()-1);
-				if (lastChord.equals(destination) && visited.size() > 1)
-					return visited;
-				
-				List<List<ProgressionNode>> paths = new ArrayList<>();
 				
-				for (ProgressionNode successor : lastChord.getSuccessors()) {
-					// commenting to allow repeats:
-	//				if (visited.contains(successor))
-	//					continue;
-					ArrayList<ProgressionNode> visited2 = new ArrayList<>(visited);
-					visited2.add((ProgressionNode) successor);
-					paths.add(recurse(visited2, destination, maxChords));
+				// arrives[steps][node]: node can reach the destination within that many steps, without passing through it first
+				boolean[][] arrives = new boolean[maxSteps+1][graph.size()];
+				for (int steps=1; steps<=maxSteps; steps++) {
+					for (int node=0; node<graph.size(); node++) {
+						for (int successor : graph.successors(node)) {
+							if (successor == destination || arrives[steps-1][successor]) {
+								arrives[steps][node] = true;
+								break;
+							}
+						}
+					}
 				}
+				if (!arrives[maxSteps][from])
+					return null;
 				
-				// prune dead ends:
-				paths.removeIf(path -> path == null);
+				PathSearch search = new PathSearch(graph, arrives, destination, maxChords);
+				search.path.add(graph.node(from));
+				search.extend(from, maxSteps);
+				return search.best;
+			}
+			
+			private class PathSearch {
 				
-				Collections.sort(paths, pathComparator());
+				private final ProgressionGraph graph;
+				private final boolean[][] arrives;
+				private final int target;
+				private final int maxChords;
+				private final Comparator<List<ProgressionNode>> comparator = pathComparator();
+				private final List<ProgressionNode> path = new ArrayList<>();
+				private List<ProgressionNode> best;
 				
-				return paths.isEmpty() ? null : paths.get(0);
+				private PathSearch(ProgressionGraph graph, boolean[][] arrives, int target, int maxChords) {
+					this.graph = graph;
+					this.arrives = arrives;
+					this.target = target;
+					this.maxChords = maxChords;
+				}
+				
+				/**
+				 * @param node last chord of the path so far
+				 * @param steps number of chords which may still be added
+				 */
+				private void extend(int node, int steps) {
+					for (int successor : graph.successors(node)) {
+						if (successor != target && (steps == 1 || !arrives[steps-1][successor]))
+							continue; // dead end
+						path.add(graph.node(successor));
+						if (successor == target) {
+							if (best == null || comparator.compare(path, best) < 0)
+								best = new ArrayList<>(path);
+						} else if (best == null || canImprove(path, best, maxChords)) {
+							extend(successor, steps-1);
+						}
+						path.remove(path.size()-1);
+					}
+				}
 			}
 			
 		}
@@ -277,6 +345,11 @@ public class ChordProgressions {
 				@Override public int compare(List<ProgressionNode> o1, List<ProgressionNode> o2) { return 0; }};
 		}
 
+		@Override
+		protected boolean canImprove(List<ProgressionNode> partial, List<ProgressionNode> best, int maxChords) {
+			return false; // every path ties, so the first one found stands
+		}
+
 		@Override
 		public KeyChordProgression clone() {
 			KeyChordProgression clone = new KeyChordProgression(key);
@@ -312,14 +385,9 @@ public class ChordProgressions {
 		
 		@Override
 		protected ProgressionNode node(ChordSpec spec) {
-			boolean inFromKey = true;
-			boolean inToKey = true;
-			for (MidiPitch pitch : spec.build()) {
-				if (!from.key.contains(pitch))
-					inFromKey = false;
-				if (!to.key.contains(pitch))
-					inToKey = false;
-			}
+			int chord = spec.interned().pitchClasses();
+			boolean inFromKey = PitchClassSet.containsAll(from.key.pitchClasses(), chord);
+			boolean inToKey = PitchClassSet.containsAll(to.key.pitchClasses(), chord);
 			return new KeyChangeProgressionNode(spec, inFromKey, inToKey);
 		}
 		
@@ -332,17 +400,17 @@ public class ChordProgressions {
 		}
 		
 		public boolean isInFromKey(ChordSpec chord) {
-			KeyChangeProgressionNode node = (KeyChangeProgressionNode) get(chord);
+			KeyChangeProgressionNode node = (KeyChangeProgressionNode) find(chord);
 			return (node == null) ? false : (node.isInFromKey());
 		}
 		
 		public boolean isInToKey(ChordSpec chord) {
-			KeyChangeProgressionNode node = (KeyChangeProgressionNode) get(chord);
+			KeyChangeProgressionNode node = (KeyChangeProgressionNode) find(chord);
 			return (node == null) ? false : (node.isInToKey());
 		}
 		
 		public boolean isInBothKeys(ChordSpec chord) {
-			KeyChangeProgressionNode node = (KeyChangeProgressionNode) get(chord);
+			KeyChangeProgressionNode node = (KeyChangeProgressionNode) find(chord);
 			return (node == null) ? false : (node.isInFromKey() && node.isInToKey());
 		}
 		
@@ -372,6 +440,24 @@ public class ChordProgressions {
 			return progression;
 		}
 
+		@Override
+		protected boolean canImprove(List<ProgressionNode> partial, List<ProgressionNode> best, int maxChords) {
+			if (best.size() < maxChords - 1)
+				return true; // a longer path may yet turn up
+			// nothing is longer than the best, so only as few repeats could beat it; repeats never go away
+			return duplicates(partial) <= duplicates(best);
+		}
+
+		/** @return whether the chord before last is built on the fifth scale degree of the "to" key */
+		private boolean endsWithDominant(List<ProgressionNode> path) {
+			Note penultimateChordTonic = path.get(path.size()-2).getChord().getTonic();
+			return to.key.contains(penultimateChordTonic) && to.key.scaleDegree(penultimateChordTonic) == 5;
+		}
+
+		private static long duplicates(List<ProgressionNode> path) {
+			return path.size() - path.stream().distinct().count();
+		}
+
 		@Override
 		protected Comparator<List<ProgressionNode>> pathComparator() {
 			return new Comparator<List<ProgressionNode>>(){
@@ -382,8 +468,8 @@ public class ChordProgressions {
 						return path2.size() - path1.size(); // puts longer path first
 					
 					// prefer non-repetitive progressions (fewer chord repeats)
-					long path1Duplicates = path1.size() - path1.stream().distinct().count();
-					long path2Duplicates = path2.size() - path2.stream().distinct().count();
+					long path1Duplicates = duplicates(path1);
+					long path2Duplicates = duplicates(path2);
 					if (path1Duplicates != path2Duplicates)
 						return (int) (path1Duplicates - path2Duplicates); // puts path with fewer duplicates first
 					
@@ -398,6 +484,7 @@ public class ChordProgressions {
 						else
 							streak = 0;
 					}
+					streak = 0;
 					for (ProgressionNode node : path2) {
 						if (((KeyChangeProgressionNode) node).isInFromKey()
 								&& ((KeyChangeProgressionNode) node).isInToKey())
@@ -422,17 +509,10 @@ public class ChordProgressions {
 //						return (int) (path2CommonChords - path1CommonChords); // flipped to put greater one first
 					
 					// favor the path with a full cadence
-					Note path1PenultimateChordTonic = path1.get(path1.size()-2).getChord().getTonic();
-					Note path2PenultimateChordTonic = path2.get(path1.size()-2).getChord().getTonic();
-					int scaleDegree1 = to.getKey().scaleDegree(path1PenultimateChordTonic);
-					int scaleDegree2 = to.getKey().scaleDegree(path2PenultimateChordTonic);
-					if (scaleDegree1 == 5) {
-						if (scaleDegree2 == 5) {}
-						else { return -1; }
-					} else {
-						if (scaleDegree2 == 5) { return 1; }
-						else {}
-					}
+					boolean cadence1 = endsWithDominant(path1);
+					boolean cadence2 = endsWithDominant(path2);
+					if (cadence1 != cadence2)
+						return cadence1 ? -1 : 1;
 					
 					return 0; // TODO other criteria
 				}
@@ -0,0 +1,170 @@
+package theory.progression;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import composing.RandomUtil;
+import theory.ChordSpec;
+import theory.progression.ChordProgressions.ChordProgression;
+import theory.progression.ChordProgressions.ChordProgression.ProgressionNode;
+
+/**
+ * Immutable, compiled form of a {@link ChordProgression}, which stays the mutable builder.
+ * <p>
+ * Nodes are numbered densely in the order they were added and looked up by the tonic of their chord.
+ * Each node's successors are stored once, with their weights, and sampled with a Walker alias table,
+ * so {@link #getNext(ChordSpec)} takes constant time, allocates nothing, and may be called from any
+ * number of composers at once.
+ */
+public final class ProgressionGraph {
+
+	private static final int NO_NODE = -1;
+	private static final int NOTES = 12;
+
+	private final ProgressionNode[] nodes;
+	/** node id by {@link ChordSpec#getTonicIndex()} */
+	private final int[] byTonic;
+	/** distinct successor ids of each node, in the order first added */
+	private final int[][] successors;
+	private final int[][] weights;
+	/** sum of each node's weights, which is the height of each column of its alias table */
+	private final int[] totalWeights;
+	/** column heights below which a column's own successor is picked, rather than its alias */
+	private final int[][] cutoffs;
+	private final int[][] aliases;
+
+	ProgressionGraph(Collection<ProgressionNode> progressionNodes) {
+		nodes = progressionNodes.toArray(new ProgressionNode[progressionNodes.size()]);
+		byTonic = new int[NOTES];
+		Arrays.fill(byTonic, NO_NODE);
+		Map<ProgressionNode,Integer> ids = new IdentityHashMap<>();
+		for (int id=0; id<nodes.length; id++) {
+			ids.put(nodes[id], id);
+			byTonic[nodes[id].getChord().getTonicIndex()] = id;
+		}
+
+		successors = new int[nodes.length][];
+		weights = new int[nodes.length][];
+		totalWeights = new int[nodes.length];
+		cutoffs = new int[nodes.length][];
+		aliases = new int[nodes.length][];
+		for (int id=0; id<nodes.length; id++) {
+			List<Integer> distinct = new ArrayList<>();
+			List<Integer> counts = new ArrayList<>();
+			for (ProgressionNode successor : nodes[id].successors) {
+				Integer successorId = ids.get(successor);
+				if (successorId == null)
+					throw new IllegalStateException(successor.getChord() + " follows " + nodes[id].getChord() + " but is not in the progression");
+				int index = distinct.indexOf(successorId);
+				if (index < 0) {
+					distinct.add(successorId);
+					counts.add(1);
+				} else {
+					counts.set(index, counts.get(index) + 1);
+				}
+			}
+			successors[id] = distinct.stream().mapToInt(Integer::intValue).toArray();
+			weights[id] = counts.stream().mapToInt(Integer::intValue).toArray();
+			totalWeights[id] = counts.stream().mapToInt(Integer::intValue).sum();
+			cutoffs[id] = new int[distinct.size()];
+			aliases[id] = new int[distinct.size()];
+			buildAliasTable(weights[id], totalWeights[id], cutoffs[id], aliases[id]);
+		}
+	}
+
+	/**
+	 * Vose's method, in whole numbers: every column is totalWeight high, and each weight is scaled
+	 * by the number of columns, so the table is exact.
+	 */
+	private static void buildAliasTable(int[] weights, int totalWeight, int[] cutoffs, int[] aliases) {
+		int columns = weights.length;
+		int[] scaled = new int[columns];
+		Deque<Integer> small = new ArrayDeque<>();
+		Deque<Integer> large = new ArrayDeque<>();
+		for (int i=0; i<columns; i++) {
+			scaled[i] = weights[i] * columns;
+			aliases[i] = i;
+			if (scaled[i] < totalWeight)
+				small.add(i);
+			else
+				large.add(i);
+		}
+		while (!small.isEmpty() && !large.isEmpty()) {
+			int less = small.poll();
+			int more = large.peek();
+			cutoffs[less] = scaled[less];
+			aliases[less] = more;
+			scaled[more] -= totalWeight - scaled[less];
+			if (scaled[more] < totalWeight)
+				small.add(large.poll());
+		}
+		// whatever is left is exactly full, having no rounding error to make up for
+		for (int i : large)
+			cutoffs[i] = totalWeight;
+		for (int i : small)
+			cutoffs[i] = totalWeight;
+	}
+
+	/** @return number of nodes, whose ids run from 0 up to it */
+	public int size() {
+		return nodes.length;
+	}
+
+	/** @return id of the node for the given chord, matched by tonic, or -1 if it is not in this graph */
+	public int id(ChordSpec chord) {
+		return byTonic[chord.getTonicIndex()];
+	}
+
+	public ChordSpec chord(int id) {
+		return nodes[id].getChord();
+	}
+
+	ProgressionNode node(int id) {
+		return nodes[id];
+	}
+
+	/** @return ids of the distinct successors of the given node, which must not be modified */
+	int[] successors(int id) {
+		return successors[id];
+	}
+
+	/** @return how many times the given successor was put after the given node, or 0 if it never was */
+	public int weight(int fromId, int toId) {
+		for (int i=0; i<successors[fromId].length; i++)
+			if (successors[fromId][i] == toId)
+				return weights[fromId][i];
+		return 0;
+	}
+
+	/**
+	 * @param id of a node with at least one successor
+	 * @return id of a successor, picked at random by weight
+	 */
+	public int next(int id) {
+		int[] column = successors[id];
+		if (column.length == 0)
+			throw new IllegalStateException("Nothing follows " + nodes[id].getChord() + " in this progression");
+		// one draw picks both the column and the height within it
+		int draw = RandomUtil.random(column.length * totalWeights[id]);
+		int i = draw / totalWeights[id];
+		return draw % totalWeights[id] < cutoffs[id][i] ? column[i] : column[aliases[id][i]];
+	}
+
+	/**
+	 * @param from chord present in this graph
+	 * @return a chord which may follow the given one, picked at random by weight
+	 */
+	public ChordSpec getNext(ChordSpec from) {
+		int id = id(from);
+		if (id == NO_NODE)
+			throw new IllegalArgumentException("Chord not present in this ChordProgression");
+		return nodes[next(id)].getChord();
+	}
+
+}
@@ -10,6 +10,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import theory.BuiltChord;
 import theory.Chord;
 import theory.ChordSpec;
 import theory.Key;
@@ -33,16 +34,16 @@ public class VoiceLeading {
 	public static Chord voiceLead(Chord lastChord, ChordSpec nextChordSpec, int bassMin, int bassMax) {
 		Chord retval = new Chord();
 		
-		Chord nextChord = nextChordSpec.build();
+		BuiltChord nextChord = nextChordSpec.interned();
 //		System.out.println("Voice leading to pitches: ");
 //		for (MidiPitch pitch : nextChord.get())
 //			System.out.println(pitch);
-		if (lastChord.isEmpty() || nextChord.isEmpty())
+		if (lastChord.isEmpty() || nextChord.size() == 0)
 			return retval;
 		List<MidiPitch> lastChordPitches = lastChord.get();
 		MidiPitch previousBassPitch = lastChordPitches.get(0);
 		
-		Note bassNote = Key.toFlatNote(nextChord.get().get(0));
+		Note bassNote = Key.toFlatNote(MidiPitch.of(nextChord.lowest()));
 		
 		// decide which way to take the bass note
 		MidiPitch bassPitch = downFiveOrUpFour(previousBassPitch, bassNote); // TODO maybe revisit
@@ -61,14 +62,9 @@ public class VoiceLeading {
 				if (i <= lastPitchAdded)
 					continue;
 				
-				for (MidiPitch acceptable : nextChord) {
-					if (modPos(acceptable.get() - i, 12) == 0) {
-						found = true;
-						break;
-					}
-				}
+				found = nextChord.containsPitchClass(i);
 				if (found) {
-					retval.add(new MidiPitch(i));
+					retval.add(MidiPitch.of(i));
 					lastPitchAdded = i;
 					break;
 				}
@@ -85,19 +81,13 @@ public class VoiceLeading {
 //			return voiceLead(lastChord, nextChordSpec, bassMin, bassMax);
 		Chord retval = new Chord();
 		
-		Chord nextChord = nextChordSpec.build();
+		BuiltChord nextChord = nextChordSpec.interned();
 		List<MidiPitch> nonCommons = new ArrayList<>(); // collection of non-common pitches
 		// assign common pitches:
 		for (MidiPitch pitch : lastChord) {
-			boolean found = false;
-			for (MidiPitch acceptable : nextChord) {
-				if (modPos(acceptable.halfStepsTo(pitch), 12) == 0) {
-					retval.add(pitch.clone());
-					found = true;
-					break;
-				}
-			}
-			if (!found)
+			if (nextChord.containsPitchClass(pitch.get()))
+				retval.add(pitch.clone());
+			else
 				nonCommons.add(pitch);
 		}
 		int lastChordCenter = (int) lastChord.get().stream().mapToInt(MidiPitch::get).average().orElse(0);
@@ -134,32 +124,26 @@ public class VoiceLeading {
 			for (int i=1; i<=12; i++) {
 				MidiPitch toward = pitch.above(i*towardCenter);
 				if (!retval.contains(toward) && !forbiddenPitches.contains(toward)) { // have it already? forbidden pitch?
-					for (MidiPitch acceptable : nextChord) { // in next chord?
-						if (modPos(acceptable.halfStepsTo(toward),12) == 0) {
-							retval.add(toward);
-							found = true;
-							for (MidiPitch other : perfectPairs.get(pitch)) {
-								// forbid perfect parallel motion
-								int interval = pitch.halfStepsTo(toward);
-								forbiddenPitches.add(other.above(interval));
-							}
-							break;
+					if (nextChord.containsPitchClass(toward.get())) { // in next chord?
+						retval.add(toward);
+						found = true;
+						for (MidiPitch other : perfectPairs.get(pitch)) {
+							// forbid perfect parallel motion
+							int interval = pitch.halfStepsTo(toward);
+							forbiddenPitches.add(other.above(interval));
 						}
 					}
 					if (found) break;
 				}
 				MidiPitch away = pitch.above(i*awayFromCenter);
 				if (!retval.contains(away) && !forbiddenPitches.contains(away)) { // have it already? forbidden pitch?
-					for (MidiPitch acceptable : nextChord) { // in next chord?
-						if (modPos(acceptable.halfStepsTo(away),12) == 0) {
-							retval.add(away);
-							found = true;
-							for (MidiPitch other : perfectPairs.get(pitch)) {
-								// forbid perfect parallel motion
-								int interval = pitch.halfStepsTo(away);
-								forbiddenPitches.add(other.above(interval));
-							}
-							break;
+					if (nextChord.containsPitchClass(away.get())) { // in next chord?
+						retval.add(away);
+						found = true;
+						for (MidiPitch other : perfectPairs.get(pitch)) {
+							// forbid perfect parallel motion
+							int interval = pitch.halfStepsTo(away);
+							forbiddenPitches.add(other.above(interval));
 						}
 					}
 					if (found) break;